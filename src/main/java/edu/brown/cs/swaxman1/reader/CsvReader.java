@@ -4,11 +4,23 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class for reading CSV files and splitting their lines into records.
  *
+ * Fields may be quoted, in which case they can hold the delimeter, line
+ * breaks, and quotes written twice (""). Use stream to read a file one record
+ * at a time; the constructors read the whole file.
+ *
  * @author swaxman1
  *
  */
@@ -60,35 +72,161 @@ public class CsvReader {
    *           numbers of fields
    */
   private String[][] readLines() throws IOException, InvalidFormatException {
+    try (Stream<String[]> stream = stream(this.path, this.delim)) {
+      return stream.toArray(String[][]::new);
+    } catch (UncheckedIOException e) {
+      throw new IOException("CsvReader: " + e.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Same as other stream but assumes delimeter is comma.
+   *
+   * @param path - path to file to read
+   * @return the file's records, read as they are needed
+   * @throws IOException - Thrown if the file can't be opened
+   */
+  public static Stream<String[]> stream(String path) throws IOException {
+    return stream(path, ",");
+  }
+
+  /**
+   * Reads a file's records lazily, so only the current record is held in
+   * memory and callers can stop early. The stream must be closed to close
+   * the file.
+   *
+   * @param path - path to file to read
+   * @param delim - delimeter to split on, taken literally
+   * @return the file's records, read as they are needed
+   * @throws IOException - Thrown if the file can't be opened; later read
+   *           errors are thrown as UncheckedIOException
+   * @throws IllegalArgumentException - Thrown if delim is empty, since it
+   *           couldn't separate any fields
+   */
+  public static Stream<String[]> stream(String path, String delim)
+          throws IOException {
+    if (delim == null || delim.isEmpty()) {
+      throw new IllegalArgumentException("CsvReader: empty delimeter");
+    }
     BufferedReader r;
     try {
-      r = new BufferedReader(new FileReader(this.path));
+      r = new BufferedReader(new FileReader(path));
     } catch (FileNotFoundException e) {
       throw new FileNotFoundException("CsvReader: " + e.getMessage());
     }
-    ArrayList<String> lines = new ArrayList<String>();
-    try {
-      // Go through lines, adding them to a list
-      String line = r.readLine();
-      while (line != null) {
-        lines.add(line);
-        line = r.readLine();
+    RecordIterator records = new RecordIterator(r, delim);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(records,
+            Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(records::close);
+  }
+
+  /**
+   * Reads one record at a time from a reader.
+   */
+  private static class RecordIterator implements Iterator<String[]> {
+    private final BufferedReader reader;
+    private final String delim;
+    // the record next returns, null if it hasn't been read yet
+    private String[] next;
+    private boolean done = false;
+
+    RecordIterator(BufferedReader reader, String delim) {
+      this.reader = reader;
+      this.delim = delim;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          next = readRecord();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        done = next == null;
+      }
+      return next != null;
+    }
+
+    @Override
+    public String[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String[] record = next;
+      next = null;
+      return record;
+    }
+
+    /**
+     * Parses the next record, which spans more than one line if a quoted
+     * field has line breaks in it.
+     *
+     * @return the record's fields, or null at the end of the file
+     * @throws IOException - Thrown if reader fails
+     */
+    private String[] readRecord() throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+        return null;
       }
-      String[][] tempRecords = new String[lines.size()][];
-      // for each line, split it by the delim and set the rows of an array
-      // to these records
-      for (int i = 0; i < lines.size(); i++) {
-        tempRecords[i] = lines.get(i).split(this.delim, -1);
+
+      List<String> fields = new ArrayList<>();
+      StringBuilder field = new StringBuilder();
+      boolean fieldStart = true;
+      boolean quoted = false;
+      int i = 0;
+      while (true) {
+        if (i >= line.length()) {
+          if (!quoted) {
+            break;
+          }
+          // the quoted field goes on to the next line
+          line = reader.readLine();
+          if (line == null) {
+            break;
+          }
+          field.append('\n');
+          i = 0;
+          continue;
+        }
+
+        char c = line.charAt(i);
+        if (quoted) {
+          if (c != '"') {
+            field.append(c);
+          } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+            field.append('"');
+            i++;
+          } else {
+            quoted = false;
+          }
+          i++;
+        } else if (line.startsWith(delim, i)) {
+          fields.add(field.toString());
+          field.setLength(0);
+          fieldStart = true;
+          i += delim.length();
+        } else {
+          if (c == '"' && fieldStart) {
+            quoted = true;
+          } else {
+            field.append(c);
+          }
+          fieldStart = false;
+          i++;
+        }
       }
-      if (tempRecords.length == 0) {
-        r.close();
-        return tempRecords;
+      fields.add(field.toString());
+      return fields.toArray(new String[fields.size()]);
+    }
+
+    private void close() {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-      // check that all records have same field numbers
-      r.close();
-      return tempRecords;
-    } catch (IOException e) {
-      throw new IOException("CsvReader: " + e.getMessage());
     }
   }
 
@@ -4,13 +4,29 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.Map;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
+import edu.brown.cs.termproject.database.ConnectionPool;
+import edu.brown.cs.termproject.database.DBConnector;
+import edu.brown.cs.termproject.database.QueryPool;
+import edu.brown.cs.termproject.database.SchemaManager;
+import edu.brown.cs.termproject.database.SeenRegistry;
+import edu.brown.cs.termproject.networking.AutocompleteClient;
+import edu.brown.cs.termproject.networking.OutboundQueue;
 import edu.brown.cs.termproject.networking.Room;
+import edu.brown.cs.termproject.networking.RoomRegistry;
 import edu.brown.cs.termproject.networking.ServerSocket;
+import edu.brown.cs.termproject.networking.SessionReaper;
+import edu.brown.cs.termproject.networking.SuggestionLog;
 import edu.brown.cs.termproject.networking.Suggestions;
+import edu.brown.cs.termproject.queryGenerator.AnswerRefresher;
+import edu.brown.cs.termproject.queryGenerator.QueryValidator;
 import edu.brown.cs.termproject.scoring.Suggestion;
 import edu.brown.cs.termproject.scoring.Word2VecModel;
 import freemarker.template.Configuration;
@@ -18,6 +34,7 @@ import spark.ExceptionHandler;
 import spark.ModelAndView;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 import spark.Spark;
 import spark.TemplateViewRoute;
 import spark.template.freemarker.FreeMarkerEngine;
@@ -27,6 +44,22 @@ import spark.template.freemarker.FreeMarkerEngine;
  */
 public final class Main {
 
+  private static final String DB_PATH = "data/gFeud.sqlite3";
+  private static final long QUERY_POOL_REFRESH_SECONDS = 60;
+  private static final long ANSWER_REFRESH_SECONDS = 60;
+  private static final int OUTBOUND_QUEUE_CAPACITY = 64;
+  private static final boolean PERMESSAGE_DEFLATE = true;
+  // Share of the heap open rooms may use.
+  private static final double ROOM_MEMORY_FRACTION = 0.5;
+  private static final long ROOM_IDLE_MILLIS = 30 * 60 * 1000;
+  private static final long PING_AFTER_MILLIS = 30 * 1000;
+  private static final long SESSION_DEAD_MILLIS = 90 * 1000;
+  private static final long REAP_MILLIS = 15 * 1000;
+  private static final long AUTOCOMPLETE_TIMEOUT_MILLIS = 2000;
+  private static final int AUTOCOMPLETE_MAX_IN_FLIGHT = 16;
+  private static final String SUGGESTION_LOG_PATH = "data/suggestions.log";
+  private static final int PROMPT_SUGGESTIONS = 8;
+
   private String[] args;
 
   /**
@@ -45,6 +78,26 @@ public final class Main {
 
   private void run() {
     Word2VecModel.model.tokenize("the cat");
+    OutboundQueue.configure(OUTBOUND_QUEUE_CAPACITY,
+        OutboundQueue.Overflow.DROP_OLDEST);
+    ServerSocket.setPermessageDeflate(PERMESSAGE_DEFLATE);
+    RoomRegistry.shared().setCapacity(RoomRegistry.capacityFor(
+        (long) (Runtime.getRuntime().maxMemory() * ROOM_MEMORY_FRACTION)));
+    ServerSocket.startReaper(PING_AFTER_MILLIS, SESSION_DEAD_MILLIS,
+        ROOM_IDLE_MILLIS, REAP_MILLIS);
+    AutocompleteClient.configure(AutocompleteClient.GOOGLE_SUGGESTIONS,
+        AUTOCOMPLETE_TIMEOUT_MILLIS, AUTOCOMPLETE_MAX_IN_FLIGHT);
+    SuggestionLog.configure(Paths.get(SUGGESTION_LOG_PATH));
+    SuggestionLog.shared().preload();
+    try {
+      QueryPool.shared().start(DBConnector.shared(DB_PATH),
+          QUERY_POOL_REFRESH_SECONDS);
+      SeenRegistry.shared().start(DBConnector.shared(DB_PATH));
+      AnswerRefresher.shared().start(DBConnector.shared(DB_PATH),
+          ANSWER_REFRESH_SECONDS);
+    } catch (SQLException e) {
+      System.out.println("ERROR: Unable to load query pool: " + e.getMessage());
+    }
     runSparkServer(4567);
   }
 
@@ -58,6 +111,8 @@ public final class Main {
     Spark.webSocket("/connection", ServerSocket.class);
     Spark.get("/", new HomeHandler(), freeMarker);
     Spark.get("/room/:room", new RoomHandler(), freeMarker);
+    Spark.get("/stats", new StatsHandler());
+    Spark.get("/prompts", new PromptsHandler());
 
   }
 
@@ -87,6 +142,130 @@ public final class Main {
     }
   }
 
+  /**
+   * Handle requests for stored queries starting with what a host has typed as
+   * a custom query, as a JSON array.
+   */
+  private static class PromptsHandler implements Route {
+    @Override
+    public Object handle(Request req, Response res) {
+      String prefix = req.queryParams("term");
+      JsonArray prompts = new JsonArray();
+      if (prefix != null && !prefix.isEmpty()) {
+        try {
+          for (String prompt : DBConnector.shared(DB_PATH)
+              .queriesStartingWith(prefix, PROMPT_SUGGESTIONS)) {
+            prompts.add(prompt);
+          }
+        } catch (SQLException e) {
+          System.out.println("ERROR: Unable to suggest queries: "
+              + e.getMessage());
+        }
+      }
+
+      res.type("application/json");
+      return prompts.toString();
+    }
+  }
+
+  /**
+   * Handle requests for server metrics, as JSON.
+   */
+  private static class StatsHandler implements Route {
+    @Override
+    public Object handle(Request req, Response res) {
+      int sessions = 0;
+      int queued = 0;
+      int maxDepth = 0;
+      long dropped = 0;
+      for (OutboundQueue queue : OutboundQueue.all()) {
+        sessions++;
+        queued += queue.depth();
+        maxDepth = Math.max(maxDepth, queue.maxDepth());
+        dropped += queue.dropped();
+      }
+
+      JsonObject outbound = new JsonObject();
+      outbound.addProperty("sessions", sessions);
+      outbound.addProperty("queued", queued);
+      outbound.addProperty("maxDepth", maxDepth);
+      outbound.addProperty("dropped", dropped);
+      outbound.addProperty("evicted", OutboundQueue.evicted());
+
+      JsonObject rooms = new JsonObject();
+      rooms.addProperty("open", RoomRegistry.shared().size());
+      rooms.addProperty("capacity", RoomRegistry.shared().getCapacity());
+      rooms.addProperty("reaped", RoomRegistry.shared().reaped());
+
+      JsonObject heartbeats = new JsonObject();
+      heartbeats.addProperty("sessions", SessionReaper.shared().size());
+      heartbeats.addProperty("pings", SessionReaper.shared().pings());
+      heartbeats.addProperty("reaped", SessionReaper.shared().reaped());
+
+      AutocompleteClient client = AutocompleteClient.shared();
+      JsonObject autocomplete = new JsonObject();
+      autocomplete.addProperty("requests", client.requests());
+      autocomplete.addProperty("failures", client.failures());
+      autocomplete.addProperty("timeouts", client.timeouts());
+      autocomplete.addProperty("rejected", client.rejected());
+
+      QueryValidator validator = QueryValidator.shared();
+      JsonObject customQueries = new JsonObject();
+      customQueries.addProperty("hits", validator.hits());
+      customQueries.addProperty("invalidHits", validator.invalidHits());
+      customQueries.addProperty("misses", validator.misses());
+      customQueries.addProperty("coalesced", validator.coalesced());
+
+      AnswerRefresher refresher = AnswerRefresher.shared();
+      JsonObject answers = new JsonObject();
+      answers.addProperty("checked", refresher.checked());
+      answers.addProperty("unchanged", refresher.unchanged());
+      answers.addProperty("updated", refresher.updated());
+      answers.addProperty("tooFew", refresher.tooFew());
+      answers.addProperty("failed", refresher.failed());
+
+      QueryPool queryPool = QueryPool.shared();
+      JsonObject categories = new JsonObject();
+      for (String category : queryPool.categories()) {
+        categories.addProperty(category, queryPool.size(category));
+      }
+      JsonObject queries = new JsonObject();
+      queries.addProperty("pooled", queryPool.size());
+      queries.add("categories", categories);
+
+      JsonObject db = new JsonObject();
+      try {
+        DBConnector dbc = DBConnector.shared(DB_PATH);
+        ConnectionPool pool = dbc.getPool();
+        db.addProperty("schemaVersion", SchemaManager.version(pool));
+        db.addProperty("reads", pool.reads());
+        db.addProperty("readWaits", pool.readWaits());
+        db.addProperty("readWaitMillis", pool.readWaitMillis());
+        db.addProperty("writes", pool.writes());
+        db.addProperty("statementsPrepared", pool.statementsPrepared());
+        db.addProperty("statementsReused", pool.statementsReused());
+        db.addProperty("storedLoads", dbc.storedLoads());
+        db.addProperty("clusteredLoads", dbc.clusteredLoads());
+        db.addProperty("metaModeQueries", dbc.getMetaModeIndex().size());
+      } catch (SQLException e) {
+        db.addProperty("error", e.getMessage());
+      }
+
+      JsonObject stats = new JsonObject();
+      stats.add("rooms", rooms);
+      stats.add("outbound", outbound);
+      stats.add("heartbeats", heartbeats);
+      stats.add("autocomplete", autocomplete);
+      stats.add("customQueries", customQueries);
+      stats.add("db", db);
+      stats.add("answerRefresh", answers);
+      stats.add("queries", queries);
+
+      res.type("application/json");
+      return stats.toString();
+    }
+  }
+
   private static FreeMarkerEngine createEngine() {
     Configuration config = new Configuration();
     File templates = new File("src/main/resources/spark/template/freemarker");
@@ -0,0 +1,319 @@
+package edu.brown.cs.termproject.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The connections to one SQLite database: a few read-only connections handed
+ * out one caller at a time, and a single connection for writes. The database
+ * is put in write-ahead log mode, so readers see the last committed data and
+ * never wait for the writer, and the writer never waits for readers.
+ *
+ * <p>
+ * Each connection keeps the statements prepared on it, so the same SQL is
+ * only compiled once per connection.
+ *
+ * @author swaxman1
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+  // How long a connection waits on another's lock before failing.
+  private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * Database work done with a connection from the pool.
+   *
+   * @param <T>
+   *          the type of the work's result
+   */
+  public interface Work<T> {
+    /**
+     * Does the work.
+     *
+     * @param handle
+     *          the connection to use, only until the work returns
+     * @return the result of the work
+     * @throws SQLException
+     *           if a statement fails
+     */
+    T run(Handle handle) throws SQLException;
+  }
+
+  /**
+   * A connection borrowed from the pool, with its prepared statements.
+   */
+  public final class Handle {
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    private Handle(Connection conn) {
+      this.conn = conn;
+    }
+
+    /**
+     * Gets a statement for some SQL, preparing it the first time it is used
+     * on this connection. The statement belongs to the connection and must
+     * not be closed, but its result sets must be.
+     *
+     * @param sql
+     *          the SQL
+     * @return the prepared statement, with its parameters cleared
+     * @throws SQLException
+     *           if the SQL can't be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement prep = statements.get(sql);
+      if (prep == null) {
+        prep = conn.prepareStatement(sql);
+        statements.put(sql, prep);
+        prepared.incrementAndGet();
+      } else {
+        prep.clearParameters();
+        prep.clearBatch();
+        reused.incrementAndGet();
+      }
+      return prep;
+    }
+
+    /**
+     * Gets the underlying connection, for work the statement cache doesn't
+     * fit.
+     *
+     * @return the connection
+     */
+    public Connection getConnection() {
+      return conn;
+    }
+
+    private void close() {
+      try {
+        for (PreparedStatement prep : statements.values()) {
+          prep.close();
+        }
+        conn.close();
+      } catch (SQLException e) {
+        System.out.println("ERROR: Unable to close connection: "
+            + e.getMessage());
+      }
+    }
+  }
+
+  private final BlockingQueue<Handle> readers;
+  private final List<Handle> allReaders = new ArrayList<>();
+  private final Handle writer;
+  private final ReentrantLock writeLock = new ReentrantLock(true);
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong readWaits = new AtomicLong();
+  private final AtomicLong readWaitNanos = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong prepared = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+
+  /**
+   * Opens the connections to a database and puts it in write-ahead log mode.
+   *
+   * @param dbPath
+   *          the path to the database file
+   * @param readerCount
+   *          the number of read-only connections
+   * @throws SQLException
+   *           if the database can't be opened
+   */
+  public ConnectionPool(String dbPath, int readerCount) throws SQLException {
+    try {
+      Class.forName("org.sqlite.JDBC");
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(e.getMessage());
+    }
+    String url = "jdbc:sqlite:" + dbPath;
+
+    writer = new Handle(open(url, "PRAGMA journal_mode = WAL;",
+        // Safe in WAL mode: a crash can lose the last commits, never corrupt.
+        "PRAGMA synchronous = NORMAL;"));
+    readers = new ArrayBlockingQueue<>(readerCount);
+    try {
+      for (int i = 0; i < readerCount; i++) {
+        Handle reader = new Handle(open(url, "PRAGMA query_only = 1;"));
+        allReaders.add(reader);
+        readers.add(reader);
+      }
+    } catch (SQLException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private static Connection open(String url, String... pragmas)
+      throws SQLException {
+    Connection conn = DriverManager.getConnection(url);
+    try (Statement stat = conn.createStatement()) {
+      stat.executeUpdate("PRAGMA foreign_keys = ON;");
+      stat.executeUpdate("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS + ";");
+      for (String pragma : pragmas) {
+        stat.execute(pragma);
+      }
+    }
+    return conn;
+  }
+
+  /**
+   * Does work with a read-only connection, waiting for one to be free.
+   *
+   * @param work
+   *          the work, which must only read
+   * @param <T>
+   *          the type of the work's result
+   * @return the result of the work
+   * @throws SQLException
+   *           if the work fails or the thread is interrupted while waiting
+   */
+  public <T> T read(Work<T> work) throws SQLException {
+    Handle reader = readers.poll();
+    if (reader == null) {
+      readWaits.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        reader = readers.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted waiting for a connection", e);
+      }
+      readWaitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    reads.incrementAndGet();
+    try {
+      return work.run(reader);
+    } finally {
+      readers.add(reader);
+    }
+  }
+
+  /**
+   * Does work with the writing connection, waiting for other writes to
+   * finish. Each statement commits on its own.
+   *
+   * @param work
+   *          the work
+   * @param <T>
+   *          the type of the work's result
+   * @return the result of the work
+   * @throws SQLException
+   *           if the work fails
+   */
+  public <T> T write(Work<T> work) throws SQLException {
+    writeLock.lock();
+    try {
+      writes.incrementAndGet();
+      return work.run(writer);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Does work with the writing connection in one transaction, which is
+   * rolled back if the work fails.
+   *
+   * @param work
+   *          the work
+   * @param <T>
+   *          the type of the work's result
+   * @return the result of the work
+   * @throws SQLException
+   *           if the work fails
+   */
+  public <T> T transaction(Work<T> work) throws SQLException {
+    return write((handle) -> {
+      Connection conn = handle.getConnection();
+      conn.setAutoCommit(false);
+      try {
+        T result = work.run(handle);
+        conn.commit();
+        return result;
+      } catch (SQLException | RuntimeException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    });
+  }
+
+  /**
+   * Gets the number of reads done.
+   *
+   * @return the number of reads
+   */
+  public long reads() {
+    return reads.get();
+  }
+
+  /**
+   * Gets the number of reads that had to wait for a connection.
+   *
+   * @return the number of waits
+   */
+  public long readWaits() {
+    return readWaits.get();
+  }
+
+  /**
+   * Gets the total time reads spent waiting for a connection.
+   *
+   * @return the time waited, in milliseconds
+   */
+  public long readWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readWaitNanos.get());
+  }
+
+  /**
+   * Gets the number of writes and transactions done.
+   *
+   * @return the number of writes
+   */
+  public long writes() {
+    return writes.get();
+  }
+
+  /**
+   * Gets the number of statements prepared, across all connections.
+   *
+   * @return the number of statements prepared
+   */
+  public long statementsPrepared() {
+    return prepared.get();
+  }
+
+  /**
+   * Gets the number of times a cached statement was used instead of
+   * preparing it again.
+   *
+   * @return the number of reused statements
+   */
+  public long statementsReused() {
+    return reused.get();
+  }
+
+  @Override
+  public void close() {
+    for (Handle reader : allReaders) {
+      reader.close();
+    }
+    if (writer != null) {
+      writer.close();
+    }
+  }
+}
@@ -1,16 +1,28 @@
 package edu.brown.cs.termproject.database;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.brown.cs.termproject.queryResponses.QueryResponses;
 import edu.brown.cs.termproject.queryResponses.Response;
@@ -18,66 +30,180 @@ import edu.brown.cs.termproject.scoring.Clustering;
 import edu.brown.cs.termproject.scoring.Suggestion;
 import edu.brown.cs.termproject.scoring.Word2VecModel;
 
+/**
+ * Reads and writes the game's SQLite database through a ConnectionPool, so
+ * loading queries for new games never waits on other reads or on writes.
+ *
+ * Each query's clustering is stored alongside its answers, so loading a query
+ * only rebuilds the clusters instead of comparing every answer with every
+ * other. Stored clusterings are dropped when the clustering version changes,
+ * and queries without one are clustered on their first load.
+ *
+ * Meta mode works the same way from a summary of each query's guesses, which
+ * the meta mode writer keeps up to date, and picks its queries from a
+ * MetaModeIndex instead of counting guesses.
+ *
+ * The text of every query is kept in a RadixTrie too, so checking for
+ * duplicates and suggesting queries as hosts type don't touch the database.
+ */
 public class DBConnector {
   private static final Set<String> TABLE_NAMES = new TreeSet<String>(
       Arrays.asList("queries", "answers"));
+  private static final int READERS = 4;
 
-  public DBConnector(String dbPath) throws SQLException {
-    try {
-      Class.forName("org.sqlite.JDBC");
-    } catch (ClassNotFoundException e) {
-      throw new IllegalArgumentException(e.getMessage());
-    }
-    String urlToDB = "jdbc:sqlite:" + dbPath;
-    // set database connection
-    conn = DriverManager.getConnection(urlToDB);
-    Statement stat = conn.createStatement();
-    stat.executeUpdate("PRAGMA foreign_keys = ON;");
-    // get tables to check if they are valid
-    ResultSet rs = conn.getMetaData().getTables(null, null, null, null);
+  /**
+   * The number of most guessed answers a meta mode round is played with.
+   */
+  public static final int META_MODE_ANSWERS = 10;
+  private static final Map<String, DBConnector> SHARED = new HashMap<>();
+  // Writes nobody waits for, like saving meta mode guesses, run here in order.
+  private static final ExecutorService WRITER = Executors
+      .newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("db-writer").build());
 
-    List<String> tables = new ArrayList<>();
+  private final ConnectionPool pool;
+  private final MetaModeIndex metaModeIndex = new MetaModeIndex();
+  private final RadixTrie prompts = new RadixTrie();
+  private final AtomicLong storedLoads = new AtomicLong();
+  private final AtomicLong clusteredLoads = new AtomicLong();
+  private volatile boolean versionChecked = false;
 
-    while (rs.next()) {
+  public DBConnector(String dbPath) throws SQLException {
+    pool = new ConnectionPool(dbPath, READERS);
 
-      tables.add(rs.getString(3));
-    }
-    rs.close();
+    // get tables to check if they are valid
+    List<String> tables = pool.read((handle) -> {
+      List<String> names = new ArrayList<>();
+      try (ResultSet rs = handle.getConnection().getMetaData().getTables(null,
+          null, null, null)) {
+        while (rs.next()) {
+          names.add(rs.getString(3));
+        }
+      }
+      return names;
+    });
     for (String tName : TABLE_NAMES) {
       if (!tables.contains(tName)) {
-        conn = null;
-        String errMessage = "Database file must have following table names: ";
+        pool.close();
         throw new IllegalArgumentException(
             "Database file did not have the required table \"" + tName + "\".");
       }
     }
+
+    try {
+      SchemaManager.migrate(pool);
+    } catch (SQLException e) {
+      pool.close();
+      throw e;
+    }
+
+    pool.read((handle) -> {
+      try (ResultSet rs = handle
+          .prepare("SELECT queryID, guesses FROM guess_summary;")
+          .executeQuery()) {
+        while (rs.next()) {
+          metaModeIndex.update(rs.getInt(1), rs.getInt(2));
+        }
+      }
+      return null;
+    });
+    for (String query : allQueries()) {
+      prompts.add(query);
+    }
+  }
+
+  /**
+   * Gets the DBConnector shared by everything using a database file, opening
+   * it the first time.
+   * 
+   * @param dbPath
+   *          - Path to the database file
+   * @return - The shared DBConnector
+   * @throws SQLException
+   *           - If the database can't be opened.
+   */
+  public static synchronized DBConnector shared(String dbPath)
+      throws SQLException {
+    DBConnector db = SHARED.get(dbPath);
+    if (db == null) {
+      db = new DBConnector(dbPath);
+      SHARED.put(dbPath, db);
+    }
+    return db;
+  }
+
+  /**
+   * Gets the connections this DBConnector uses, for metrics.
+   * 
+   * @return - The ConnectionPool
+   */
+  public ConnectionPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Gets the number of queries loaded from their stored clustering.
+   * 
+   * @return - The number of stored loads
+   */
+  public long storedLoads() {
+    return storedLoads.get();
+  }
+
+  /**
+   * Gets the number of queries that had to be clustered as they loaded,
+   * because they had no stored clustering.
+   * 
+   * @return - The number of clustered loads
+   */
+  public long clusteredLoads() {
+    return clusteredLoads.get();
   }
 
-  private Connection conn;
+  /**
+   * Runs a transaction on the writing connection without waiting for it.
+   * Writes submitted this way run one at a time, in order.
+   * 
+   * @param work
+   *          - The writes to make
+   * @return - A future that completes when the transaction commits, or
+   *         fails if it is rolled back
+   */
+  public CompletableFuture<Void> writeInBackground(
+      ConnectionPool.Work<?> work) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        pool.transaction(work);
+      } catch (SQLException e) {
+        throw new CompletionException(e);
+      }
+    }, WRITER);
+  }
 
   /**
-   * Checks if the database contains the given query.
+   * Checks if the database contains the given query, without reading the
+   * database.
    * 
    * @param query
    *          - the query to check for the presence of
    * @return - boolean corresponding to whether or not the query is contained
    */
   public boolean containsQuery(String query) {
-    try (PreparedStatement prep = conn
-        .prepareStatement("SELECT COUNT(*) FROM queries WHERE query = ?;");) {
-      prep.setString(1, query);
-      ResultSet rs = prep.executeQuery();
-      int count = rs.getInt(1);
-      if (count == 0) {
-        prep.close();
-        return false;
-      } else {
-        prep.close();
-        return true;
-      }
-    } catch (SQLException e) {
-      return false;
-    }
+    return prompts.contains(query);
+  }
+
+  /**
+   * Gets the stored queries that start with what a host has typed, for
+   * suggesting custom queries.
+   * 
+   * @param prefix
+   *          - What the host has typed
+   * @param limit
+   *          - The most queries to return
+   * @return - Up to limit queries starting with prefix, alphabetically
+   */
+  public List<String> queriesStartingWith(String prefix, int limit) {
+    return prompts.startingWith(prefix, limit);
   }
 
   /**
@@ -92,32 +218,86 @@ public class DBConnector {
    *           - If SQL statements encounter issues.
    */
   public List<QueryResponses> nRandomQueries(int queryNum) throws SQLException {
-    PreparedStatement prep = conn
-        .prepareStatement("SELECT * FROM queries ORDER BY RANDOM() LIMIT ?;");
-    prep.setInt(1, queryNum);
-    ResultSet rs = prep.executeQuery();
     List<QueryResponses> queries = new ArrayList<>();
-    while (rs.next()) {
-      String query = rs.getString("query");
-      int qID = rs.getInt("ID");
-      List<String> responses = new ArrayList<>();
-      PreparedStatement resPrep = conn.prepareStatement(
-          "SELECT answer FROM answers WHERE queryID = ? ORDER BY score;");
-      resPrep.setInt(1, qID);
-      ResultSet resRs = resPrep.executeQuery();
-
-      while (resRs.next()) {
-        responses.add(resRs.getString(1));
+    for (int qID : nRandomQueryIds(queryNum)) {
+      QueryResponses qr = getQuery(qID);
+      if (qr != null) {
+        queries.add(qr);
       }
-      resPrep.close();
-      queries.add(new QueryResponses(qID, query,
-          Clustering.newSuggestionClustering(responses, Word2VecModel.model)));
     }
-    prep.close();
-    // ResultSets closed when you close their prep;
     return queries;
   }
 
+  /**
+   * Returns the ids of queryNum random queries. Cheap compared to loading the
+   * queries themselves, so callers can pick a game's queries up front and load
+   * them later.
+   * 
+   * @param queryNum
+   *          - Number of ids to return
+   * @return - ids of queryNum random queries
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public List<Integer> nRandomQueryIds(int queryNum) throws SQLException {
+    return readIds("SELECT ID FROM queries ORDER BY RANDOM() LIMIT ?;",
+        queryNum);
+  }
+
+  /**
+   * Same as nRandomQueryIds, but only picks queries from the given
+   * categories. Only used until the QueryPool has loaded, which picks them
+   * from memory.
+   * 
+   * @param queryNum
+   *          - Number of ids to return
+   * @param categories
+   *          - The categories to pick from
+   * @return - ids of up to queryNum random queries in the categories
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public List<Integer> nRandomQueryIds(int queryNum,
+      Collection<String> categories) throws SQLException {
+    if (categories.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    String marks = String.join(", ", Collections.nCopies(categories.size(),
+        "?"));
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle.prepare("SELECT ID FROM queries "
+          + "WHERE category IN (" + marks + ") ORDER BY RANDOM() LIMIT ?;");
+      int i = 1;
+      for (String category : categories) {
+        prep.setString(i++, category);
+      }
+      prep.setInt(i, queryNum);
+      List<Integer> ids = new ArrayList<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          ids.add(rs.getInt(1));
+        }
+      }
+      return ids;
+    });
+  }
+
+  /**
+   * Loads a single query from its stored clustering, clustering its answers
+   * and storing the result if it has none.
+   * 
+   * @param qID
+   *          - id of the query
+   * @return - the query as a QueryResponses, null if there is no such query
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public QueryResponses getQuery(int qID) throws SQLException {
+    return loadQuery(qID, "clusters",
+        "SELECT answer FROM answers WHERE queryID = ? ORDER BY score;");
+  }
+
   /**
    * Returns queryNum random Queries in the form of QueryResponses datatype, or,
    * if QueryNum > the number of queries in the database, returns all queries in
@@ -131,32 +311,388 @@ public class DBConnector {
    */
   public List<QueryResponses> nRandomMetaModeQueries(int queryNum)
       throws SQLException {
-    PreparedStatement prep = conn.prepareStatement(
-        "select * from queries where ID in " + "(select queryID from "
-            + "(select queryID, count(*) as c from guesses group by queryID) where c > 3) "
-            + "order by random() limit ?;");
-    prep.setInt(1, queryNum);
-    ResultSet rs = prep.executeQuery();
     List<QueryResponses> queries = new ArrayList<>();
-    while (rs.next()) {
-      String query = rs.getString("query");
-      int qID = rs.getInt("ID");
-      List<String> responses = new ArrayList<>();
-      PreparedStatement resPrep = conn.prepareStatement(
-          "SELECT answer FROM guesses WHERE queryID = ? ORDER BY score DESC LIMIT 10;");
+    for (int qID : nRandomMetaModeQueryIds(queryNum)) {
+      QueryResponses qr = getMetaModeQuery(qID);
+      if (qr != null) {
+        queries.add(qr);
+      }
+    }
+    return queries;
+  }
+
+  /**
+   * Returns the ids of queryNum random queries that have enough guesses to be
+   * played in meta mode.
+   * 
+   * @param queryNum
+   *          - Number of ids to return
+   * @return - ids of queryNum random meta mode queries
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public List<Integer> nRandomMetaModeQueryIds(int queryNum)
+      throws SQLException {
+    return metaModeIndex.sample(queryNum, ThreadLocalRandom.current());
+  }
+
+  /**
+   * Loads the top guesses for a single query, for meta mode, from its guess
+   * summary, clustering them and storing the result if it has none.
+   * 
+   * @param qID
+   *          - id of the query
+   * @return - the query as a QueryResponses, null if there is no such query
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public QueryResponses getMetaModeQuery(int qID) throws SQLException {
+    return loadQuery(qID, "guess_top", "SELECT answer FROM guesses "
+        + "WHERE queryID = ? ORDER BY score DESC LIMIT "
+        + META_MODE_ANSWERS + ";");
+  }
+
+  /**
+   * Updates a query's guess summary after its guesses change: the number of
+   * distinct guesses, and the clustering of its most guessed answers. Called
+   * by the meta mode writer, in the transaction that changed the guesses.
+   * 
+   * @param handle
+   *          - The writing connection
+   * @param qID
+   *          - id of the query
+   * @param guesses
+   *          - The number of distinct guesses now stored for it
+   * @param top
+   *          - Its top META_MODE_ANSWERS guesses, clustered
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public void saveGuessSummary(ConnectionPool.Handle handle, int qID,
+      int guesses, Clustering<Suggestion> top) throws SQLException {
+    PreparedStatement prep = handle.prepare("INSERT OR REPLACE INTO "
+        + "guess_summary (queryID, guesses) VALUES (?, ?);");
+    prep.setInt(1, qID);
+    prep.setInt(2, guesses);
+    prep.executeUpdate();
+    saveClusters(handle, "guess_top", qID, top);
+    metaModeIndex.update(qID, guesses);
+  }
+
+  /**
+   * Gets the index of queries that can be played in meta mode.
+   * 
+   * @return - The MetaModeIndex
+   */
+  public MetaModeIndex getMetaModeIndex() {
+    return metaModeIndex;
+  }
+
+  /**
+   * Loads every query whose id is greater than lastId, in a single pass over
+   * the database. Queries without a stored clustering are clustered and
+   * stored. Used to fill and incrementally refresh the in-memory QueryPool.
+   * 
+   * @param lastId
+   *          - The largest id already loaded, or 0 to load everything
+   * @return - The queries in increasing id order
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public List<QueryResponses> queriesAfter(int lastId) throws SQLException {
+    checkVersion();
+    Map<Integer, String> storedTexts = new TreeMap<>();
+    Map<Integer, String> categories = new HashMap<>();
+    Map<Integer, List<Suggestion>> stored = new HashMap<>();
+    List<Integer> ids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    List<List<String>> answers = new ArrayList<>();
+    pool.read((handle) -> {
+      PreparedStatement storedPrep = handle.prepare(
+          "SELECT q.ID, q.query, q.category, c.phrase, c.score, c.tokens "
+              + "FROM queries q JOIN clusters c ON c.queryID = q.ID "
+              + "WHERE q.ID > ? ORDER BY q.ID, c.position;");
+      storedPrep.setInt(1, lastId);
+      try (ResultSet rs = storedPrep.executeQuery()) {
+        while (rs.next()) {
+          int qID = rs.getInt(1);
+          if (!storedTexts.containsKey(qID)) {
+            storedTexts.put(qID, rs.getString(2));
+            categories.put(qID, rs.getString(3));
+            stored.put(qID, new ArrayList<>());
+          }
+          stored.get(qID).add(Suggestion.fromTokens(rs.getString(4),
+              rs.getInt(5), rs.getString(6), Word2VecModel.model));
+        }
+      }
+
+      PreparedStatement prep = handle.prepare(
+          "SELECT q.ID, q.query, q.category, a.answer FROM queries q "
+              + "JOIN answers a ON a.queryID = q.ID "
+              + "WHERE q.ID > ? AND q.ID NOT IN "
+              + "(SELECT queryID FROM clusters) ORDER BY q.ID, a.score;");
+      prep.setInt(1, lastId);
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          int qID = rs.getInt(1);
+          if (ids.isEmpty() || ids.get(ids.size() - 1) != qID) {
+            ids.add(qID);
+            texts.add(rs.getString(2));
+            categories.put(qID, rs.getString(3));
+            answers.add(new ArrayList<>());
+          }
+          answers.get(answers.size() - 1).add(rs.getString(4));
+        }
+      }
+      return null;
+    });
+
+    Map<Integer, QueryResponses> queries = new TreeMap<>();
+    for (Map.Entry<Integer, String> entry : storedTexts.entrySet()) {
+      queries.put(entry.getKey(), new QueryResponses(entry.getKey(),
+          entry.getValue(), Clustering.newExistingSuggestionClustering(
+              stored.get(entry.getKey())), categories.get(entry.getKey())));
+    }
+    storedLoads.addAndGet(storedTexts.size());
+
+    List<QueryResponses> clustered = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      QueryResponses qr = new QueryResponses(ids.get(i), texts.get(i),
+          Clustering.newSuggestionClustering(answers.get(i),
+              Word2VecModel.model), categories.get(ids.get(i)));
+      clustered.add(qr);
+      queries.put(ids.get(i), qr);
+    }
+    if (!clustered.isEmpty()) {
+      clusteredLoads.addAndGet(clustered.size());
+      storeInBackground("clusters", clustered);
+    }
+    return new ArrayList<>(queries.values());
+  }
+
+  /**
+   * Gets the bitmap of queries a returning player has already played.
+   * 
+   * @param player
+   *          - the player's key
+   * @return - the bitmap written by saveSeenQueries, or null if there is none
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public byte[] getSeenQueries(String player) throws SQLException {
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle
+          .prepare("SELECT bitmap FROM seen WHERE player = ?;");
+      prep.setString(1, player);
+      try (ResultSet rs = prep.executeQuery()) {
+        return rs.next() ? rs.getBytes(1) : null;
+      }
+    });
+  }
+
+  /**
+   * Stores the bitmap of queries a returning player has already played, on
+   * the writing connection without waiting for it.
+   * 
+   * @param player
+   *          - the player's key
+   * @param bitmap
+   *          - the serialized SeenQueries
+   * @return - A future that completes when the bitmap is stored, or fails if
+   *         it couldn't be
+   */
+  public CompletableFuture<Void> saveSeenQueries(String player,
+      byte[] bitmap) {
+    return writeInBackground((handle) -> {
+      PreparedStatement prep = handle.prepare(
+          "INSERT OR REPLACE INTO seen (player, bitmap) VALUES (?, ?);");
+      prep.setString(1, player);
+      prep.setBytes(2, bitmap);
+      return prep.executeUpdate();
+    });
+  }
+
+  private List<Integer> readIds(String sql, int limit) throws SQLException {
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle.prepare(sql);
+      prep.setInt(1, limit);
+      List<Integer> ids = new ArrayList<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          ids.add(rs.getInt(1));
+        }
+      }
+      return ids;
+    });
+  }
+
+  /*
+   * Loads a query from its clustering stored in table, or clusters the
+   * answers answerSql selects and stores them if there is none.
+   */
+  private QueryResponses loadQuery(int qID, String table, String answerSql)
+      throws SQLException {
+    checkVersion();
+    List<Suggestion> stored = new ArrayList<>();
+    String query = pool.read((handle) -> {
+      String text = readText(handle, qID);
+      if (text != null) {
+        PreparedStatement prep = handle.prepare("SELECT phrase, score, tokens "
+            + "FROM " + table + " WHERE queryID = ? ORDER BY position;");
+        prep.setInt(1, qID);
+        try (ResultSet rs = prep.executeQuery()) {
+          while (rs.next()) {
+            stored.add(Suggestion.fromTokens(rs.getString(1), rs.getInt(2),
+                rs.getString(3), Word2VecModel.model));
+          }
+        }
+      }
+      return text;
+    });
+    if (query == null) {
+      return null;
+    }
+
+    if (!stored.isEmpty()) {
+      storedLoads.incrementAndGet();
+      return new QueryResponses(qID, query,
+          Clustering.newExistingSuggestionClustering(stored));
+    }
+
+    QueryResponses qr = readQuery(qID, answerSql);
+    if (qr != null) {
+      clusteredLoads.incrementAndGet();
+      storeInBackground(table, Arrays.asList(qr));
+    }
+    return qr;
+  }
+
+  private static String readText(ConnectionPool.Handle handle, int qID)
+      throws SQLException {
+    PreparedStatement prep = handle
+        .prepare("SELECT query FROM queries WHERE ID = ?;");
+    prep.setInt(1, qID);
+    try (ResultSet rs = prep.executeQuery()) {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  /*
+   * Reads the query text and its answers while holding a connection, then
+   * clusters outside of it so other threads can use the connection meanwhile.
+   */
+  private QueryResponses readQuery(int qID, String answerSql)
+      throws SQLException {
+    List<String> responses = new ArrayList<>();
+    String query = pool.read((handle) -> {
+      String text = readText(handle, qID);
+      if (text == null) {
+        return null;
+      }
+
+      PreparedStatement resPrep = handle.prepare(answerSql);
       resPrep.setInt(1, qID);
-      ResultSet resRs = resPrep.executeQuery();
+      try (ResultSet resRs = resPrep.executeQuery()) {
+        while (resRs.next()) {
+          responses.add(resRs.getString(1));
+        }
+      }
+      return text;
+    });
+    if (query == null) {
+      return null;
+    }
+
+    return new QueryResponses(qID, query,
+        Clustering.newSuggestionClustering(responses, Word2VecModel.model));
+  }
+
+  /*
+   * Writes a query's clustering to table, replacing any stored one. Callers
+   * are in a transaction.
+   */
+  private static void saveClusters(ConnectionPool.Handle handle, String table,
+      int qID, Clustering<Suggestion> clustering) throws SQLException {
+    PreparedStatement delete = handle
+        .prepare("DELETE FROM " + table + " WHERE queryID = ?;");
+    delete.setInt(1, qID);
+    delete.executeUpdate();
 
-      while (resRs.next()) {
-        responses.add(resRs.getString(1));
+    PreparedStatement prep = handle.prepare("INSERT INTO " + table
+        + " (queryID, position, phrase, score, tokens) "
+        + "VALUES (?, ?, ?, ?, ?);");
+    int position = 0;
+    for (Suggestion sug : clustering.asList()) {
+      prep.setInt(1, qID);
+      prep.setInt(2, position++);
+      prep.setString(3, sug.getResponse());
+      prep.setInt(4, sug.getScore());
+      prep.setString(5, sug.getTokens());
+      prep.addBatch();
+    }
+    prep.executeBatch();
+  }
+
+  /*
+   * Stores clusterings made on load. A query that got a clustering in the
+   * meantime, e.g. from a newer guess summary, keeps it.
+   */
+  private void storeInBackground(String table, List<QueryResponses> queries) {
+    writeInBackground((handle) -> {
+      PreparedStatement exists = handle.prepare(
+          "SELECT COUNT(*) FROM " + table + " WHERE queryID = ?;");
+      for (QueryResponses qr : queries) {
+        exists.setInt(1, qr.getId());
+        try (ResultSet rs = exists.executeQuery()) {
+          if (rs.getInt(1) > 0) {
+            continue;
+          }
+        }
+        saveClusters(handle, table, qr.getId(), qr.getResponses());
       }
-      resPrep.close();
-      queries.add(new QueryResponses(qID, query,
-          Clustering.newSuggestionClustering(responses, Word2VecModel.model)));
+      return null;
+    }).exceptionally((e) -> {
+      System.out.println("ERROR: Unable to store clusterings: "
+          + e.getMessage());
+      return null;
+    });
+  }
+
+  /*
+   * Drops every stored clustering the first time one is needed, if they were
+   * made by a different version of the clustering. They are made again as
+   * their queries load.
+   */
+  private void checkVersion() throws SQLException {
+    if (versionChecked) {
+      return;
+    }
+    synchronized (this) {
+      if (versionChecked) {
+        return;
+      }
+      String version = Clustering.suggestionVersion(Word2VecModel.model);
+      pool.transaction((handle) -> {
+        String storedVersion = null;
+        try (ResultSet rs = handle.prepare("SELECT version FROM clustering;")
+            .executeQuery()) {
+          if (rs.next()) {
+            storedVersion = rs.getString(1);
+          }
+        }
+        if (!version.equals(storedVersion)) {
+          handle.prepare("DELETE FROM clusters;").executeUpdate();
+          handle.prepare("DELETE FROM guess_top;").executeUpdate();
+          handle.prepare("DELETE FROM clustering;").executeUpdate();
+          PreparedStatement prep = handle
+              .prepare("INSERT INTO clustering (version) VALUES (?);");
+          prep.setString(1, version);
+          prep.executeUpdate();
+        }
+        return null;
+      });
+      versionChecked = true;
     }
-    prep.close();
-    // ResultSets closed when you close their prep;
-    return queries;
   }
 
   /**
@@ -177,18 +713,234 @@ public class DBConnector {
    * @throws SQLException
    */
   public void insertQuery(QueryResponses qr) throws SQLException {
-    PreparedStatement prep = conn
-        .prepareStatement("INSERT INTO queries (query) values (?);");
+    checkVersion();
+    pool.transaction((handle) -> insert(handle, qr, "INSERT"));
+    prompts.add(qr.getQuery());
+  }
+
+  /**
+   * Inserts many QueryResponses into the database in one transaction, for
+   * bulk loading. Queries that are already in the database are skipped
+   * instead of failing the batch. Otherwise, the same assumptions as
+   * insertQuery apply.
+   * 
+   * @param qrs
+   *          - The QueryResponses to add to the database
+   * @return - The number of queries inserted
+   * @throws SQLException
+   *           - If SQL statements encounter issues, in which case none of
+   *           the batch is inserted.
+   */
+  public int insertQueries(List<QueryResponses> qrs) throws SQLException {
+    checkVersion();
+    List<String> inserted = new ArrayList<>();
+    pool.transaction((handle) -> {
+      inserted.clear();
+      for (QueryResponses qr : qrs) {
+        if (insert(handle, qr, "INSERT OR IGNORE")) {
+          inserted.add(qr.getQuery());
+        }
+      }
+      return null;
+    });
+    // Only once they're committed.
+    for (String query : inserted) {
+      prompts.add(query);
+    }
+    return inserted.size();
+  }
+
+  /**
+   * Gets the queries whose answers were refreshed longest ago, never
+   * refreshed first.
+   * 
+   * @param limit
+   *          - The most queries to return
+   * @return - The queries' texts by id, stalest first
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public Map<Integer, String> stalestQueries(int limit) throws SQLException {
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle.prepare(
+          "SELECT ID, query FROM queries ORDER BY refreshed, ID LIMIT ?;");
+      prep.setInt(1, limit);
+      Map<Integer, String> queries = new LinkedHashMap<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          queries.put(rs.getInt(1), rs.getString(2));
+        }
+      }
+      return queries;
+    });
+  }
+
+  /**
+   * Gets the digest of the suggestions a query's answers were last made
+   * from.
+   * 
+   * @param qID
+   *          - id of the query
+   * @return - The digest, or null if it was never recorded
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public String answersDigest(int qID) throws SQLException {
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle
+          .prepare("SELECT digest FROM queries WHERE ID = ?;");
+      prep.setInt(1, qID);
+      try (ResultSet rs = prep.executeQuery()) {
+        return rs.next() ? rs.getString(1) : null;
+      }
+    });
+  }
+
+  /**
+   * Records that a query's answers were refreshed without changing them.
+   * 
+   * @param qID
+   *          - id of the query
+   * @param digest
+   *          - The digest of the suggestions they were checked against
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public void markRefreshed(int qID, String digest) throws SQLException {
+    pool.write((handle) -> {
+      markRefreshed(handle, qID, digest);
+      return null;
+    });
+  }
+
+  /**
+   * Replaces a query's answers with a new clustering in one transaction,
+   * only touching the answers that were added, removed or moved, and records
+   * that they were refreshed. QueryResponses already loaded are not changed.
+   * 
+   * @param qID
+   *          - id of the query
+   * @param digest
+   *          - The digest of the suggestions the clustering was made from
+   * @param clustering
+   *          - The new answers
+   * @return - True if any answer changed
+   * @throws SQLException
+   *           - If SQL statements encounter issues, in which case nothing
+   *           is changed.
+   */
+  public boolean refreshAnswers(int qID, String digest,
+      Clustering<Suggestion> clustering) throws SQLException {
+    checkVersion();
+    return pool.transaction((handle) -> {
+      PreparedStatement prep = handle
+          .prepare("SELECT ID, answer, score FROM answers WHERE queryID = ?;");
+      prep.setInt(1, qID);
+      // Each stored answer's ID and score, by its text.
+      Map<String, int[]> old = new HashMap<>();
+      List<Integer> removed = new ArrayList<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          int[] previous = old.put(rs.getString(2),
+              new int[] {rs.getInt(1), rs.getInt(3)});
+          if (previous != null) {
+            removed.add(previous[0]);
+          }
+        }
+      }
+
+      boolean changed = false;
+      PreparedStatement insert = handle.prepare(
+          "INSERT INTO answers (answer, score, queryID) values (?, ?, ?);");
+      PreparedStatement update = handle
+          .prepare("UPDATE answers SET score = ? WHERE ID = ?;");
+      for (Suggestion sug : clustering.asList()) {
+        int[] stored = old.remove(sug.getResponse());
+        if (stored == null) {
+          insert.setString(1, sug.getResponse());
+          insert.setInt(2, sug.getScore());
+          insert.setInt(3, qID);
+          insert.executeUpdate();
+          changed = true;
+        } else if (stored[1] != sug.getScore()) {
+          update.setInt(1, sug.getScore());
+          update.setInt(2, stored[0]);
+          update.executeUpdate();
+          changed = true;
+        }
+      }
+      for (int[] stored : old.values()) {
+        removed.add(stored[0]);
+      }
+
+      PreparedStatement delete = handle
+          .prepare("DELETE FROM answers WHERE ID = ?;");
+      for (int id : removed) {
+        delete.setInt(1, id);
+        delete.executeUpdate();
+        changed = true;
+      }
+
+      if (changed) {
+        saveClusters(handle, "clusters", qID, clustering);
+      }
+      markRefreshed(handle, qID, digest);
+      return changed;
+    });
+  }
+
+  private static void markRefreshed(ConnectionPool.Handle handle, int qID,
+      String digest) throws SQLException {
+    PreparedStatement prep = handle.prepare(
+        "UPDATE queries SET refreshed = ?, digest = ? WHERE ID = ?;");
+    prep.setLong(1, System.currentTimeMillis());
+    prep.setString(2, digest);
+    prep.setInt(3, qID);
+    prep.executeUpdate();
+  }
+
+  /**
+   * Gets the text of every query in the database.
+   * 
+   * @return - The queries
+   * @throws SQLException
+   *           - If SQL statements encounter issues.
+   */
+  public Set<String> allQueries() throws SQLException {
+    return pool.read((handle) -> {
+      Set<String> queries = new HashSet<>();
+      try (ResultSet rs = handle.prepare("SELECT query FROM queries;")
+          .executeQuery()) {
+        while (rs.next()) {
+          queries.add(rs.getString(1));
+        }
+      }
+      return queries;
+    });
+  }
+
+  /*
+   * Inserts a query, its answers and its clustering. Callers are in a
+   * transaction. insertVerb is how the query is inserted, e.g. INSERT OR
+   * IGNORE to skip queries that are already there.
+   */
+  private static boolean insert(ConnectionPool.Handle handle,
+      QueryResponses qr, String insertVerb) throws SQLException {
+    PreparedStatement prep = handle.prepare(
+        insertVerb + " INTO queries (query, category) values (?, ?);");
     prep.setString(1, qr.getQuery());
-    prep.execute();
-    prep.close();
-    prep = conn.prepareStatement("SELECT ID FROM queries WHERE query = ?;");
+    prep.setString(2, qr.getCategory());
+    if (prep.executeUpdate() == 0) {
+      return false;
+    }
+    prep = handle.prepare("SELECT ID FROM queries WHERE query = ?;");
     prep.setString(1, qr.getQuery());
-    ResultSet idSet = prep.executeQuery();
-    idSet.next();
-    int qID = idSet.getInt("ID");
-    prep.close();
-    prep = conn.prepareStatement(
+    int qID;
+    try (ResultSet idSet = prep.executeQuery()) {
+      idSet.next();
+      qID = idSet.getInt("ID");
+    }
+    prep = handle.prepare(
         "INSERT INTO answers (answer, score, queryID) values (?, ?, ?);");
     for (Suggestion sug : qr.getResponses().asList()) {
       prep.setString(1, sug.getResponse());
@@ -197,7 +949,15 @@ public class DBConnector {
       prep.addBatch();
     }
     prep.executeBatch();
-    prep.close();
+    saveClusters(handle, "clusters", qID, qr.getResponses());
+    return true;
+  }
+
+  /**
+   * Closes every connection to the database.
+   */
+  public void close() {
+    pool.close();
   }
 
 }
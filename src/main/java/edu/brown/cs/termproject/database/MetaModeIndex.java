@@ -0,0 +1,100 @@
+package edu.brown.cs.termproject.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The ids of the queries that have enough guesses to be played in meta mode,
+ * kept in memory so starting a meta mode game doesn't scan the guesses. Kept
+ * up to date as finished games' guesses are saved.
+ *
+ * @author swaxman1
+ */
+public final class MetaModeIndex {
+
+  /**
+   * The fewest distinct guesses a query needs to be played in meta mode.
+   */
+  public static final int MIN_GUESSES = 4;
+
+  private int[] ids = new int[16];
+  private int size = 0;
+  // Where each id is in ids, so it can be removed without a search.
+  private final Map<Integer, Integer> positions = new HashMap<>();
+
+  /**
+   * Records how many distinct guesses a query has, adding it to or removing
+   * it from the index.
+   *
+   * @param queryId
+   *          The query's id.
+   * @param guesses
+   *          The number of distinct guesses stored for it.
+   */
+  public synchronized void update(int queryId, int guesses) {
+    Integer position = positions.get(queryId);
+    if (guesses >= MIN_GUESSES && position == null) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size] = queryId;
+      positions.put(queryId, size);
+      size++;
+    } else if (guesses < MIN_GUESSES && position != null) {
+      // Moves the last id into the removed one's place.
+      size--;
+      int last = ids[size];
+      ids[position] = last;
+      positions.put(last, position);
+      positions.remove(queryId);
+    }
+  }
+
+  /**
+   * Checks whether a query can be played in meta mode.
+   *
+   * @param queryId
+   *          The query's id.
+   * @return Returns true if the query is in the index.
+   */
+  public synchronized boolean contains(int queryId) {
+    return positions.containsKey(queryId);
+  }
+
+  /**
+   * Gets the number of queries that can be played in meta mode.
+   *
+   * @return Returns the size of the index.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Picks k distinct query ids uniformly at random, or every id in random
+   * order if there are fewer than k, using a sparse Fisher-Yates shuffle like
+   * QueryPool. Runs in O(k) time no matter how many queries are eligible.
+   *
+   * @param k
+   *          The number of ids to pick.
+   * @param random
+   *          The source of randomness.
+   * @return Returns a List of the picked ids.
+   */
+  public synchronized List<Integer> sample(int k, Random random) {
+    int count = Math.max(0, Math.min(k, size));
+    Map<Integer, Integer> swapped = new HashMap<>();
+    List<Integer> picked = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int j = i + random.nextInt(size - i);
+      int atJ = swapped.getOrDefault(j, j);
+      swapped.put(j, swapped.getOrDefault(i, i));
+      picked.add(ids[atJ]);
+    }
+    return picked;
+  }
+}
@@ -0,0 +1,356 @@
+package edu.brown.cs.termproject.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+/**
+ * An in-memory pool of every stored query, loaded and clustered once at
+ * startup and refreshed incrementally afterwards. Starting a game samples from
+ * the pool instead of querying SQLite. The pool is shared by every room, so the
+ * QueryResponses in it must be treated as immutable.
+ *
+ * <p>
+ * The pool also keeps the positions of each category's queries, so a game
+ * can be sampled from just some categories as quickly as from all of them.
+ *
+ * @author swaxman1
+ */
+public final class QueryPool {
+
+  private static final QueryPool SHARED = new QueryPool();
+
+  // Replaced wholesale on refresh, so readers never see a partial update.
+  private volatile QueryResponses[] entries = new QueryResponses[0];
+  // Each category's positions in entries. Queries never move, so this is
+  // replaced after entries and read before it, and its positions are always
+  // in the entries a reader sees.
+  private volatile Map<String, int[]> byCategory = Collections.emptyMap();
+  private volatile boolean ready = false;
+  private int lastId = 0;
+  private DBConnector db;
+  private ScheduledExecutorService refresher;
+
+  /*
+   * Package-private so tests can build their own pools.
+   */
+  QueryPool() {
+  }
+
+  /**
+   * Gets the pool shared by every room on the server.
+   *
+   * @return Returns the shared QueryPool.
+   */
+  public static QueryPool shared() {
+    return SHARED;
+  }
+
+  /**
+   * Starts loading the pool in the background, then refreshes it with newly
+   * inserted queries every refreshSeconds.
+   *
+   * @param dbConnector
+   *          The database to load queries from.
+   * @param refreshSeconds
+   *          How often to check the database for new queries.
+   */
+  public synchronized void start(DBConnector dbConnector, long refreshSeconds) {
+    if (refresher != null) {
+      return;
+    }
+
+    db = dbConnector;
+    refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("query-pool-refresh").build());
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        refresh();
+      } catch (SQLException e) {
+        System.out.println("ERROR: Unable to refresh query pool: "
+            + e.getMessage());
+      }
+    }, 0, refreshSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Loads queries that were inserted since the last refresh.
+   *
+   * @return Returns the number of queries added to the pool.
+   * @throws SQLException
+   *           If SQL statements encounter issues.
+   */
+  public synchronized int refresh() throws SQLException {
+    if (db == null) {
+      return 0;
+    }
+
+    List<QueryResponses> added = db.queriesAfter(lastId);
+    add(added);
+    ready = true;
+    return added.size();
+  }
+
+  /**
+   * Adds queries to the pool.
+   *
+   * @param added
+   *          The queries to add, which must not be modified afterwards.
+   */
+  public synchronized void add(Collection<QueryResponses> added) {
+    if (added.isEmpty()) {
+      return;
+    }
+
+    QueryResponses[] current = entries;
+    QueryResponses[] next = Arrays.copyOf(current, current.length + added.size());
+    Map<String, List<Integer>> addedPositions = new HashMap<>();
+    int i = current.length;
+    for (QueryResponses query : added) {
+      if (query.getCategory() != null) {
+        addedPositions.computeIfAbsent(query.getCategory(),
+            (category) -> new ArrayList<>()).add(i);
+      }
+      next[i++] = query;
+      lastId = Math.max(lastId, query.getId());
+    }
+
+    Map<String, int[]> nextByCategory = new HashMap<>(byCategory);
+    for (Map.Entry<String, List<Integer>> entry : addedPositions.entrySet()) {
+      int[] old = nextByCategory.getOrDefault(entry.getKey(), new int[0]);
+      int[] positions = Arrays.copyOf(old, old.length
+          + entry.getValue().size());
+      int j = old.length;
+      for (int position : entry.getValue()) {
+        positions[j++] = position;
+      }
+      nextByCategory.put(entry.getKey(), positions);
+    }
+    entries = next;
+    byCategory = nextByCategory;
+  }
+
+  /**
+   * Swaps a query in the pool for a newer version of it, e.g. after its
+   * answers are refreshed. Games that already picked the old version keep
+   * playing it. The query keeps the category it was added with.
+   *
+   * @param updated
+   *          The new version, which must not be modified afterwards.
+   * @return Returns true if the query was in the pool.
+   */
+  public synchronized boolean replace(QueryResponses updated) {
+    QueryResponses[] current = entries;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].getId() == updated.getId()) {
+        QueryResponses[] next = current.clone();
+        String category = current[i].getCategory();
+        next[i] = Objects.equals(category, updated.getCategory()) ? updated
+            : new QueryResponses(updated.getId(), updated.getQuery(),
+                updated.getResponses(), category);
+        entries = next;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the initial load has finished.
+   *
+   * @return Returns true once the pool can be sampled from.
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Gets the number of queries in the pool.
+   *
+   * @return Returns the size of the pool.
+   */
+  public int size() {
+    return entries.length;
+  }
+
+  /**
+   * Gets the categories that have queries in the pool.
+   *
+   * @return Returns the categories' names.
+   */
+  public Set<String> categories() {
+    return Collections.unmodifiableSet(byCategory.keySet());
+  }
+
+  /**
+   * Gets the number of queries in a category.
+   *
+   * @param category
+   *          The category's name.
+   * @return Returns the number of queries in the category.
+   */
+  public int size(String category) {
+    int[] positions = byCategory.get(category);
+    return positions == null ? 0 : positions.length;
+  }
+
+  /**
+   * Picks k distinct queries uniformly at random, or every query in random
+   * order if the pool has fewer than k.
+   *
+   * @param k
+   *          The number of queries to pick.
+   * @return Returns a List of the picked QueryResponses.
+   */
+  public List<QueryResponses> sample(int k) {
+    return sample(k, ThreadLocalRandom.current(), id -> false);
+  }
+
+  /**
+   * Picks k distinct queries uniformly at random from the ones that are not
+   * excluded, e.g. because the room or one of its players has already seen
+   * them.
+   *
+   * @param k
+   *          The number of queries to pick.
+   * @param excluded
+   *          Tests whether a query id should be skipped.
+   * @return Returns a List of the picked QueryResponses.
+   */
+  public List<QueryResponses> sample(int k, IntPredicate excluded) {
+    return sample(k, ThreadLocalRandom.current(), excluded);
+  }
+
+  /**
+   * Picks k distinct queries uniformly at random using a sparse Fisher-Yates
+   * shuffle, which only remembers the positions it swapped. Excluded queries
+   * are drawn and skipped, so this runs in O(k) expected time while most of
+   * the pool is unseen, no matter how large the pool is. If fewer than k
+   * queries are left, excluded ones are used to fill the rest.
+   *
+   * @param k
+   *          The number of queries to pick.
+   * @param random
+   *          The source of randomness.
+   * @param excluded
+   *          Tests whether a query id should be skipped.
+   * @return Returns a List of the picked QueryResponses.
+   */
+  public List<QueryResponses> sample(int k, Random random,
+      IntPredicate excluded) {
+    QueryResponses[] snapshot = entries;
+    return sample(snapshot, snapshot.length, (i) -> i, k, random, excluded);
+  }
+
+  /**
+   * Picks k distinct queries uniformly at random from the given categories,
+   * skipping excluded ones like sample does.
+   *
+   * @param k
+   *          The number of queries to pick.
+   * @param categories
+   *          The categories to pick from. Unknown ones are ignored.
+   * @param excluded
+   *          Tests whether a query id should be skipped.
+   * @return Returns a List of the picked QueryResponses.
+   */
+  public List<QueryResponses> sample(int k, Collection<String> categories,
+      IntPredicate excluded) {
+    return sample(k, categories, ThreadLocalRandom.current(), excluded);
+  }
+
+  /**
+   * Picks k distinct queries uniformly at random from the given categories.
+   * The categories' positions are treated as one list, so this runs in O(k
+   * log c) expected time for c categories, no matter how many queries they
+   * have.
+   *
+   * @param k
+   *          The number of queries to pick.
+   * @param categories
+   *          The categories to pick from. Unknown ones are ignored.
+   * @param random
+   *          The source of randomness.
+   * @param excluded
+   *          Tests whether a query id should be skipped.
+   * @return Returns a List of the picked QueryResponses.
+   */
+  public List<QueryResponses> sample(int k, Collection<String> categories,
+      Random random, IntPredicate excluded) {
+    Map<String, int[]> index = byCategory;
+    QueryResponses[] snapshot = entries;
+
+    List<int[]> lists = new ArrayList<>();
+    for (String category : new LinkedHashSet<>(categories)) {
+      int[] positions = index.get(category);
+      if (positions != null) {
+        lists.add(positions);
+      }
+    }
+    // starts[c] is where lists.get(c) starts in the combined list.
+    int[] starts = new int[lists.size() + 1];
+    for (int c = 0; c < lists.size(); c++) {
+      starts[c + 1] = starts[c] + lists.get(c).length;
+    }
+
+    return sample(snapshot, starts[lists.size()], (i) -> {
+      // No list is empty, so starts only has one of each value.
+      int c = Arrays.binarySearch(starts, i);
+      c = c >= 0 ? c : -c - 2;
+      return lists.get(c)[i - starts[c]];
+    }, k, random, excluded);
+  }
+
+  /*
+   * A sparse Fisher-Yates shuffle over the n positions that position maps
+   * into snapshot.
+   */
+  private static List<QueryResponses> sample(QueryResponses[] snapshot,
+      int n, IntUnaryOperator position, int k, Random random,
+      IntPredicate excluded) {
+    int count = Math.max(0, Math.min(k, n));
+
+    Map<Integer, Integer> swapped = new HashMap<>();
+    List<QueryResponses> picked = new ArrayList<>(count);
+    List<QueryResponses> skipped = new ArrayList<>();
+    for (int i = 0; i < n && picked.size() < count; i++) {
+      int j = i + random.nextInt(n - i);
+      int atJ = swapped.getOrDefault(j, j);
+      swapped.put(j, swapped.getOrDefault(i, i));
+
+      QueryResponses query = snapshot[position.applyAsInt(atJ)];
+      if (excluded.test(query.getId())) {
+        if (skipped.size() < count) {
+          skipped.add(query);
+        }
+      } else {
+        picked.add(query);
+      }
+    }
+
+    for (int i = 0; picked.size() < count; i++) {
+      picked.add(skipped.get(i));
+    }
+    return picked;
+  }
+}
@@ -0,0 +1,198 @@
+package edu.brown.cs.termproject.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of strings kept as a compressed prefix trie, where each edge holds
+ * the longest run of characters no other string branches off of. Looking a
+ * string up, or finding the strings that start with a prefix, takes time in
+ * the string's length, no matter how many strings there are.
+ *
+ * <p>
+ * Used for the stored queries, so checking for duplicates and suggesting
+ * queries as hosts type don't touch SQLite, and for a query's suggestions, to
+ * drop ones that only extend another.
+ *
+ * @author swaxman1
+ */
+public final class RadixTrie {
+
+  private static final class Node {
+    // The characters on the edge into this node.
+    private String label;
+    private boolean terminal;
+    // Keyed by the first character of their labels, in order so strings are
+    // listed alphabetically.
+    private final Map<Character, Node> children = new TreeMap<>();
+
+    private Node(String label, boolean terminal) {
+      this.label = label;
+      this.terminal = terminal;
+    }
+  }
+
+  private final Node root = new Node("", false);
+  private int size = 0;
+
+  /**
+   * Adds a string to the trie.
+   *
+   * @param key
+   *          The string to add.
+   * @return Returns true if the string wasn't already in the trie.
+   */
+  public synchronized boolean add(String key) {
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      Node child = node.children.get(key.charAt(i));
+      if (child == null) {
+        node.children.put(key.charAt(i), new Node(key.substring(i), true));
+        size++;
+        return true;
+      }
+
+      int common = commonLength(child.label, key, i);
+      if (common < child.label.length()) {
+        // Splits the edge where the key branches off of it.
+        Node middle = new Node(child.label.substring(0, common), false);
+        child.label = child.label.substring(common);
+        middle.children.put(child.label.charAt(0), child);
+        node.children.put(middle.label.charAt(0), middle);
+        child = middle;
+      }
+      node = child;
+      i += common;
+    }
+
+    if (node.terminal) {
+      return false;
+    }
+    node.terminal = true;
+    size++;
+    return true;
+  }
+
+  /**
+   * Checks whether a string is in the trie.
+   *
+   * @param key
+   *          The string to look for.
+   * @return Returns true if the string was added.
+   */
+  public synchronized boolean contains(String key) {
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      Node child = node.children.get(key.charAt(i));
+      if (child == null || !key.startsWith(child.label, i)) {
+        return false;
+      }
+      node = child;
+      i += child.label.length();
+    }
+    return node.terminal;
+  }
+
+  /**
+   * Checks whether a shorter string in the trie is a prefix of the key that
+   * ends where the key has a separator, e.g. "the dog barks" for "the dog
+   * barks a lot" with a space.
+   *
+   * @param key
+   *          The string to check.
+   * @param separator
+   *          The character that must follow the shorter string in the key.
+   * @return Returns true if there is such a string.
+   */
+  public synchronized boolean containsPrefixOf(String key, char separator) {
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      if (node.terminal && key.charAt(i) == separator) {
+        return true;
+      }
+      Node child = node.children.get(key.charAt(i));
+      if (child == null || !key.startsWith(child.label, i)) {
+        return false;
+      }
+      node = child;
+      i += child.label.length();
+    }
+    return false;
+  }
+
+  /**
+   * Lists the strings in the trie that start with a prefix, alphabetically.
+   *
+   * @param prefix
+   *          The prefix to look for.
+   * @param limit
+   *          The most strings to list.
+   * @return Returns up to limit of the strings starting with prefix.
+   */
+  public synchronized List<String> startingWith(String prefix, int limit) {
+    List<String> found = new ArrayList<>();
+    Node node = root;
+    StringBuilder path = new StringBuilder();
+    int i = 0;
+    while (i < prefix.length()) {
+      Node child = node.children.get(prefix.charAt(i));
+      if (child == null) {
+        return found;
+      }
+
+      int common = commonLength(child.label, prefix, i);
+      if (i + common < prefix.length() && common < child.label.length()) {
+        return found;
+      }
+      // The prefix may end partway along the child's edge.
+      node = child;
+      path.append(child.label);
+      i += common;
+    }
+
+    collect(node, path, limit, found);
+    return found;
+  }
+
+  private static void collect(Node node, StringBuilder path, int limit,
+      List<String> found) {
+    if (found.size() >= limit) {
+      return;
+    }
+    if (node.terminal) {
+      found.add(path.toString());
+    }
+    for (Node child : node.children.values()) {
+      int length = path.length();
+      path.append(child.label);
+      collect(child, path, limit, found);
+      path.setLength(length);
+    }
+  }
+
+  /**
+   * Gets the number of strings in the trie.
+   *
+   * @return Returns the size of the trie.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /*
+   * The number of characters label has in common with key from index from.
+   */
+  private static int commonLength(String label, String key, int from) {
+    int n = Math.min(label.length(), key.length() - from);
+    int j = 0;
+    while (j < n && label.charAt(j) == key.charAt(from + j)) {
+      j++;
+    }
+    return j;
+  }
+}
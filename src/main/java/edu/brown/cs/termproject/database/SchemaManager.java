@@ -0,0 +1,140 @@
+package edu.brown.cs.termproject.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Brings the game database's schema up to date when it is opened. The schema
+ * version is kept in SQLite's user_version, and each numbered migration runs
+ * once, in its own transaction, in order. Migrations only add to the schema.
+ * The first ones use IF NOT EXISTS so they also adopt tables made before the
+ * schema was versioned.
+ *
+ * <p>
+ * The queries and answers tables themselves come with the database file and
+ * are not created here.
+ *
+ * @author swaxman1
+ */
+public final class SchemaManager {
+
+  // MIGRATIONS.get(i) takes the schema from version i to version i + 1.
+  private static final List<String[]> MIGRATIONS = Arrays.asList(
+      // 1: returning players' seen queries.
+      new String[] {"CREATE TABLE IF NOT EXISTS seen ("
+          + "player text primary key, bitmap blob not null);"},
+      // 2: stored clusterings of each query's answers.
+      new String[] {
+          "CREATE TABLE IF NOT EXISTS clusters ("
+              + "queryID integer not null, position integer not null, "
+              + "phrase text not null, score integer not null, "
+              + "tokens text not null, primary key (queryID, position));",
+          "CREATE TABLE IF NOT EXISTS clustering (version text not null);"},
+      // 3: meta mode guesses and their summaries.
+      new String[] {
+          "CREATE TABLE IF NOT EXISTS guesses ("
+              + "ID integer primary key, answer text not null, queryID "
+              + "integer references queries(ID) on delete cascade, "
+              + "score integer);",
+          "CREATE TABLE IF NOT EXISTS guess_summary ("
+              + "queryID integer primary key, guesses integer not null);",
+          "CREATE TABLE IF NOT EXISTS guess_top ("
+              + "queryID integer not null, position integer not null, "
+              + "phrase text not null, score integer not null, "
+              + "tokens text not null, primary key (queryID, position));",
+          // Counts guesses saved before there were summaries.
+          "INSERT INTO guess_summary (queryID, guesses) "
+              + "SELECT queryID, COUNT(*) FROM guesses WHERE queryID NOT IN "
+              + "(SELECT queryID FROM guess_summary) GROUP BY queryID;"},
+      // 4: indexes for loading a query's answers and guesses in score order.
+      new String[] {
+          "DROP INDEX IF EXISTS guesses_query;",
+          "CREATE INDEX IF NOT EXISTS answers_query "
+              + "ON answers (queryID, score);",
+          "CREATE INDEX IF NOT EXISTS guesses_query "
+              + "ON guesses (queryID, score);"},
+      // 5: when each query's answers were last refreshed, and a digest of
+      // the suggestions they came from.
+      new String[] {
+          "ALTER TABLE queries ADD COLUMN refreshed integer not null "
+              + "default 0;",
+          "ALTER TABLE queries ADD COLUMN digest text;",
+          "CREATE INDEX IF NOT EXISTS queries_refreshed "
+              + "ON queries (refreshed);"},
+      // 6: the category each query was generated from, e.g. "animal".
+      new String[] {"ALTER TABLE queries ADD COLUMN category text;",
+          "CREATE INDEX IF NOT EXISTS queries_category "
+              + "ON queries (category);"});
+
+  private SchemaManager() {
+  }
+
+  /**
+   * Gets the schema version the migrations bring a database to.
+   *
+   * @return the latest schema version
+   */
+  public static int latestVersion() {
+    return MIGRATIONS.size();
+  }
+
+  /**
+   * Gets a database's schema version.
+   *
+   * @param pool
+   *          the database's connections
+   * @return the schema version, 0 if it has never been migrated
+   * @throws SQLException
+   *           if the version can't be read
+   */
+  public static int version(ConnectionPool pool) throws SQLException {
+    return pool.read((handle) -> {
+      try (ResultSet rs = handle.prepare("PRAGMA user_version;")
+          .executeQuery()) {
+        return rs.getInt(1);
+      }
+    });
+  }
+
+  /**
+   * Runs the migrations a database hasn't had yet, then analyzes it so its
+   * query plans use the new indexes.
+   *
+   * @param pool
+   *          the database's connections
+   * @return the number of migrations run
+   * @throws SQLException
+   *           if a migration fails; the ones before it stay applied
+   */
+  public static int migrate(ConnectionPool pool) throws SQLException {
+    int from = version(pool);
+    for (int version = from; version < MIGRATIONS.size(); version++) {
+      String[] migration = MIGRATIONS.get(version);
+      int next = version + 1;
+      pool.transaction((handle) -> {
+        try (Statement stat = handle.getConnection().createStatement()) {
+          for (String sql : migration) {
+            stat.executeUpdate(sql);
+          }
+          // Part of the transaction, so it only moves if the migration does.
+          stat.executeUpdate("PRAGMA user_version = " + next + ";");
+        }
+        return null;
+      });
+    }
+
+    int applied = Math.max(0, MIGRATIONS.size() - from);
+    if (applied > 0) {
+      pool.write((handle) -> {
+        try (Statement stat = handle.getConnection().createStatement()) {
+          stat.executeUpdate("ANALYZE;");
+        }
+        return null;
+      });
+    }
+    return applied;
+  }
+}
@@ -0,0 +1,99 @@
+package edu.brown.cs.termproject.database;
+
+import java.util.BitSet;
+
+/**
+ * A compact set of query ids that a room or player has already played, stored
+ * as a bitmap over the ids. One bit per query keeps even a player who has seen
+ * hundreds of thousands of prompts down to a few kilobytes. Thread safe.
+ *
+ * @author swaxman1
+ */
+public final class SeenQueries {
+
+  private final BitSet bits;
+  private boolean dirty = false;
+
+  /**
+   * Creates an empty set.
+   */
+  public SeenQueries() {
+    this.bits = new BitSet();
+  }
+
+  private SeenQueries(BitSet bits) {
+    this.bits = bits;
+  }
+
+  /**
+   * Reads a set written by toBytes.
+   *
+   * @param bytes
+   *          the serialized bitmap, or null for an empty set
+   * @return the set
+   */
+  public static SeenQueries fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      return new SeenQueries();
+    }
+    return new SeenQueries(BitSet.valueOf(bytes));
+  }
+
+  /**
+   * Checks whether a query has been seen.
+   *
+   * @param queryId
+   *          the id of the query
+   * @return true if the query was added to the set
+   */
+  public synchronized boolean contains(int queryId) {
+    return queryId >= 0 && bits.get(queryId);
+  }
+
+  /**
+   * Marks a query as seen. Negative ids (custom queries) are ignored.
+   *
+   * @param queryId
+   *          the id of the query
+   */
+  public synchronized void add(int queryId) {
+    if (queryId >= 0 && !bits.get(queryId)) {
+      bits.set(queryId);
+      dirty = true;
+    }
+  }
+
+  /**
+   * Gets the number of queries seen.
+   *
+   * @return the number of ids in the set
+   */
+  public synchronized int size() {
+    return bits.cardinality();
+  }
+
+  /**
+   * Serializes the set.
+   *
+   * @return the bitmap as little-endian bytes
+   */
+  public synchronized byte[] toBytes() {
+    return bits.toByteArray();
+  }
+
+  /**
+   * Checks whether the set changed since it was last marked clean.
+   *
+   * @return true if the set needs to be saved
+   */
+  public synchronized boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Marks the set as saved.
+   */
+  public synchronized void markClean() {
+    dirty = false;
+  }
+}
@@ -0,0 +1,154 @@
+package edu.brown.cs.termproject.database;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the SeenQueries of connected players in memory and persists them
+ * across sessions, keyed by the player key the client stores locally. A
+ * player may be connected more than once, e.g. from two tabs, so each key
+ * counts its holders and is only saved and forgotten when the last one
+ * leaves. Loads and saves happen outside the registry's map, and saves are
+ * made in the background, so rooms never wait on SQLite while locked.
+ *
+ * @author swaxman1
+ */
+public final class SeenRegistry {
+
+  private static final SeenRegistry SHARED = new SeenRegistry();
+
+  private final Map<String, Holders> players = new ConcurrentHashMap<>();
+  // Released sets whose saves haven't committed yet, so a player who comes
+  // right back gets them instead of what the database still has.
+  private final Map<String, SeenQueries> saving = new ConcurrentHashMap<>();
+  private volatile DBConnector db;
+
+  private static final class Holders {
+    private final SeenQueries seen;
+    private int count = 0;
+
+    private Holders(SeenQueries seen) {
+      this.seen = seen;
+    }
+  }
+
+  private SeenRegistry() {
+  }
+
+  /**
+   * Gets the registry shared by every room on the server.
+   *
+   * @return the shared SeenRegistry
+   */
+  public static SeenRegistry shared() {
+    return SHARED;
+  }
+
+  /**
+   * Sets the database used to load and save players' seen queries. Until this
+   * is called the registry only keeps them in memory.
+   *
+   * @param dbConnector
+   *          the database
+   */
+  public void start(DBConnector dbConnector) {
+    db = dbConnector;
+  }
+
+  /**
+   * Gets the seen queries of a player, loading them if needed. Each call must
+   * be matched by a call to release.
+   *
+   * @param playerKey
+   *          the key identifying a returning player, or null for an anonymous
+   *          player
+   * @return the player's SeenQueries
+   */
+  public SeenQueries get(String playerKey) {
+    if (playerKey == null || playerKey.isEmpty()) {
+      return new SeenQueries();
+    }
+    Holders held = players.computeIfPresent(playerKey, (key, holders) -> {
+      holders.count++;
+      return holders;
+    });
+    if (held != null) {
+      return held.seen;
+    }
+
+    SeenQueries pending = saving.get(playerKey);
+    SeenQueries loaded = pending != null ? pending : load(playerKey);
+    // Another connection may have loaded the key meanwhile.
+    return players.compute(playerKey, (key, holders) -> {
+      Holders joined = holders == null ? new Holders(loaded) : holders;
+      joined.count++;
+      return joined;
+    }).seen;
+  }
+
+  /**
+   * Lets go of a player's seen queries once one of the player's connections
+   * has left. When the last one leaves, they are saved if they changed and
+   * forgotten.
+   *
+   * @param playerKey
+   *          the key identifying the player
+   */
+  public void release(String playerKey) {
+    if (playerKey == null || playerKey.isEmpty()) {
+      return;
+    }
+
+    SeenQueries[] last = new SeenQueries[1];
+    players.computeIfPresent(playerKey, (key, holders) -> {
+      holders.count--;
+      if (holders.count > 0) {
+        return holders;
+      }
+      last[0] = holders.seen;
+      return null;
+    });
+    if (last[0] != null) {
+      save(playerKey, last[0]);
+    }
+  }
+
+  private SeenQueries load(String playerKey) {
+    DBConnector conn = db;
+    if (conn == null) {
+      return new SeenQueries();
+    }
+
+    try {
+      return SeenQueries.fromBytes(conn.getSeenQueries(playerKey));
+    } catch (SQLException e) {
+      System.out.println("ERROR: Unable to load seen queries: "
+          + e.getMessage());
+      return new SeenQueries();
+    }
+  }
+
+  private void save(String playerKey, SeenQueries seen) {
+    DBConnector conn = db;
+    if (conn == null || !seen.isDirty()) {
+      return;
+    }
+
+    // Marked clean with the snapshot, so changes made after it are saved by
+    // the next release.
+    byte[] bitmap;
+    synchronized (seen) {
+      bitmap = seen.toBytes();
+      seen.markClean();
+    }
+    saving.put(playerKey, seen);
+    conn.saveSeenQueries(playerKey, bitmap).whenComplete((done, e) -> {
+      saving.remove(playerKey, seen);
+      if (e != null) {
+        System.out.println("ERROR: Unable to save seen queries: "
+            + e.getMessage());
+      }
+    });
+  }
+}
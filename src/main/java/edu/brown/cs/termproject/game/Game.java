@@ -3,19 +3,21 @@ package edu.brown.cs.termproject.game;
 import com.google.common.base.Optional;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import edu.brown.cs.termproject.database.ConnectionPool;
+import edu.brown.cs.termproject.database.DBConnector;
 import edu.brown.cs.termproject.networking.User;
 import edu.brown.cs.termproject.queryResponses.QueryResponses;
 import edu.brown.cs.termproject.scoring.Clustering;
 import edu.brown.cs.termproject.scoring.Suggestion;
 import edu.brown.cs.termproject.scoring.Word2VecModel;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -25,7 +27,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -37,14 +42,24 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class Game {
 
+  /**
+   * The length of a round in seconds. The server owns the round deadline, so
+   * clients only ever display it.
+   */
+  public static final int ROUND_SECONDS = 30;
+
+  private static final String DB_PATH = "data/gFeud.sqlite3";
+
   private final Map<User, Player> playerMap = new ConcurrentHashMap<>();
   private final int maxPlayers;
   private int currRound = -1;
-  private double time = 0;
+  private long roundDeadline = 0;
+  private boolean roundOver = true;
   private final boolean custom;
 
-  private final List<QueryResponses> queries;
+  private final List<Future<QueryResponses>> queries;
   private Set<Suggestion> alreadyGuessed;
+  private List<String> currentHints = Collections.emptyList();
   private Multimap<Integer, String> guesses;
   // Mode
   // Category
@@ -63,7 +78,7 @@ public class Game {
   public Game(int maxPlayers, List<QueryResponses> queries, boolean custom /* Settings */) {
     this.maxPlayers = maxPlayers;
     this.custom = custom;
-    this.queries = queries;
+    this.queries = toFutures(queries);
     this.guesses = HashMultimap.create();
   }
 
@@ -83,6 +98,11 @@ public class Game {
    */
   public Game(int maxPlayers, List<User> users, List<QueryResponses> queries, boolean custom
   /* Settings */) {
+    this(maxPlayers, users, custom, toFutures(queries));
+  }
+
+  private Game(int maxPlayers, List<User> users, boolean custom,
+      List<Future<QueryResponses>> queries) {
     this.maxPlayers = maxPlayers;
     this.custom = custom;
 
@@ -97,6 +117,39 @@ public class Game {
     this.guesses = HashMultimap.create();
   }
 
+  /**
+   * Creates a Game whose queries may still be loading in the background. A
+   * round only waits for its query if the query is not ready when the round
+   * starts.
+   *
+   * @param maxPlayers
+   *          The maximum player count for the Game.
+   * @param users
+   *          A List of User that is to play the Game.
+   * @param queries
+   *          A List of Future QueryResponses, one per round.
+   * @param custom
+   *          A boolean representing whether or not the Game is a custom Game.
+   * @return Returns the new Game.
+   */
+  public static Game withPrefetchedQueries(int maxPlayers, List<User> users,
+      List<Future<QueryResponses>> queries, boolean custom) {
+    return new Game(maxPlayers, users, custom, queries);
+  }
+
+  private static List<Future<QueryResponses>> toFutures(
+      List<QueryResponses> queries) {
+    if (queries == null) {
+      return null;
+    }
+
+    List<Future<QueryResponses>> futures = new ArrayList<>();
+    for (QueryResponses query : queries) {
+      futures.add(Futures.immediateFuture(query));
+    }
+    return futures;
+  }
+
   /**
    * Gets the current QueryResponses from the Game if available.
    *
@@ -107,7 +160,16 @@ public class Game {
     if (currRound < 0 || currRound >= queries.size()) {
       return null;
     }
-    return queries.get(currRound);
+
+    try {
+      // Only blocks if the round's query is still being prefetched.
+      return Futures.getUnchecked(queries.get(currRound));
+    } catch (UncheckedExecutionException | ExecutionError
+        | CancellationException e) {
+      // A prefetch that failed is played as an empty round.
+      System.out.println("ERROR: Unable to load query for round " + currRound);
+      return null;
+    }
   }
 
   /**
@@ -123,8 +185,17 @@ public class Game {
     return curr.getQuery();
   }
 
+  /**
+   * Gets the hints for the current round: each suggestion with its
+   * non-stopwords masked by underscores. Computed once when the round starts.
+   *
+   * @return Returns an immutable List of hints, in suggestion order.
+   */
   public synchronized List<String> getCurrentHints() {
-    QueryResponses curr = getCurrentQueryResponses();
+    return currentHints;
+  }
+
+  private static List<String> hintsOf(QueryResponses curr) {
     if (curr == null) {
       return Collections.emptyList();
     }
@@ -154,7 +225,7 @@ public class Game {
       res.add(sb.toString());
     }
 
-    return res;
+    return Collections.unmodifiableList(res);
   }
 
   /**
@@ -180,6 +251,31 @@ public class Game {
     return new HashSet<>(alreadyGuessed);
   }
 
+  /**
+   * Waits until the next round's query has been prefetched, without holding
+   * the Game's lock, so that newRound won't block. Callers shouldn't hold
+   * the Room's lock either, since the round timer needs it.
+   */
+  public void awaitNextRound() {
+    Future<QueryResponses> next;
+    synchronized (this) {
+      int round = currRound + 1;
+      if (round < 0 || round >= queries.size()) {
+        return;
+      }
+      next = queries.get(round);
+    }
+
+    try {
+      next.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | CancellationException e) {
+      // newRound plays it as an empty round.
+      return;
+    }
+  }
+
   /**
    * Moves the Game to the next round if queries are still unplayed.
    *
@@ -189,40 +285,59 @@ public class Game {
   public synchronized QueryResponses newRound() {
     currRound++;
     alreadyGuessed = new HashSet<>();
-    return getCurrentQueryResponses();
+    QueryResponses curr = getCurrentQueryResponses();
+    roundOver = curr == null;
+    currentHints = hintsOf(curr);
+    roundDeadline = System.currentTimeMillis() + ROUND_SECONDS * 1000L;
+    return curr;
   }
 
   /**
-   * Ends the current Game round.
+   * Ends the current Game round. Only the first call for a round does
+   * anything, so the round timer and the host can both try to end it.
    *
-   * @return Returns a QueryResponses object representing the query for the new
-   *         round.
+   * @return Returns a QueryResponses object representing the query for the
+   *         round that was ended, or null if there was no round to end.
    */
   public synchronized QueryResponses endRound() {
     QueryResponses curr = getCurrentQueryResponses();
-    if (curr != null) {
-      alreadyGuessed.addAll(curr.getResponses().asList());
+    if (curr == null || roundOver) {
+      return null;
     }
+    roundOver = true;
+    alreadyGuessed.addAll(curr.getResponses().asList());
     return curr;
   }
 
   /**
-   * Gets the current time left.
+   * Gets the index of the current round.
    *
-   * @return Returns a double representing the time left.
+   * @return Returns an int representing the current round, -1 before the first
+   *         round.
    */
-  public double getTime() {
-    return time;
+  public synchronized int getRound() {
+    return currRound;
   }
 
   /**
-   * Sets the current time left.
+   * Gets whether the current round has ended.
    *
-   * @param time
-   *          A double representing the time left.
+   * @return Returns true if no round is being played.
    */
-  public void setTime(double time) {
-    this.time = time;
+  public synchronized boolean isRoundOver() {
+    return roundOver;
+  }
+
+  /**
+   * Gets the current time left, computed from the server's round deadline.
+   *
+   * @return Returns a double representing the seconds left in the round.
+   */
+  public synchronized double getTime() {
+    if (roundOver) {
+      return 0;
+    }
+    return Math.max(0, roundDeadline - System.currentTimeMillis()) / 1000.0;
   }
 
   /**
@@ -243,7 +358,10 @@ public class Game {
         return Optional.absent();
       }
 
-      QueryResponses currentQuery = queries.get(currRound);
+      QueryResponses currentQuery = getCurrentQueryResponses();
+      if (currentQuery == null) {
+        return Optional.absent();
+      }
 
       // Save guess
       if (guessIsntJunk(guess)) {
@@ -270,118 +388,148 @@ public class Game {
   public synchronized void endGame() {
     // System.out.println("Ending game.");
 
+    // Stop loading rounds that will never be played.
+    if (queries != null) {
+      for (Future<QueryResponses> query : queries.subList(
+          Math.min(queries.size(), Math.max(0, currRound + 1)),
+          queries.size())) {
+        query.cancel(false);
+      }
+    }
+
     if (guesses.isEmpty() || custom) {
       return;
     }
 
     // Note: This code is self-contained. All this does is take guesses and
     // merge them with the guesses in the database. This does not alter any
-    // values in memory.
+    // values in memory. It runs on the database's writer thread, so ending a
+    // game never waits on SQLite or holds up loading queries for new games.
+    Multimap<Integer, String> finished = guesses;
+
+    // Set guesses to an empty set (in case this gets called multiple
+    // times?)
+    guesses = HashMultimap.create();
 
-    // 1. Open connection to database.
     try {
-      Class.forName("org.sqlite.JDBC");
-      String urlToDb = "jdbc:sqlite:data/gFeud.sqlite3";
-
-      Connection conn = DriverManager.getConnection(urlToDb);
-      Statement stat = conn.createStatement();
-      stat.executeUpdate("PRAGMA foreign_keys = ON;");
-      stat.close();
-
-      PreparedStatement getStoredGuesses = conn.prepareStatement(
-          "select ID, answer, score from guesses where queryID=?;");
-
-      // System.out.println("Going through ids.");
-      for (Integer id : guesses.keySet()) {
-        // System.out.println("Id of " + id);
-
-        getStoredGuesses.setInt(1, id);
-        try (ResultSet rs = getStoredGuesses.executeQuery()) {
-
-          // 2. Make a clustering out of the current guesses in the database.
-          List<Suggestion> storedGuesses = new ArrayList<>();
-          Map<Suggestion, Integer> suggestionIds = new HashMap<>();
-          while (rs.next()) {
-            int suggestionId = rs.getInt(1);
-            String text = rs.getString(2);
-            int score = rs.getInt(3);
-            Suggestion suggestion = new Suggestion(
-                Word2VecModel.model.tokenize(text), text, score);
-            suggestionIds.put(suggestion, suggestionId);
-            storedGuesses.add(suggestion);
-          }
-          Clustering<Suggestion> clustering = Clustering
-              .newExistingSuggestionClustering(storedGuesses);
-
-          // The suggestion whose scores have been modified.
-          // Includes the newly made suggestions.
-          Set<Suggestion> modifiedScores = new HashSet<>();
-          Set<Suggestion> newScores = new HashSet<>();
-
-          // 3. Add new guesses to clustering.
-          for (String guess : guesses.get(id)) {
-            Optional<Suggestion> cluster = clustering.clusterOf(guess);
-
-            // Don't need to call add. Wouldn't do anything.
-            if (cluster.isPresent()) {
-              cluster.get().setScore(cluster.get().getScore() + 1);
-              if (!newScores.contains(cluster.get())) {
-                modifiedScores.add(cluster.get());
-              }
-            } else {
-              // Need to call add here to create a new cluster in the
-              // clustering.
-              Optional<Suggestion> newCluster = clustering.add(guess);
-              if (newCluster.isPresent()) {
-                newCluster.get().setScore(1);
-                newScores.add(newCluster.get());
-              } // else do nothing, the guess was just stopwords
+      DBConnector db = DBConnector.shared(DB_PATH);
+      db.writeInBackground((handle) -> {
+        saveGuesses(db, handle, finished);
+        return null;
+      }).exceptionally((e) -> {
+        System.out.println("ERROR: Unable to save guesses: " + e.getMessage());
+        return null;
+      });
+    } catch (SQLException ex) {
+      System.out.println("ERROR: Unable to open database: " + ex.getMessage());
+    }
+  }
+
+  /*
+   * Merges a finished game's guesses into the guesses in the database, in
+   * one transaction on the writing connection, and updates each query's
+   * guess summary so meta mode can load it without clustering.
+   */
+  private static void saveGuesses(DBConnector db, ConnectionPool.Handle conn,
+      Multimap<Integer, String> guesses) throws SQLException {
+    PreparedStatement getStoredGuesses = conn
+        .prepare("select ID, answer, score from guesses where queryID=?;");
+
+    for (Integer id : guesses.keySet()) {
+      // System.out.println("Id of " + id);
+
+      getStoredGuesses.setInt(1, id);
+      try (ResultSet rs = getStoredGuesses.executeQuery()) {
+
+        // 2. Make a clustering out of the current guesses in the database.
+        List<Suggestion> storedGuesses = new ArrayList<>();
+        Map<Suggestion, Integer> suggestionIds = new HashMap<>();
+        while (rs.next()) {
+          int suggestionId = rs.getInt(1);
+          String text = rs.getString(2);
+          int score = rs.getInt(3);
+          Suggestion suggestion = new Suggestion(
+              Word2VecModel.model.tokenize(text), text, score);
+          suggestionIds.put(suggestion, suggestionId);
+          storedGuesses.add(suggestion);
+        }
+        Clustering<Suggestion> clustering = Clustering
+            .newExistingSuggestionClustering(storedGuesses);
+
+        // The suggestion whose scores have been modified.
+        // Includes the newly made suggestions.
+        Set<Suggestion> modifiedScores = new HashSet<>();
+        Set<Suggestion> newScores = new HashSet<>();
+
+        // 3. Add new guesses to clustering.
+        for (String guess : guesses.get(id)) {
+          Optional<Suggestion> cluster = clustering.clusterOf(guess);
+
+          // Don't need to call add. Wouldn't do anything.
+          if (cluster.isPresent()) {
+            cluster.get().setScore(cluster.get().getScore() + 1);
+            if (!newScores.contains(cluster.get())) {
+              modifiedScores.add(cluster.get());
             }
+          } else {
+            // Need to call add here to create a new cluster in the
+            // clustering.
+            Optional<Suggestion> newCluster = clustering.add(guess);
+            if (newCluster.isPresent()) {
+              newCluster.get().setScore(1);
+              newScores.add(newCluster.get());
+            } // else do nothing, the guess was just stopwords
           }
+        }
 
-          // 4. Update the changes in the database.
-          PreparedStatement update = conn
-              .prepareStatement("update guesses set score=? where ID=?;");
-          for (Suggestion modified : modifiedScores) {
-            int suggestionId = suggestionIds.get(modified);
-            int score = modified.getScore();
+        // 4. Update the changes in the database.
+        PreparedStatement update = conn
+            .prepare("update guesses set score=? where ID=?;");
+        for (Suggestion modified : modifiedScores) {
+          int suggestionId = suggestionIds.get(modified);
+          int score = modified.getScore();
 
-            update.setInt(1, score);
-            update.setInt(2, suggestionId);
-            update.executeUpdate();
-          }
-          update.close();
-
-          PreparedStatement insert = conn.prepareStatement(
-              "insert into guesses (answer, queryID, score) values (?, ?, ?)");
-          for (Suggestion newSuggestion : newScores) {
-            String text = newSuggestion.getResponse();
-            int score = newSuggestion.getScore();
-
-            insert.setString(1, text);
-            insert.setInt(2, id);
-            insert.setInt(3, score);
-            insert.executeUpdate();
-          }
-          insert.close();
+          update.setInt(1, score);
+          update.setInt(2, suggestionId);
+          update.executeUpdate();
+        }
+
+        PreparedStatement insert = conn.prepare(
+            "insert into guesses (answer, queryID, score) values (?, ?, ?)");
+        for (Suggestion newSuggestion : newScores) {
+          String text = newSuggestion.getResponse();
+          int score = newSuggestion.getScore();
 
-          rs.close();
-        } catch (SQLException ex) {
-          ex.printStackTrace();
+          insert.setString(1, text);
+          insert.setInt(2, id);
+          insert.setInt(3, score);
+          insert.executeUpdate();
         }
-      }
-      getStoredGuesses.close();
 
-      // 5. Set guesses to an empty set (in case this gets called multiple
-      // times?)
-      guesses = HashMultimap.create();
+        // 5. Summarize the query's guesses for meta mode.
+        db.saveGuessSummary(conn, id, clustering.size(),
+            topGuesses(clustering));
 
-    } catch (ClassNotFoundException ex) {
-      throw new IllegalArgumentException(ex.getMessage());
-    } catch (SQLException ex) {
-      throw new RuntimeException(ex);
+        rs.close();
+      } catch (SQLException ex) {
+        ex.printStackTrace();
+      }
     }
+  }
 
+  /*
+   * Clusters a query's most guessed answers the way meta mode plays them.
+   */
+  private static Clustering<Suggestion> topGuesses(
+      Clustering<Suggestion> guesses) {
+    List<Suggestion> sorted = new ArrayList<>(guesses.asList());
+    sorted.sort((a, b) -> Integer.compare(b.getScore(), a.getScore()));
+    List<String> top = new ArrayList<>();
+    for (Suggestion guess : sorted.subList(0,
+        Math.min(DBConnector.META_MODE_ANSWERS, sorted.size()))) {
+      top.add(guess.getResponse());
+    }
+    return Clustering.newSuggestionClustering(top, Word2VecModel.model);
   }
 
   /**
@@ -0,0 +1,259 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParseException;
+
+/**
+ * A client for an autocomplete service that answers in the JSONP format of
+ * Google's suggest API. One pooled client is shared by every request, and
+ * requests never block the calling thread: each returns a CompletableFuture
+ * that fails if the service is slow, unreachable or already has too many
+ * requests in flight.
+ *
+ * @author lcohen2
+ */
+public final class AutocompleteClient implements AutoCloseable {
+
+  /**
+   * The autocomplete service used unless another is configured.
+   */
+  public static final String GOOGLE_SUGGESTIONS = "http://suggestqueries.google.com/complete/search";
+
+  private static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 16;
+  // Suggestion lists are small; anything bigger isn't one.
+  private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+  private static final Gson GSON = new Gson();
+
+  private static AutocompleteClient shared;
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final long timeoutMillis;
+  private final Semaphore inFlight;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * Creates and starts a client.
+   *
+   * @param baseUrl
+   *          The URL of the autocomplete service.
+   * @param timeoutMillis
+   *          How long a request, including connecting, may take.
+   * @param maxInFlight
+   *          The most requests that may be outstanding at once.
+   * @throws IllegalStateException
+   *           If the client can't be started.
+   */
+  public AutocompleteClient(String baseUrl, long timeoutMillis,
+      int maxInFlight) {
+    this.baseUrl = baseUrl;
+    this.timeoutMillis = timeoutMillis;
+    this.inFlight = new Semaphore(maxInFlight);
+
+    QueuedThreadPool threads = new QueuedThreadPool(8, 1);
+    threads.setName("autocomplete");
+    threads.setDaemon(true);
+
+    client = new HttpClient();
+    client.setExecutor(threads);
+    client.setConnectTimeout(timeoutMillis);
+    client.setIdleTimeout(30000);
+    client.setMaxConnectionsPerDestination(maxInFlight);
+    client.setFollowRedirects(false);
+    try {
+      client.start();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to start autocomplete client",
+          e);
+    }
+  }
+
+  /**
+   * Gets the client shared by the server, creating it with the default
+   * settings if none has been configured.
+   *
+   * @return Returns the shared AutocompleteClient.
+   */
+  public static synchronized AutocompleteClient shared() {
+    if (shared == null) {
+      shared = new AutocompleteClient(GOOGLE_SUGGESTIONS,
+          DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_IN_FLIGHT);
+    }
+    return shared;
+  }
+
+  /**
+   * Replaces the shared client with one using the given settings.
+   *
+   * @param baseUrl
+   *          The URL of the autocomplete service.
+   * @param timeoutMillis
+   *          How long a request, including connecting, may take.
+   * @param maxInFlight
+   *          The most requests that may be outstanding at once.
+   */
+  public static synchronized void configure(String baseUrl,
+      long timeoutMillis, int maxInFlight) {
+    AutocompleteClient old = shared;
+    shared = new AutocompleteClient(baseUrl, timeoutMillis, maxInFlight);
+    if (old != null) {
+      old.close();
+    }
+  }
+
+  /**
+   * Asks the service for the completions of a query.
+   *
+   * @param query
+   *          The query to complete.
+   * @return Returns a future of the completions, in the service's order. It
+   *         fails with a TimeoutException if the service is too slow and a
+   *         RejectedExecutionException if too many requests are in flight.
+   */
+  public CompletableFuture<List<String>> suggest(String query) {
+    CompletableFuture<List<String>> future = new CompletableFuture<>();
+    if (query == null || query.isEmpty()) {
+      future.complete(Collections.emptyList());
+      return future;
+    } else if (!inFlight.tryAcquire()) {
+      rejected.incrementAndGet();
+      future.completeExceptionally(new RejectedExecutionException(
+          "Too many autocomplete requests in flight"));
+      return future;
+    }
+
+    requests.incrementAndGet();
+    try {
+      client.newRequest(baseUrl).param("hl", "en").param("q", query)
+          .param("jsonp", "").param("client", "youtube")
+          .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+          .send(new BufferingResponseListener(MAX_RESPONSE_BYTES) {
+            @Override
+            public void onComplete(Result result) {
+              inFlight.release();
+              if (result.isFailed()) {
+                fail(future, result.getFailure());
+              } else if (result.getResponse().getStatus() != 200) {
+                fail(future, new IllegalStateException("Autocomplete returned "
+                    + result.getResponse().getStatus()));
+              } else {
+                try {
+                  future.complete(parse(getContentAsString()));
+                } catch (RuntimeException e) {
+                  fail(future, e);
+                }
+              }
+            }
+          });
+    } catch (RuntimeException e) {
+      inFlight.release();
+      fail(future, e);
+    }
+    return future;
+  }
+
+  private void fail(CompletableFuture<?> future, Throwable cause) {
+    if (cause instanceof TimeoutException) {
+      timeouts.incrementAndGet();
+    } else {
+      failures.incrementAndGet();
+    }
+    future.completeExceptionally(cause);
+  }
+
+  /**
+   * Reads the completions out of a JSONP response, which looks like
+   * callback(["query", [["completion", 0], ...], ...]).
+   *
+   * @param jsonp
+   *          The body of the response.
+   * @return Returns the completions.
+   * @throws IllegalArgumentException
+   *           If the response is not in the expected format.
+   */
+  static List<String> parse(String jsonp) {
+    int start = jsonp.indexOf('(');
+    int end = jsonp.lastIndexOf(')');
+    if (start < 0 || end < start) {
+      throw new IllegalArgumentException("Not a JSONP response");
+    }
+
+    try {
+      JsonArray completions = GSON.fromJson(jsonp.substring(start + 1, end),
+          JsonArray.class).get(1).getAsJsonArray();
+      List<String> res = new ArrayList<>(completions.size());
+      completions.forEach(
+          (element) -> res.add(element.getAsJsonArray().get(0).getAsString()));
+      return res;
+    } catch (JsonParseException | IllegalStateException
+        | IndexOutOfBoundsException | NullPointerException e) {
+      throw new IllegalArgumentException("Malformed autocomplete response", e);
+    }
+  }
+
+  /**
+   * Gets the number of requests sent to the service.
+   *
+   * @return Returns the number of requests.
+   */
+  public long requests() {
+    return requests.get();
+  }
+
+  /**
+   * Gets the number of requests that failed other than by timing out.
+   *
+   * @return Returns the number of failures.
+   */
+  public long failures() {
+    return failures.get();
+  }
+
+  /**
+   * Gets the number of requests that timed out.
+   *
+   * @return Returns the number of timeouts.
+   */
+  public long timeouts() {
+    return timeouts.get();
+  }
+
+  /**
+   * Gets the number of requests refused because too many were in flight.
+   *
+   * @return Returns the number of rejected requests.
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  @Override
+  public void close() {
+    try {
+      client.stop();
+    } catch (Exception e) {
+      System.out.println("ERROR: Unable to stop autocomplete client: "
+          + e.getMessage());
+    }
+  }
+}
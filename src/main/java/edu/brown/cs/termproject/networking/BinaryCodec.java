@@ -0,0 +1,149 @@
+package edu.brown.cs.termproject.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The compact binary encoding of the most frequent messages, for clients that
+ * ask for it at CONNECT. Every frame starts with a header of the message type
+ * as one byte and the room index as a varint, followed by the fields of the
+ * message in a fixed order. Numbers are unsigned LEB128 varints and strings
+ * are a varint byte length followed by UTF-8. Users are sent by id only; the
+ * client knows their usernames from USER_JOIN.
+ *
+ * <pre>
+ * PLAYER_GUESS (server): userId, playerScore, suggestionIndex + 1 (0 if the
+ *                        guess was wrong), then score and suggestion if right
+ * UPDATE_TIME  (server): timeSeconds
+ * USER_CHAT    (server): userId, message
+ * PLAYER_GUESS (client): guess
+ * USER_CHAT    (client): message
+ * </pre>
+ *
+ * @author lcohen2
+ */
+final class BinaryCodec {
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+
+  private BinaryCodec(int type, int roomIndex) {
+    out.write(type);
+    writeVarint(roomIndex);
+  }
+
+  /**
+   * Starts a frame.
+   *
+   * @param type
+   *          The ordinal of the message's type.
+   * @param roomIndex
+   *          The index of the Room the message is for.
+   * @return Returns a BinaryCodec to write the frame's fields with.
+   */
+  static BinaryCodec frame(int type, int roomIndex) {
+    if (type < 0 || type > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Bad message type: " + type);
+    }
+    return new BinaryCodec(type, roomIndex);
+  }
+
+  /**
+   * Writes a non-negative number.
+   *
+   * @param value
+   *          The number.
+   * @return Returns this BinaryCodec.
+   */
+  BinaryCodec writeVarint(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative varint: " + value);
+    }
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+    return this;
+  }
+
+  /**
+   * Writes a string.
+   *
+   * @param value
+   *          The string.
+   * @return Returns this BinaryCodec.
+   */
+  BinaryCodec writeString(String value) {
+    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(utf8.length);
+    out.write(utf8, 0, utf8.length);
+    return this;
+  }
+
+  /**
+   * Gets the encoded frame.
+   *
+   * @return Returns the bytes written so far.
+   */
+  byte[] toBytes() {
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads a number written by writeVarint.
+   *
+   * @param in
+   *          The frame, positioned at the number.
+   * @return Returns the number.
+   * @throws IllegalArgumentException
+   *           If the frame ends early or the number is too big.
+   */
+  static int readVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!in.hasRemaining()) {
+        throw new IllegalArgumentException("Truncated varint");
+      }
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Varint too long");
+  }
+
+  /**
+   * Reads a string written by writeString.
+   *
+   * @param in
+   *          The frame, positioned at the string.
+   * @param maxBytes
+   *          The longest string to accept, in bytes.
+   * @return Returns the string.
+   * @throws IllegalArgumentException
+   *           If the frame ends early or the string is too long.
+   */
+  static String readString(ByteBuffer in, int maxBytes) {
+    int length = readVarint(in);
+    if (length > in.remaining() || length > maxBytes) {
+      throw new IllegalArgumentException("Bad string length: " + length);
+    }
+
+    String value;
+    if (in.hasArray()) {
+      value = new String(in.array(), in.arrayOffset() + in.position(), length,
+          StandardCharsets.UTF_8);
+    } else {
+      byte[] utf8 = new byte[length];
+      in.duplicate().get(utf8);
+      value = new String(utf8, StandardCharsets.UTF_8);
+    }
+    in.position(in.position() + length);
+    return value;
+  }
+}
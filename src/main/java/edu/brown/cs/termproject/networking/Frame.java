@@ -0,0 +1,108 @@
+package edu.brown.cs.termproject.networking;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.BinaryFrame;
+import org.eclipse.jetty.websocket.common.frames.TextFrame;
+
+/**
+ * An outbound message that is encoded once and then shared by every session
+ * it is sent to. Text messages are encoded to UTF-8; binary ones are sent as
+ * given.
+ *
+ * @author lcohen2
+ */
+public final class Frame {
+
+  private final String text;
+  private final ByteBuffer bytes;
+
+  private Frame(String text, byte[] bytes) {
+    this.text = text;
+    this.bytes = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  /**
+   * Encodes a message.
+   *
+   * @param text
+   *          The message text.
+   * @return Returns the encoded Frame.
+   */
+  public static Frame of(String text) {
+    return new Frame(text, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Wraps a binary message. The bytes must not be changed afterwards.
+   *
+   * @param bytes
+   *          The message.
+   * @return Returns the binary Frame.
+   */
+  public static Frame ofBinary(byte[] bytes) {
+    return new Frame(null, bytes);
+  }
+
+  /**
+   * Checks whether the Frame is a binary message.
+   *
+   * @return Returns true if the Frame is binary rather than text.
+   */
+  public boolean isBinary() {
+    return text == null;
+  }
+
+  /**
+   * Gets the message text.
+   *
+   * @return Returns the text the Frame was made from, or null if it is
+   *         binary.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Gets the encoded message. Each call returns an independent view of the
+   * same bytes, so it can be handed to the network layer.
+   *
+   * @return Returns a read-only ByteBuffer of the message.
+   */
+  public ByteBuffer getBytes() {
+    return bytes.duplicate();
+  }
+
+  /**
+   * Starts writing the Frame to a session without waiting for it to be sent.
+   *
+   * @param session
+   *          The Session to send to.
+   * @param callback
+   *          Notified once the Frame is written or fails to be.
+   */
+  public void write(Session session, WriteCallback callback) {
+    RemoteEndpoint remote = session.getRemote();
+    if (remote instanceof WebSocketRemoteEndpoint) {
+      // Hand Jetty the shared encoded bytes rather than re-encoding the text.
+      WebSocketFrame frame = isBinary() ? new BinaryFrame() : new TextFrame();
+      ((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(
+          frame.setPayload(getBytes()), callback);
+    } else if (isBinary()) {
+      remote.sendBytes(getBytes(), callback);
+    } else {
+      remote.sendString(text, callback);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return isBinary() ? "<" + bytes.remaining() + " bytes>" : text;
+  }
+}
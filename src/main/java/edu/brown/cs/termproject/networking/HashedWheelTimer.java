@@ -0,0 +1,332 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel used to schedule many short-lived, coarse timeouts
+ * (round deadlines, time syncs) on a single thread. Scheduling and cancelling
+ * are O(1); the worker thread only looks at one bucket per tick, so thousands
+ * of rooms can each hold a pending timeout without a thread apiece.
+ *
+ * Tasks run on the wheel's worker thread, so they should be short and must
+ * not block.
+ *
+ * @author lcohen2
+ */
+public final class HashedWheelTimer {
+
+  /**
+   * The timer shared by every Room on the server.
+   */
+  public static final HashedWheelTimer SHARED = new HashedWheelTimer(100,
+      TimeUnit.MILLISECONDS, 512);
+
+  private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger state = new AtomicInteger(INIT);
+  private final Thread worker;
+
+  private static final int INIT = 0;
+  private static final int STARTED = 1;
+  private static final int STOPPED = 2;
+
+  private volatile long startTime;
+  private long tick;
+
+  /**
+   * Creates a timer. The worker thread is started lazily by the first call to
+   * newTimeout.
+   *
+   * @param tickDuration
+   *          The granularity of the timer.
+   * @param unit
+   *          The unit of tickDuration.
+   * @param ticksPerWheel
+   *          The number of buckets in the wheel, rounded up to a power of two.
+   */
+  public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    if (tickDuration <= 0 || ticksPerWheel <= 0) {
+      throw new IllegalArgumentException(
+          "Tick duration and wheel size must be positive.");
+    }
+
+    int size = Integer.highestOneBit(ticksPerWheel);
+    if (size < ticksPerWheel) {
+      size <<= 1;
+    }
+
+    this.tickNanos = unit.toNanos(tickDuration);
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = size - 1;
+
+    this.worker = new Thread(this::run, "round-timer");
+    this.worker.setDaemon(true);
+  }
+
+  /**
+   * Schedules a task to run once after the given delay.
+   *
+   * @param task
+   *          The task to run on the timer thread.
+   * @param delay
+   *          The delay before running the task.
+   * @param unit
+   *          The unit of delay.
+   * @return Returns a Timeout that can be used to cancel the task.
+   */
+  public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+    start();
+
+    long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay))
+        - startTime;
+    Timeout timeout = new Timeout(this, task, deadline);
+    pending.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stops the worker thread. Pending timeouts are dropped.
+   */
+  public void stop() {
+    if (state.getAndSet(STOPPED) == STARTED) {
+      worker.interrupt();
+    }
+  }
+
+  /**
+   * Gets the number of timeouts that have been scheduled but not yet expired
+   * or cancelled. Approximate while the worker thread is running.
+   *
+   * @return Returns the number of outstanding timeouts.
+   */
+  public int pendingTimeouts() {
+    int count = pending.size();
+    for (Bucket bucket : wheel) {
+      count += bucket.size;
+    }
+    return count;
+  }
+
+  private void start() {
+    if (state.get() == INIT) {
+      synchronized (this) {
+        if (state.get() == INIT) {
+          // startTime is written before state is published as STARTED.
+          startTime = System.nanoTime();
+          state.set(STARTED);
+          worker.start();
+        }
+      }
+    }
+    if (state.get() == STOPPED) {
+      throw new IllegalStateException("Timer has been stopped.");
+    }
+  }
+
+  private void run() {
+    while (state.get() == STARTED) {
+      if (!waitForNextTick()) {
+        return;
+      }
+
+      removeCancelled();
+      transferPending();
+      wheel[(int) (tick & mask)].expire();
+      tick++;
+    }
+  }
+
+  /*
+   * Sleeps until the end of the current tick. Returns false if the timer was
+   * stopped while waiting.
+   */
+  private boolean waitForNextTick() {
+    long deadline = tickNanos * (tick + 1);
+    while (true) {
+      long current = System.nanoTime() - startTime;
+      long sleepMillis = (deadline - current + 999999) / 1000000;
+      if (sleepMillis <= 0) {
+        return true;
+      }
+
+      try {
+        Thread.sleep(sleepMillis);
+      } catch (InterruptedException e) {
+        if (state.get() == STOPPED) {
+          return false;
+        }
+      }
+    }
+  }
+
+  private void transferPending() {
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+      Timeout timeout = pending.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.isCancelled()) {
+        continue;
+      }
+
+      long calculated = timeout.deadline / tickNanos;
+      timeout.remainingRounds = (calculated - tick) / wheel.length;
+      long ticks = Math.max(calculated, tick); // Never schedule in the past.
+      wheel[(int) (ticks & mask)].add(timeout);
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  /**
+   * A handle for a task scheduled on the timer.
+   */
+  public static final class Timeout {
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    private final long deadline;
+    private final AtomicInteger status = new AtomicInteger(ST_INIT);
+
+    // Only touched by the worker thread.
+    private long remainingRounds;
+    private Bucket bucket;
+    private Timeout next;
+    private Timeout prev;
+
+    private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the task if it has not run yet.
+     *
+     * @return Returns true if the task was cancelled by this call.
+     */
+    public boolean cancel() {
+      if (!status.compareAndSet(ST_INIT, ST_CANCELLED)) {
+        return false;
+      }
+      timer.cancelled.add(this);
+      return true;
+    }
+
+    /**
+     * Checks whether the task was cancelled.
+     *
+     * @return Returns true if cancel succeeded.
+     */
+    public boolean isCancelled() {
+      return status.get() == ST_CANCELLED;
+    }
+
+    /**
+     * Checks whether the task has run.
+     *
+     * @return Returns true if the task was run.
+     */
+    public boolean isExpired() {
+      return status.get() == ST_EXPIRED;
+    }
+
+    private void expire() {
+      if (!status.compareAndSet(ST_INIT, ST_EXPIRED)) {
+        return;
+      }
+
+      try {
+        task.run();
+      } catch (Throwable t) {
+        System.out.println("ERROR: Timer task threw " + t);
+      }
+    }
+  }
+
+  /*
+   * A doubly linked list of timeouts. Only touched by the worker thread.
+   */
+  private static final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+    private volatile int size;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = timeout;
+        tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+      size++;
+    }
+
+    void expire() {
+      Timeout timeout = head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          timeout.expire();
+        } else if (timeout.isCancelled()) {
+          remove(timeout);
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      }
+      if (timeout == head) {
+        head = timeout.next;
+      }
+      if (timeout == tail) {
+        tail = timeout.prev;
+      }
+
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+      size--;
+    }
+  }
+}
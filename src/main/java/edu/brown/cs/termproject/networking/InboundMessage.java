@@ -0,0 +1,385 @@
+package edu.brown.cs.termproject.networking;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A message from a client, decoded straight from the text of the frame with a
+ * streaming reader instead of through a JsonObject tree. An instance is reused
+ * for every message handled on a thread, so nothing read from it may be kept
+ * past the handling of that message.
+ *
+ * <p>
+ * Messages have the form {type, payload}. The payload fields a client may
+ * send are the union of those of every message type; the ones a type doesn't
+ * use are left unset. Clients using the binary format send guesses and chat
+ * as BinaryCodec frames, which carry a room index instead of a room id.
+ *
+ * @author lcohen2
+ */
+public final class InboundMessage {
+
+  /**
+   * The longest message accepted, in characters. Custom query lists are the
+   * largest messages clients send.
+   */
+  public static final int MAX_MESSAGE_CHARS = 16 * 1024;
+
+  private int type;
+  private int roomIndex;
+  private String roomId;
+  private String username;
+  private String playerKey;
+  private String guess;
+  private String message;
+  private String format;
+  private String mode;
+  private int maxUsers;
+  private int rounds;
+  private int userId;
+  private boolean hasMaxUsers;
+  private boolean hasRounds;
+  private boolean hasUserId;
+  private boolean hasQueries;
+  private final List<String> queries = new ArrayList<>();
+
+  /**
+   * Decodes a message into this object, replacing whatever was decoded
+   * before.
+   *
+   * @param text
+   *          The text of the frame.
+   * @throws IllegalArgumentException
+   *           If the message is too long, is not valid JSON, or a field has
+   *           the wrong type.
+   */
+  public void decode(String text) {
+    reset();
+    if (text.length() > MAX_MESSAGE_CHARS) {
+      throw new IllegalArgumentException("Message too long: " + text.length()
+          + " characters");
+    }
+
+    try (JsonReader reader = new JsonReader(new StringReader(text))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "type":
+            type = reader.nextInt();
+            break;
+          case "payload":
+            readPayload(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new IllegalArgumentException("Trailing data after message");
+      }
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed message: "
+          + e.getMessage(), e);
+    }
+
+    if (type < 0) {
+      throw new IllegalArgumentException("Message has no type");
+    }
+  }
+
+  /**
+   * Decodes a binary message into this object, replacing whatever was decoded
+   * before.
+   *
+   * @param frame
+   *          The bytes of the frame.
+   * @param playerGuess
+   *          The ordinal of PLAYER_GUESS.
+   * @param userChat
+   *          The ordinal of USER_CHAT.
+   * @throws IllegalArgumentException
+   *           If the message is too long, truncated, or not a type that has a
+   *           binary encoding.
+   */
+  public void decode(ByteBuffer frame, int playerGuess, int userChat) {
+    reset();
+    if (frame.remaining() > MAX_MESSAGE_CHARS) {
+      throw new IllegalArgumentException("Message too long: "
+          + frame.remaining() + " bytes");
+    } else if (!frame.hasRemaining()) {
+      throw new IllegalArgumentException("Empty message");
+    }
+
+    type = frame.get();
+    roomIndex = BinaryCodec.readVarint(frame);
+    if (type == playerGuess) {
+      guess = BinaryCodec.readString(frame, MAX_MESSAGE_CHARS);
+    } else if (type == userChat) {
+      message = BinaryCodec.readString(frame, MAX_MESSAGE_CHARS);
+    } else {
+      throw new IllegalArgumentException("No binary encoding for type "
+          + type);
+    }
+
+    if (frame.hasRemaining()) {
+      throw new IllegalArgumentException("Trailing data after message");
+    }
+  }
+
+  private void reset() {
+    type = -1;
+    roomIndex = -1;
+    roomId = null;
+    username = null;
+    playerKey = null;
+    guess = null;
+    message = null;
+    format = null;
+    mode = null;
+    hasMaxUsers = false;
+    hasRounds = false;
+    hasUserId = false;
+    hasQueries = false;
+    queries.clear();
+  }
+
+  private void readPayload(JsonReader reader) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "roomId":
+          roomId = reader.nextString();
+          break;
+        case "username":
+          username = reader.nextString();
+          break;
+        case "playerKey":
+          playerKey = nextNullableString(reader);
+          break;
+        case "guess":
+          guess = reader.nextString();
+          break;
+        case "message":
+          message = reader.nextString();
+          break;
+        case "format":
+          format = reader.nextString();
+          break;
+        case "maxUsers":
+          maxUsers = reader.nextInt();
+          hasMaxUsers = true;
+          break;
+        case "userId":
+          userId = reader.nextInt();
+          hasUserId = true;
+          break;
+        case "queries":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            queries.add(reader.nextString());
+          }
+          reader.endArray();
+          hasQueries = true;
+          break;
+        case "settings":
+          readSettings(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  private void readSettings(JsonReader reader) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "rounds":
+          rounds = reader.nextInt();
+          hasRounds = true;
+          break;
+        case "mode":
+          mode = reader.nextString();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  private static String nextNullableString(JsonReader reader)
+      throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  private static <T> T require(T value, String name) {
+    if (value == null) {
+      throw new IllegalArgumentException("Message has no " + name);
+    }
+    return value;
+  }
+
+  private static int require(int value, boolean present, String name) {
+    if (!present) {
+      throw new IllegalArgumentException("Message has no " + name);
+    }
+    return value;
+  }
+
+  /**
+   * Gets the type of the message.
+   *
+   * @return Returns the ordinal of the message's type.
+   */
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * Gets the index of the Room a binary message is for.
+   *
+   * @return Returns the room index, or -1 for a JSON message.
+   */
+  public int getRoomIndex() {
+    return roomIndex;
+  }
+
+  /**
+   * Gets the id of the Room the message is for, lower cased.
+   *
+   * @return Returns the room id.
+   * @throws IllegalArgumentException
+   *           If the message has no room id.
+   */
+  public String getRoomId() {
+    return require(roomId, "roomId").toLowerCase();
+  }
+
+  /**
+   * Gets the username of a joining User.
+   *
+   * @return Returns the username.
+   * @throws IllegalArgumentException
+   *           If the message has no username.
+   */
+  public String getUsername() {
+    return require(username, "username");
+  }
+
+  /**
+   * Gets the key a returning player's browser identifies itself with.
+   *
+   * @return Returns the player key, or null if there is none.
+   */
+  public String getPlayerKey() {
+    return playerKey;
+  }
+
+  /**
+   * Gets the text of a guess.
+   *
+   * @return Returns the guess.
+   * @throws IllegalArgumentException
+   *           If the message has no guess.
+   */
+  public String getGuess() {
+    return require(guess, "guess");
+  }
+
+  /**
+   * Gets the text of a chat message.
+   *
+   * @return Returns the chat message.
+   * @throws IllegalArgumentException
+   *           If the message has no chat message.
+   */
+  public String getMessage() {
+    return require(message, "message");
+  }
+
+  /**
+   * Gets the message format a client asked for at CONNECT.
+   *
+   * @return Returns the format, or null if there is none.
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  /**
+   * Gets the game mode from a NEW_GAME's settings.
+   *
+   * @return Returns the mode.
+   * @throws IllegalArgumentException
+   *           If the message has no mode.
+   */
+  public String getMode() {
+    return require(mode, "mode");
+  }
+
+  /**
+   * Gets the number of rounds from a NEW_GAME's settings.
+   *
+   * @return Returns the number of rounds.
+   * @throws IllegalArgumentException
+   *           If the message has no number of rounds.
+   */
+  public int getRounds() {
+    return require(rounds, hasRounds, "rounds");
+  }
+
+  /**
+   * Gets the maximum number of users of a Room being created.
+   *
+   * @return Returns the maximum number of users.
+   * @throws IllegalArgumentException
+   *           If the message has no maximum.
+   */
+  public int getMaxUsers() {
+    return require(maxUsers, hasMaxUsers, "maxUsers");
+  }
+
+  /**
+   * Gets the id of the User being kicked.
+   *
+   * @return Returns the user id.
+   * @throws IllegalArgumentException
+   *           If the message has no user id.
+   */
+  public int getUserId() {
+    return require(userId, hasUserId, "userId");
+  }
+
+  /**
+   * Checks whether the message has a list of custom queries.
+   *
+   * @return Returns true if the message has queries.
+   */
+  public boolean hasQueries() {
+    return hasQueries;
+  }
+
+  /**
+   * Gets the custom queries in the message.
+   *
+   * @return Returns an unmodifiable view of the queries, empty if there are
+   *         none.
+   */
+  public List<String> getQueries() {
+    return Collections.unmodifiableList(queries);
+  }
+}
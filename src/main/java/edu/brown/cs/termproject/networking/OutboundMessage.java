@@ -0,0 +1,238 @@
+package edu.brown.cs.termproject.networking;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A message to clients, encoded at most once per format no matter how many
+ * sessions it is sent to.
+ *
+ * <p>
+ * Messages have the form {type, payload}. In the original nested format the
+ * payload, and any JSON inside it, is a JSON string that clients parse again.
+ * Clients that ask for the flat format at CONNECT get the payload as a plain
+ * JSON object instead. Clients that ask for the binary format get the
+ * messages that have a BinaryCodec encoding in that form, and the rest flat.
+ *
+ * @author lcohen2
+ */
+public final class OutboundMessage {
+
+  /**
+   * The ways a client can ask for messages to be encoded.
+   */
+  public enum Format {
+    NESTED, FLAT, BINARY;
+
+    /**
+     * Gets the Format a client asked for at CONNECT.
+     *
+     * @param name
+     *          The name of the format, or null.
+     * @return Returns the Format, NESTED if the name is not known.
+     */
+    public static Format parse(String name) {
+      if ("binary".equals(name)) {
+        return BINARY;
+      } else if ("flat".equals(name)) {
+        return FLAT;
+      }
+      return NESTED;
+    }
+  }
+
+  private final int type;
+  private final Map<String, Object> payload = new LinkedHashMap<>();
+  private Frame nested = null;
+  private Frame flat = null;
+  private Frame binary = null;
+
+  /*
+   * JSON text to be written as is in the flat format, and as a string in the
+   * nested one.
+   */
+  private static final class RawJson {
+    private final String json;
+
+    private RawJson(String json) {
+      this.json = json;
+    }
+  }
+
+  /**
+   * Creates an empty message.
+   *
+   * @param type
+   *          The ordinal of the message's type.
+   */
+  public OutboundMessage(int type) {
+    this.type = type;
+  }
+
+  /**
+   * Adds a String field to the payload.
+   *
+   * @param name
+   *          The name of the field.
+   * @param value
+   *          The value of the field.
+   * @return Returns this message.
+   */
+  public OutboundMessage put(String name, String value) {
+    return putValue(name, value);
+  }
+
+  /**
+   * Adds a number field to the payload.
+   *
+   * @param name
+   *          The name of the field.
+   * @param value
+   *          The value of the field.
+   * @return Returns this message.
+   */
+  public OutboundMessage put(String name, Number value) {
+    return putValue(name, value);
+  }
+
+  /**
+   * Adds a boolean field to the payload.
+   *
+   * @param name
+   *          The name of the field.
+   * @param value
+   *          The value of the field.
+   * @return Returns this message.
+   */
+  public OutboundMessage put(String name, boolean value) {
+    return putValue(name, value);
+  }
+
+  /**
+   * Adds a field holding already encoded JSON, such as an array, to the
+   * payload.
+   *
+   * @param name
+   *          The name of the field.
+   * @param json
+   *          The JSON text of the field.
+   * @return Returns this message.
+   */
+  public OutboundMessage putJson(String name, String json) {
+    return putValue(name, new RawJson(json));
+  }
+
+  /**
+   * Copies the message, so that fields can be added to the copy after this
+   * message has been sent.
+   *
+   * @return Returns a new OutboundMessage with the same type and payload.
+   */
+  public synchronized OutboundMessage copy() {
+    OutboundMessage copy = new OutboundMessage(type);
+    copy.payload.putAll(payload);
+    return copy;
+  }
+
+  /**
+   * Sets the binary encoding of the message, for clients that asked for it.
+   *
+   * @param codec
+   *          The BinaryCodec the message was written with.
+   * @return Returns this message.
+   */
+  synchronized OutboundMessage setBinary(BinaryCodec codec) {
+    binary = Frame.ofBinary(codec.toBytes());
+    return this;
+  }
+
+  private synchronized OutboundMessage putValue(String name, Object value) {
+    if (nested != null || flat != null) {
+      throw new IllegalStateException("Message was already encoded");
+    }
+    payload.put(name, value);
+    return this;
+  }
+
+  /**
+   * Gets the message in the given format, encoding it the first time.
+   *
+   * @param format
+   *          The Format the client asked for.
+   * @return Returns the encoded Frame.
+   */
+  public synchronized Frame getFrame(Format format) {
+    switch (format) {
+      case BINARY:
+        if (binary != null) {
+          return binary;
+        }
+        // Falls through: only frequent messages have a binary encoding.
+      case FLAT:
+        if (flat == null) {
+          flat = Frame.of(encode(true));
+        }
+        return flat;
+      default:
+        if (nested == null) {
+          nested = Frame.of(encode(false));
+        }
+        return nested;
+    }
+  }
+
+  private String encode(boolean flatPayload) {
+    StringWriter out = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(out)) {
+      writer.beginObject();
+      writer.name("type").value(type);
+      writer.name("payload");
+      if (flatPayload) {
+        writePayload(writer, true);
+      } else {
+        StringWriter inner = new StringWriter();
+        try (JsonWriter innerWriter = new JsonWriter(inner)) {
+          writePayload(innerWriter, false);
+        }
+        writer.value(inner.toString());
+      }
+      writer.endObject();
+    } catch (IOException e) {
+      // StringWriter doesn't throw.
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  private void writePayload(JsonWriter writer, boolean flatPayload)
+      throws IOException {
+    writer.beginObject();
+    for (Map.Entry<String, Object> field : payload.entrySet()) {
+      writer.name(field.getKey());
+      Object value = field.getValue();
+      if (value instanceof RawJson) {
+        if (flatPayload) {
+          writer.jsonValue(((RawJson) value).json);
+        } else {
+          writer.value(((RawJson) value).json);
+        }
+      } else if (value instanceof Number) {
+        writer.value((Number) value);
+      } else if (value instanceof Boolean) {
+        writer.value((Boolean) value);
+      } else {
+        writer.value((String) value);
+      }
+    }
+    writer.endObject();
+  }
+
+  @Override
+  public String toString() {
+    return getFrame(Format.NESTED).getText();
+  }
+}
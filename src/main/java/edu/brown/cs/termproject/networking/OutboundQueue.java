@@ -0,0 +1,328 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * A bounded queue of messages waiting to be written to one Session. Messages
+ * are written one at a time with Jetty's asynchronous send, so a slow client
+ * only backs up its own queue instead of blocking the thread that broadcast
+ * to its Room.
+ *
+ * @author lcohen2
+ */
+public final class OutboundQueue {
+
+  /**
+   * What to do when a message arrives and the queue is full.
+   */
+  public enum Overflow {
+    /**
+     * Drop the oldest droppable message (chat, time sync) to make room.
+     * Disconnects if every queued message must be delivered.
+     */
+    DROP_OLDEST,
+    /**
+     * Disconnect the client; it is too slow to keep up with its Room.
+     */
+    DISCONNECT
+  }
+
+  /**
+   * The default number of messages a Session may have waiting.
+   */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private static final Map<Session, OutboundQueue> QUEUES = new ConcurrentHashMap<>();
+  private static final AtomicLong EVICTED = new AtomicLong();
+
+  private static volatile int capacity = DEFAULT_CAPACITY;
+  private static volatile Overflow overflow = Overflow.DROP_OLDEST;
+
+  private final Session session;
+  private final Deque<Message> pending = new ArrayDeque<>();
+  private volatile OutboundMessage.Format format =
+      OutboundMessage.Format.NESTED;
+  private boolean writing = false;
+  private boolean closed = false;
+  private int maxDepth = 0;
+  private long sent = 0;
+  private long dropped = 0;
+
+  private static final class Message {
+    private final Frame frame;
+    private final boolean droppable;
+
+    private Message(Frame frame, boolean droppable) {
+      this.frame = frame;
+      this.droppable = droppable;
+    }
+  }
+
+  OutboundQueue(Session session) {
+    this.session = session;
+  }
+
+  /**
+   * Sets the capacity and overflow policy of every queue.
+   *
+   * @param maxPending
+   *          The number of messages a Session may have waiting.
+   * @param policy
+   *          What to do when a Session's queue is full.
+   */
+  public static void configure(int maxPending, Overflow policy) {
+    if (maxPending < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    capacity = maxPending;
+    overflow = policy;
+  }
+
+  /**
+   * Creates the queue of a Session that has just connected.
+   *
+   * @param session
+   *          A newly opened Session.
+   * @return Returns the Session's OutboundQueue.
+   */
+  public static OutboundQueue connected(Session session) {
+    return QUEUES.computeIfAbsent(session, OutboundQueue::new);
+  }
+
+  /**
+   * Gets the queue of a Session. Never creates one, so a send that races
+   * with the Session closing can't leave a queue behind.
+   *
+   * @param session
+   *          A Session.
+   * @return Returns the Session's OutboundQueue, or null if it has closed.
+   */
+  public static OutboundQueue of(Session session) {
+    return QUEUES.get(session);
+  }
+
+  /**
+   * Drops the queue of a Session once it has closed.
+   *
+   * @param session
+   *          A closed Session.
+   */
+  public static void remove(Session session) {
+    OutboundQueue queue = QUEUES.remove(session);
+    if (queue != null) {
+      queue.discard();
+    }
+  }
+
+  /**
+   * Gets the queues of every open Session, for metrics.
+   *
+   * @return Returns an unmodifiable view of the queues.
+   */
+  public static Collection<OutboundQueue> all() {
+    return Collections.unmodifiableCollection(QUEUES.values());
+  }
+
+  /**
+   * Gets the number of clients disconnected for falling behind.
+   *
+   * @return Returns the number of evicted Sessions since startup.
+   */
+  public static long evicted() {
+    return EVICTED.get();
+  }
+
+  /**
+   * Sets the message format the client asked for at CONNECT.
+   *
+   * @param messageFormat
+   *          The Format to send messages in.
+   */
+  public void setFormat(OutboundMessage.Format messageFormat) {
+    format = messageFormat;
+  }
+
+  /**
+   * Queues a message that must be delivered, in the client's format.
+   *
+   * @param message
+   *          The message.
+   */
+  public void send(OutboundMessage message) {
+    offer(message.getFrame(format), false);
+  }
+
+  /**
+   * Queues a message that may be dropped if the client falls behind, in the
+   * client's format.
+   *
+   * @param message
+   *          The message.
+   */
+  public void sendDroppable(OutboundMessage message) {
+    offer(message.getFrame(format), true);
+  }
+
+  /**
+   * Queues a message that must be delivered.
+   *
+   * @param frame
+   *          The message.
+   */
+  public void send(Frame frame) {
+    offer(frame, false);
+  }
+
+  /**
+   * Queues a message that may be dropped if the client falls behind, because
+   * a later message makes it stale or it is not essential to the game.
+   *
+   * @param frame
+   *          The message.
+   */
+  public void sendDroppable(Frame frame) {
+    offer(frame, true);
+  }
+
+  private void offer(Frame frame, boolean droppable) {
+    boolean tooSlow = false;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      if (pending.size() >= capacity && !makeRoom()) {
+        if (droppable && overflow == Overflow.DROP_OLDEST) {
+          // Everything queued must be delivered, so this is the one to go.
+          dropped++;
+          return;
+        }
+        tooSlow = true;
+        closed = true;
+        pending.clear();
+      } else {
+        pending.addLast(new Message(frame, droppable));
+        maxDepth = Math.max(maxDepth, pending.size());
+        if (writing) {
+          return;
+        }
+        writing = true;
+      }
+    }
+
+    if (tooSlow) {
+      evict();
+    } else {
+      writeNext();
+    }
+  }
+
+  // Must hold the lock.
+  private boolean makeRoom() {
+    if (overflow == Overflow.DISCONNECT) {
+      return false;
+    }
+
+    for (Iterator<Message> it = pending.iterator(); it.hasNext();) {
+      if (it.next().droppable) {
+        it.remove();
+        dropped++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeNext() {
+    Message next;
+    synchronized (this) {
+      next = pending.pollFirst();
+      if (next == null || closed) {
+        writing = false;
+        return;
+      }
+    }
+
+    try {
+      next.frame.write(session, new WriteCallback() {
+        @Override
+        public void writeSuccess() {
+          synchronized (OutboundQueue.this) {
+            sent++;
+          }
+          writeNext();
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+          System.out.println("ERROR: Unable to send message: "
+              + x.getMessage());
+          discard();
+        }
+      });
+    } catch (RuntimeException e) {
+      System.out.println("ERROR: Unable to send message: " + e.getMessage());
+      discard();
+    }
+  }
+
+  private synchronized void discard() {
+    closed = true;
+    writing = false;
+    pending.clear();
+  }
+
+  private void evict() {
+    EVICTED.incrementAndGet();
+    System.out.println("ERROR: Disconnecting slow client "
+        + session.getRemoteAddress());
+    session.close(StatusCode.POLICY_VIOLATION, "Too slow");
+  }
+
+  /**
+   * Gets the number of messages waiting to be written.
+   *
+   * @return Returns the current queue depth.
+   */
+  public synchronized int depth() {
+    return pending.size();
+  }
+
+  /**
+   * Gets the deepest the queue has been.
+   *
+   * @return Returns the maximum queue depth.
+   */
+  public synchronized int maxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Gets the number of messages written.
+   *
+   * @return Returns the number of messages sent.
+   */
+  public synchronized long sent() {
+    return sent;
+  }
+
+  /**
+   * Gets the number of droppable messages dropped because the queue was full.
+   *
+   * @return Returns the number of messages dropped.
+   */
+  public synchronized long dropped() {
+    return dropped;
+  }
+}
@@ -3,13 +3,18 @@ package edu.brown.cs.termproject.networking;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 import org.eclipse.jetty.websocket.api.Session;
 
+import edu.brown.cs.termproject.database.QueryPool;
+import edu.brown.cs.termproject.database.SeenQueries;
+import edu.brown.cs.termproject.database.SeenRegistry;
 import edu.brown.cs.termproject.game.Game;
 import edu.brown.cs.termproject.queryGenerator.qGenerator;
 import edu.brown.cs.termproject.queryResponses.QueryResponses;
@@ -22,11 +27,18 @@ import edu.brown.cs.termproject.queryResponses.QueryResponses;
 public class Room {
 
   private final String roomId;
+  private final int index;
   private final Session creator;
   private final Map<Session, User> userMap = new ConcurrentHashMap<>();
+  private final Map<Integer, User> usersById = new ConcurrentHashMap<>();
+  private final SessionRegistry sessions = SessionRegistry.shared();
+  private final SeenQueries seen = new SeenQueries();
 
   private Game game = null;
+  private HashedWheelTimer.Timeout roundTimer = null;
   private int maxUsers = 1;
+  private int nextUserId = 0;
+  private volatile long lastActivity = System.currentTimeMillis();
   private static int MAX_USERS = 10;
   // Store Settings if needed
 
@@ -35,11 +47,15 @@ public class Room {
    *
    * @param roomId
    *          A String representing the id of the Room.
+   * @param index
+   *          An integer the Room is known by in binary messages.
    * @param creator
    *          A Session representing the session that instantiated the Game.
    */
-  public Room(String roomId, Session creator, int maxUsers /* , Settings */ ) {
+  public Room(String roomId, int index, Session creator,
+      int maxUsers /* , Settings */ ) {
     this.roomId = roomId;
+    this.index = index;
     this.creator = creator;
     this.maxUsers = Math.max(1, Math.min(maxUsers, MAX_USERS));
   }
@@ -53,17 +69,54 @@ public class Room {
    *          A String representing the username of the new User.
    * @return Returns a boolean representing success.
    */
-  public synchronized boolean addUser(Session session, String username) {
+  public boolean addUser(Session session, String username) {
+    return addUser(session, username, null);
+  }
+
+  /**
+   * Adds a new User as a Player into the Game, remembering which queries they
+   * played in earlier sessions.
+   *
+   * @param session
+   *          A Session representing the session of the new User.
+   * @param username
+   *          A String representing the username of the new User.
+   * @param playerKey
+   *          A String the player's browser identifies itself with, or null.
+   * @return Returns a boolean representing success.
+   */
+  public boolean addUser(Session session, String username,
+      String playerKey) {
+    // Loaded before taking the lock, since it may read the database and the
+    // round timer waits on the lock.
+    SeenQueries seen = playerKey == null ? null
+        : SeenRegistry.shared().get(playerKey);
 
-    if (userMap.size() < maxUsers) {
-      userMap.put(session, new User(session, userMap.size(), username, false));
-      User added = userMap.get(session);
-      if (game != null && added != null && !added.isSpectating()) {
-        game.addPlayer(added);
+    synchronized (this) {
+      if (userMap.size() < maxUsers) {
+        // Ids are never reused, so a kick can't hit whoever took a leaver's
+        // id.
+        User user = new User(session, nextUserId++, username, false);
+        if (seen != null) {
+          user.setPlayer(playerKey, seen);
+        }
+        User replaced = userMap.put(session, user);
+        if (replaced != null) {
+          usersById.remove(replaced.getId());
+          replaced.releasePlayer();
+        }
+        usersById.put(user.getId(), user);
+        sessions.register(this, user);
+        if (game != null && !user.isSpectating()) {
+          game.addPlayer(user);
+        }
+        return true;
       }
-      return true;
     }
 
+    if (seen != null) {
+      SeenRegistry.shared().release(playerKey);
+    }
     return false;
   }
 
@@ -88,10 +141,18 @@ public class Room {
    */
   public boolean removeUser(Session session) {
     User remove = userMap.remove(session);
-    if (remove != null && game != null) {
-      game.removePlayer(remove);
+    if (remove == null) {
+      return false;
     }
-    return remove != null;
+
+    usersById.remove(remove.getId());
+    sessions.unregister(this, session);
+    Game current = getGame();
+    if (current != null) {
+      current.removePlayer(remove);
+    }
+    remove.releasePlayer();
+    return true;
   }
 
   /**
@@ -102,47 +163,147 @@ public class Room {
    * @return Returns a User with corresponding id.
    */
   public User getUser(int id) {
+    return usersById.get(id);
+  }
+
+  /**
+   * Closes the Room: ends its Game and forgets the Sessions still in it, which
+   * no longer belong to any Room. Their players' seen queries are released,
+   * since they won't leave through removeUser. The Users stay, so the Room's
+   * closing can still be broadcast to them.
+   */
+  public synchronized void close() {
+    if (game != null) {
+      game.endGame();
+    }
+    cancelRoundTimer();
     for (User user : userMap.values()) {
-      if (user.getId() == id) {
-        return user;
-      }
+      sessions.unregister(this, user.getSession());
+      user.releasePlayer();
     }
-    return null;
   }
 
   /**
    * Creates a new Game for the Room.
+   *
+   * @param rounds
+   *          The number of rounds to play.
+   * @param mode
+   *          "standard", "meta", or a comma separated list of categories to
+   *          play queries from, e.g. "animal,food".
+   * @param queries
+   *          The room's custom queries, if any.
+   * @throws IllegalArgumentException
+   *           If the mode names no categories that have queries.
    */
-  public synchronized void newGame(int rounds, String mode,
+  public void newGame(int rounds, String mode,
       List<QueryResponses> queries /* Settings */) {
-    if (game != null) {
-      game.endGame();
+    List<String> categories = categories(mode);
+    QueryPool pool = QueryPool.shared();
+    if (queries.isEmpty() && categories != null && pool.isReady()
+        && Collections.disjoint(categories, pool.categories())) {
+      // Checked before the current game ends, so it keeps going.
+      throw new IllegalArgumentException("No queries in mode: " + mode);
     }
 
-    List<User> playingUsers = new ArrayList<>();
-    for (User user : userMap.values()) {
-      if (!user.isSpectating()) {
-        playingUsers.add(user);
+    boolean custom = !queries.isEmpty();
+
+    // The queries are picked before taking the Room's lock, since loading
+    // them can touch SQLite and the shared round timer needs the lock.
+    List<QueryResponses> picked = null;
+    List<Future<QueryResponses>> prefetched = null;
+    try {
+      if (custom) {
+        picked = queries;
+      } else if (!mode.equals("meta") && pool.isReady()) {
+        // Steady state: sample pre-clustered queries without touching SQLite.
+        picked = categories == null ? pool.sample(rounds, this::hasSeen)
+            : pool.sample(rounds, categories, this::hasSeen);
+      } else if (mode.equals("meta")) {
+        // Only the first round is loaded before the game starts; the rest are
+        // loaded and clustered in the background.
+        prefetched = new qGenerator().prefetchRandomMetaModeQrs(rounds);
+      } else if (categories == null) {
+        prefetched = new qGenerator().prefetchRandomQrs(rounds);
+      } else {
+        prefetched = new qGenerator().prefetchRandomQrs(rounds, categories);
       }
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return;
     }
 
-    boolean custom = !queries.isEmpty();
-    
-    try {
-      if (queries.isEmpty()) {
-        if (mode.equals("standard")) {
-          queries.addAll(new qGenerator().nRandomQrs(rounds));
-        } else {
-          queries.addAll(
-              new qGenerator().nRandomMetaModeQrs((rounds)));
+    synchronized (this) {
+      if (game != null) {
+        game.endGame();
+      }
+      cancelRoundTimer();
+
+      List<User> playingUsers = new ArrayList<>();
+      for (User user : userMap.values()) {
+        if (!user.isSpectating()) {
+          playingUsers.add(user);
         }
       }
 
-      game = new Game(maxUsers, playingUsers, queries, custom /* , Settings */);
-    } catch (SQLException e) {
-      e.printStackTrace();
+      if (picked != null) {
+        game = new Game(maxUsers, playingUsers, picked,
+            custom /* , Settings */);
+      } else {
+        game = Game.withPrefetchedQueries(maxUsers, playingUsers, prefetched,
+            custom);
+      }
+    }
+  }
+
+  /*
+   * Gets the categories a game mode plays, or null for "standard" and
+   * "meta", which aren't limited to any.
+   */
+  private static List<String> categories(String mode) {
+    if (mode.equals("standard") || mode.equals("meta")) {
+      return null;
     }
 
+    List<String> categories = new ArrayList<>();
+    for (String category : mode.split(",")) {
+      if (!category.trim().isEmpty()) {
+        categories.add(category.trim());
+      }
+    }
+    return categories;
+  }
+
+  /**
+   * Checks whether the Room or any of its Users has already played a query.
+   *
+   * @param queryId
+   *          The id of the query.
+   * @return Returns true if the query has been seen.
+   */
+  public boolean hasSeen(int queryId) {
+    if (seen.contains(queryId)) {
+      return true;
+    }
+    for (User user : userMap.values()) {
+      if (user.getSeenQueries().contains(queryId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Marks a query as played by the Room and every User in it.
+   *
+   * @param queryId
+   *          The id of the query.
+   */
+  public void markSeen(int queryId) {
+    seen.add(queryId);
+    for (User user : userMap.values()) {
+      user.getSeenQueries().add(queryId);
+    }
   }
 
   /**
@@ -154,6 +315,31 @@ public class Room {
     return roomId;
   }
 
+  /**
+   * Records that a User in the Room did something, so it isn't reaped as idle.
+   */
+  public void touch() {
+    lastActivity = System.currentTimeMillis();
+  }
+
+  /**
+   * Gets when a User in the Room last did something.
+   *
+   * @return Returns the time of the last activity, in epoch milliseconds.
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * Gets the index of the Room, which binary messages use instead of its id.
+   *
+   * @return Returns an integer representing the Room's index.
+   */
+  public int getIndex() {
+    return index;
+  }
+
   /**
    * Gets the creator of the Room.
    *
@@ -191,4 +377,25 @@ public class Room {
     return game;
   }
 
+  /**
+   * Sets the pending timeout driving the current round, cancelling any
+   * previous one.
+   *
+   * @param timer
+   *          A Timeout from the shared HashedWheelTimer.
+   */
+  public synchronized void setRoundTimer(HashedWheelTimer.Timeout timer) {
+    if (roundTimer != null) {
+      roundTimer.cancel();
+    }
+    roundTimer = timer;
+  }
+
+  /**
+   * Cancels the pending timeout driving the current round, if any.
+   */
+  public synchronized void cancelRoundTimer() {
+    setRoundTimer(null);
+  }
+
 }
@@ -0,0 +1,281 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * Every open Room on the server, split across shards by room index.
+ *
+ * <p>
+ * Rooms are numbered by a counter, and a room's id is its number run through
+ * a fixed bijection of 30-bit integers and written as six base-32 characters.
+ * Ids are therefore unique without a set of used ids or any locking, don't
+ * reveal how many rooms exist, and can be turned back into the room's index.
+ *
+ * @author lcohen2
+ */
+public final class RoomRegistry {
+
+  /**
+   * A rough upper bound of the memory one Room, its Users and its Game use.
+   */
+  public static final long ESTIMATED_ROOM_BYTES = 64 * 1024;
+
+  private static final String ROOM_CHARS = "23456789abcdefghjklmnpqrstuvwxyz";
+  private static final int ID_LENGTH = 6;
+  private static final int ID_BITS = 30;
+  private static final int ID_MASK = (1 << ID_BITS) - 1;
+  // Odd, so multiplying by it is invertible mod 2^30.
+  private static final int MULTIPLIER = 0x2E3A5B1F & ID_MASK;
+  private static final int INVERSE = inverse(MULTIPLIER);
+  private static final int[] CHAR_VALUES = new int[128];
+  private static final int SHARDS = 16;
+
+  static {
+    Arrays.fill(CHAR_VALUES, -1);
+    for (int i = 0; i < ROOM_CHARS.length(); i++) {
+      CHAR_VALUES[ROOM_CHARS.charAt(i)] = i;
+    }
+  }
+
+  private static final RoomRegistry SHARED = new RoomRegistry(
+      capacityFor(Runtime.getRuntime().maxMemory() / 2));
+
+  private final List<Map<Integer, Room>> shards = new ArrayList<>(SHARDS);
+  private final AtomicInteger nextIndex = new AtomicInteger();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong reaped = new AtomicLong();
+  private volatile int capacity;
+
+  RoomRegistry(int capacity) {
+    for (int i = 0; i < SHARDS; i++) {
+      shards.add(new ConcurrentHashMap<>());
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Gets the registry shared by every connection.
+   *
+   * @return Returns the shared RoomRegistry.
+   */
+  public static RoomRegistry shared() {
+    return SHARED;
+  }
+
+  /**
+   * Gets how many rooms fit in a memory budget.
+   *
+   * @param memoryBytes
+   *          The memory rooms may use, in bytes.
+   * @return Returns the number of rooms, at least 1.
+   */
+  public static int capacityFor(long memoryBytes) {
+    return (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, memoryBytes / ESTIMATED_ROOM_BYTES));
+  }
+
+  /**
+   * Sets the most rooms that may be open at once. Rooms already open are not
+   * closed.
+   *
+   * @param maxRooms
+   *          The capacity.
+   */
+  public void setCapacity(int maxRooms) {
+    capacity = Math.max(1, maxRooms);
+  }
+
+  /**
+   * Gets the most rooms that may be open at once.
+   *
+   * @return Returns the capacity.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Opens a new Room, unless the registry is full.
+   *
+   * @param creator
+   *          The Session creating the Room.
+   * @param maxUsers
+   *          The most Users the Room may have.
+   * @return Returns the new Room, or null if there are too many rooms.
+   */
+  public Room create(Session creator, int maxUsers) {
+    if (size.incrementAndGet() > capacity) {
+      size.decrementAndGet();
+      return null;
+    }
+
+    while (true) {
+      // The counter wraps after 2^30 rooms; skip indices still in use.
+      int index = nextIndex.getAndIncrement() & ID_MASK;
+      Room room = new Room(toId(index), index, creator, maxUsers);
+      if (shard(index).putIfAbsent(index, room) == null) {
+        return room;
+      }
+    }
+  }
+
+  /**
+   * Gets an open Room by id.
+   *
+   * @param roomId
+   *          The id of the Room, in any case.
+   * @return Returns the Room, or null if no such Room is open.
+   */
+  public Room get(String roomId) {
+    int index = toIndex(roomId);
+    return index < 0 ? null : get(index);
+  }
+
+  /**
+   * Gets an open Room by index.
+   *
+   * @param index
+   *          The index of the Room.
+   * @return Returns the Room, or null if no such Room is open.
+   */
+  public Room get(int index) {
+    return shard(index).get(index);
+  }
+
+  /**
+   * Closes a Room and removes it from the registry.
+   *
+   * @param room
+   *          The Room.
+   * @return Returns true if the Room was open.
+   */
+  public boolean remove(Room room) {
+    if (!shard(room.getIndex()).remove(room.getIndex(), room)) {
+      return false;
+    }
+    size.decrementAndGet();
+    room.close();
+    return true;
+  }
+
+  /**
+   * Gets the number of open rooms.
+   *
+   * @return Returns the number of rooms.
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Closes every Room that has seen no activity for a while. Closing a Room
+   * ends its Game, which saves the guesses made in it.
+   *
+   * @param idleMillis
+   *          How long a Room may go without activity.
+   * @return Returns the Rooms closed.
+   */
+  public List<Room> reapIdle(long idleMillis) {
+    long cutoff = System.currentTimeMillis() - idleMillis;
+    List<Room> closed = new ArrayList<>();
+    for (Map<Integer, Room> shard : shards) {
+      for (Room room : shard.values()) {
+        if (room.getLastActivity() < cutoff && remove(room)) {
+          closed.add(room);
+        }
+      }
+    }
+    reaped.addAndGet(closed.size());
+    return closed;
+  }
+
+  /**
+   * Gets the number of Rooms closed for being idle.
+   *
+   * @return Returns the number of idle Rooms closed.
+   */
+  public long reaped() {
+    return reaped.get();
+  }
+
+  private Map<Integer, Room> shard(int index) {
+    return shards.get(index & (SHARDS - 1));
+  }
+
+  /*
+   * A bijection of 30-bit integers: multiply, xorshift, multiply. Shifting by
+   * half the width makes the xorshift its own inverse.
+   */
+  private static int permute(int x) {
+    x = (x * MULTIPLIER) & ID_MASK;
+    x ^= x >>> (ID_BITS / 2);
+    return (x * MULTIPLIER) & ID_MASK;
+  }
+
+  private static int unpermute(int x) {
+    x = (x * INVERSE) & ID_MASK;
+    x ^= x >>> (ID_BITS / 2);
+    return (x * INVERSE) & ID_MASK;
+  }
+
+  /*
+   * Newton's iteration for the inverse of an odd number mod 2^32; each step
+   * doubles the number of correct low bits.
+   */
+  private static int inverse(int odd) {
+    int inv = odd;
+    for (int i = 0; i < 5; i++) {
+      inv *= 2 - odd * inv;
+    }
+    return inv & ID_MASK;
+  }
+
+  /**
+   * Gets the id of the Room with an index.
+   *
+   * @param index
+   *          A room index, less than 2^30.
+   * @return Returns the six character room id.
+   */
+  static String toId(int index) {
+    int bits = permute(index);
+    char[] id = new char[ID_LENGTH];
+    for (int i = ID_LENGTH - 1; i >= 0; i--) {
+      id[i] = ROOM_CHARS.charAt(bits & 31);
+      bits >>>= 5;
+    }
+    return new String(id);
+  }
+
+  /**
+   * Gets the index of the Room with an id.
+   *
+   * @param roomId
+   *          A room id, in any case.
+   * @return Returns the room index, or -1 if the id is not well formed.
+   */
+  static int toIndex(String roomId) {
+    if (roomId == null || roomId.length() != ID_LENGTH) {
+      return -1;
+    }
+
+    int bits = 0;
+    for (int i = 0; i < ID_LENGTH; i++) {
+      char c = Character.toLowerCase(roomId.charAt(i));
+      int value = c < CHAR_VALUES.length ? CHAR_VALUES[c] : -1;
+      if (value < 0) {
+        return -1;
+      }
+      bits = (bits << 5) | value;
+    }
+    return unpermute(bits);
+  }
+}
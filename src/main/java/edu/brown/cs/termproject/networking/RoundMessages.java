@@ -0,0 +1,114 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.JsonObject;
+
+import edu.brown.cs.termproject.game.Game;
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+import edu.brown.cs.termproject.scoring.Suggestion;
+
+/**
+ * The messages for a round that only depend on its query: the NEW_ROUND message
+ * and the JSON used to reveal each suggestion. Built once per query and shared
+ * by every room that plays it, so later joiners and reveals don't re-render
+ * anything.
+ *
+ * @author lcohen2
+ */
+final class RoundMessages {
+
+  // Pooled queries are shared between rooms, so are their messages. Weak keys
+  // let the messages for custom queries go once their game is over.
+  private static final Cache<QueryResponses, RoundMessages> CACHE = CacheBuilder
+      .newBuilder().weakKeys().build();
+
+  private final OutboundMessage newRound;
+  private final Map<Suggestion, String> reveals = new LinkedHashMap<>();
+  private final String allReveals;
+
+  private RoundMessages(int newRoundType, QueryResponses query) {
+    newRound = new OutboundMessage(newRoundType)
+        .put("query", query.getQuery())
+        .put("numResponses", query.getResponses().size())
+        .put("timeSeconds", Game.ROUND_SECONDS);
+
+    for (Suggestion sugg : query.getResponses().asList()) {
+      JsonObject suggestionData = new JsonObject();
+      suggestionData.addProperty("suggestion", sugg.getResponse());
+      suggestionData.addProperty("suggestionIndex", sugg.getScore());
+      suggestionData.addProperty("score", (10 - sugg.getScore()) * 1000);
+      reveals.put(sugg, suggestionData.toString());
+    }
+    allReveals = "[" + String.join(",", reveals.values()) + "]";
+  }
+
+  /**
+   * Gets the messages for a query, building them the first time.
+   *
+   * @param newRoundType
+   *          The message type of NEW_ROUND.
+   * @param query
+   *          The round's query.
+   * @return Returns the RoundMessages for the query.
+   */
+  static RoundMessages of(int newRoundType, QueryResponses query) {
+    try {
+      return CACHE.get(query, () -> new RoundMessages(newRoundType, query));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Gets the NEW_ROUND message.
+   *
+   * @return Returns the NEW_ROUND OutboundMessage.
+   */
+  OutboundMessage getNewRound() {
+    return newRound;
+  }
+
+  /**
+   * Gets a JSON array of the suggestions that were not guessed, for
+   * ROUND_END.
+   *
+   * @param guessed
+   *          The suggestions that were guessed during the round.
+   * @return Returns the JSON array as a String.
+   */
+  String missed(Set<Suggestion> guessed) {
+    if (guessed.isEmpty()) {
+      return allReveals;
+    }
+    return join(guessed, false);
+  }
+
+  /**
+   * Gets a JSON array of the suggestions that were guessed, for a User joining
+   * mid-round.
+   *
+   * @param guessed
+   *          The suggestions that were guessed so far.
+   * @return Returns the JSON array as a String.
+   */
+  String guessed(Set<Suggestion> guessed) {
+    return join(guessed, true);
+  }
+
+  private String join(Set<Suggestion> guessed, boolean wanted) {
+    StringJoiner joiner = new StringJoiner(",", "[", "]");
+    for (Map.Entry<Suggestion, String> reveal : reveals.entrySet()) {
+      if (guessed.contains(reveal.getKey()) == wanted) {
+        joiner.add(reveal.getValue());
+      }
+    }
+    return joiner.toString();
+  }
+}
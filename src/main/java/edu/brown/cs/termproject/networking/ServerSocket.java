@@ -1,56 +1,51 @@
 package edu.brown.cs.termproject.networking;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.api.extensions.Frame.Type;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
 
 import com.google.common.base.Optional;
-import com.google.gson.Gson;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
 
-import edu.brown.cs.termproject.queryGenerator.qGenerator;
+import edu.brown.cs.termproject.game.Game;
+import edu.brown.cs.termproject.queryGenerator.QueryBatch;
 import edu.brown.cs.termproject.queryResponses.QueryResponses;
 import edu.brown.cs.termproject.scoring.Suggestion;
 
-@WebSocket
+// Jetty limits frames in bytes; InboundMessage then limits them in characters.
+@WebSocket(maxTextMessageSize = InboundMessage.MAX_MESSAGE_CHARS * 4)
 public class ServerSocket {
-  private static final Gson GSON = new Gson();
-
-  private static final Set<String> ROOM_IDS = Collections
-      .synchronizedSet(new HashSet<String>());
-  private static final Map<String, Room> ROOMS = new ConcurrentHashMap<>();
-  private static final String roomChars = "23456789abcdefghjklmnpqrstuvwxyz";
-  private static final int MAX_ROOMS = 20;
-
-  private static String generateRoomId() {
-    Random random = new Random();
-    while (true) {
-      String id = "";
-      for (int i = 0; i < 6; i++) {
-        id += roomChars.charAt(random.nextInt(roomChars.length() - 1));
-      }
-
-      if (!ROOM_IDS.contains(id)) {
-        ROOM_IDS.add(id);
-        return id;
-      }
-    }
-  }
+  // Decoded messages are only read while they are handled, so each thread
+  // decodes into the same object.
+  private static final ThreadLocal<InboundMessage> INBOUND = ThreadLocal
+      .withInitial(InboundMessage::new);
+
+  private static final RoomRegistry ROOMS = RoomRegistry.shared();
+  private static final HashedWheelTimer TIMER = HashedWheelTimer.SHARED;
+  private static final SessionRegistry SESSIONS = SessionRegistry.shared();
+  private static final SessionReaper REAPER = SessionReaper.shared();
+  private static final long TIME_SYNC_MILLIS = 5000;
+  // Custom queries not checked by then are treated as invalid.
+  private static final long VALIDATION_DEADLINE_MILLIS = 4000;
 
   private static enum MESSAGE_TYPE {
     CONNECT, CREATE_ROOM, CUSTOM_QUERY, NEW_GAME, NEW_ROUND, ROUND_END, UPDATE_TIME, USER_JOIN, USER_LEFT, USER_KICK, PLAYER_GUESS, USER_CHAT
@@ -58,50 +53,152 @@ public class ServerSocket {
 
   private static final MESSAGE_TYPE[] MESSAGE_VALUES = MESSAGE_TYPE.values();
 
+  private static final OutboundMessage CONNECT_MESSAGE = new OutboundMessage(
+      MESSAGE_TYPE.CONNECT.ordinal());
+
+  private static final String[] DEFLATE_EXTENSIONS = {"permessage-deflate",
+      "deflate-frame", "x-webkit-deflate-frame"};
+  private static volatile boolean permessageDeflate = true;
+  private static ScheduledExecutorService reaper;
+
+  /**
+   * Sets whether clients may compress messages with permessage-deflate. Jetty
+   * offers it by default; it saves bandwidth on large rooms at some CPU cost.
+   *
+   * @param enabled
+   *          False to stop offering compression.
+   */
+  public static void setPermessageDeflate(boolean enabled) {
+    permessageDeflate = enabled;
+  }
+
   @OnWebSocketConnect
   public void connected(Session session) throws IOException {
-    JsonObject connMessage = new JsonObject();
-
-    connMessage.addProperty("type", MESSAGE_TYPE.CONNECT.ordinal());
-    connMessage.addProperty("payload", new JsonObject().toString());
+    REAPER.seen(session);
+    if (!permessageDeflate) {
+      disableDeflate(session);
+    }
+    OutboundQueue.connected(session);
+    send(session, CONNECT_MESSAGE);
+  }
 
-    session.getRemote().sendString(connMessage.toString());
+  /*
+   * Spark doesn't expose Jetty's WebSocketServerFactory, so the extensions it
+   * negotiates can only be reached from a session. Removing them there keeps
+   * them out of every later handshake.
+   */
+  private static void disableDeflate(Session session) {
+    if (!(session instanceof WebSocketSession)) {
+      return;
+    }
+    Object container = ((WebSocketSession) session).getContainerScope();
+    if (container instanceof WebSocketServerFactory) {
+      ExtensionFactory extensions = ((WebSocketServerFactory) container)
+          .getExtensionFactory();
+      for (String name : DEFLATE_EXTENSIONS) {
+        if (extensions.isAvailable(name)) {
+          extensions.unregister(name);
+        }
+      }
+    }
   }
 
   @OnWebSocketClose
   public void closed(Session session, int statusCode, String reason) {
+    leave(session);
+  }
+
+  /*
+   * Pongs are the only frames that aren't messages; they answer the pings
+   * sent to quiet sessions.
+   */
+  @OnWebSocketFrame
+  public void frame(Session session,
+      org.eclipse.jetty.websocket.api.extensions.Frame frame) {
+    if (frame.getType() == Type.PONG) {
+      REAPER.seen(session);
+    }
+  }
+
+  /**
+   * Starts pinging quiet sessions, dropping the ones that stop answering, and
+   * closing rooms that have seen no activity for a while.
+   *
+   * @param pingAfterMillis
+   *          How long a session may be quiet before it is pinged.
+   * @param deadAfterMillis
+   *          How long a session may be quiet before it is dropped.
+   * @param roomIdleMillis
+   *          How long a room may go without a message before it is closed.
+   * @param periodMillis
+   *          How often to check.
+   */
+  public static synchronized void startReaper(long pingAfterMillis,
+      long deadAfterMillis, long roomIdleMillis, long periodMillis) {
+    if (reaper != null) {
+      return;
+    }
+
+    reaper = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("session-reaper").build());
+    reaper.scheduleWithFixedDelay(() -> {
+      try {
+        reap(pingAfterMillis, deadAfterMillis, roomIdleMillis);
+      } catch (RuntimeException e) {
+        System.out.println("ERROR: Unable to reap sessions: "
+            + e.getMessage());
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static void reap(long pingAfterMillis, long deadAfterMillis,
+      long roomIdleMillis) {
+    for (Session session : REAPER.sweep(pingAfterMillis, deadAfterMillis)) {
+      SessionReaper.disconnect(session);
+      // Jetty may never report the close of a half-open connection.
+      leave(session);
+    }
+
+    for (Room room : ROOMS.reapIdle(roomIdleMillis)) {
+      OutboundMessage closeMessage = new OutboundMessage(
+          MESSAGE_TYPE.USER_LEFT.ordinal());
+      closeMessage.put("roomClose", true);
+      closeMessage.put("idle", true);
+      broadcast(room, closeMessage, false);
+    }
+  }
+
+  /*
+   * Removes a closed or dead session from its room, closing the room if it
+   * was the creator. Safe to call more than once for a session.
+   */
+  private static void leave(Session session) {
+    REAPER.forget(session);
+    OutboundQueue.remove(session);
 
     try {
       // Compose and send USER_LEFT message here if necessary
-      for (Room room : ROOMS.values()) {
-        User user = room.getUser(session);
+      SessionRegistry.Seat seat = SESSIONS.get(session);
+      if (seat != null) {
+        Room room = seat.getRoom();
+        User user = seat.getUser();
         if (room.removeUser(session)) {
           boolean roomClose = false;
           if (session.equals(room.getCreator())) {
-            if (room.getGame() != null) {
-              room.getGame().endGame();
-            }
-            ROOM_IDS.remove(room.getRoomId());
-            ROOMS.remove(room.getRoomId());
+            ROOMS.remove(room);
             roomClose = true;
           }
 
-          JsonObject updateMessage = new JsonObject();
-          JsonObject updatePayload = new JsonObject();
-
-          updatePayload.addProperty("userId", user.getId());
-          updatePayload.addProperty("username", user.getUsername());
-          updatePayload.addProperty("roomClose", roomClose);
+          OutboundMessage updateMessage = new OutboundMessage(
+              MESSAGE_TYPE.USER_LEFT.ordinal());
 
-          updateMessage.addProperty("type", MESSAGE_TYPE.USER_LEFT.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
-          String updateMessageString = updateMessage.toString();
+          updateMessage.put("userId", user.getId());
+          updateMessage.put("username", user.getUsername());
+          updateMessage.put("roomClose", roomClose);
 
           // Send back response on USER_LEFT.
-          for (Session sess : room.getUserSessions()) {
-            sess.getRemote().sendString(updateMessageString);
-          }
-          break;
+          broadcast(room, updateMessage, false);
         }
       }
     } catch (Exception e) {
@@ -111,70 +208,101 @@ public class ServerSocket {
 
   @OnWebSocketMessage
   public void message(Session session, String message) {
+    REAPER.seen(session);
+    InboundMessage received = INBOUND.get();
+    try {
+      received.decode(message);
+    } catch (IllegalArgumentException ex) {
+      System.out.println("ERROR: " + ex.getMessage());
+      return;
+    }
+    handle(session, received, message);
+  }
 
-    JsonObject received;
-    JsonObject payload;
+  @OnWebSocketMessage
+  public void message(Session session, byte[] buf, int offset, int length) {
+    REAPER.seen(session);
+    InboundMessage received = INBOUND.get();
     try {
-      received = GSON.fromJson(message, JsonObject.class);
-      payload = received.get("payload").getAsJsonObject();
-    } catch (JsonSyntaxException ex) {
-      System.out.print("ERROR: Malformed message: " + message);
+      received.decode(ByteBuffer.wrap(buf, offset, length),
+          MESSAGE_TYPE.PLAYER_GUESS.ordinal(),
+          MESSAGE_TYPE.USER_CHAT.ordinal());
+    } catch (IllegalArgumentException ex) {
+      System.out.println("ERROR: " + ex.getMessage());
+      return;
+    }
+    handle(session, received, "<binary type " + received.getType() + ">");
+  }
+
+  private void handle(Session session, InboundMessage received,
+      String message) {
+    if (received.getType() >= MESSAGE_VALUES.length) {
+      System.out.println("ERROR: Unknown message type: " + received.getType());
       return;
     }
 
-    JsonObject updateMessage;
-    JsonObject updatePayload;
-    String updateMessageString;
-    qGenerator generator;
+    OutboundMessage updateMessage;
     Room room;
 
     try {
 
-      switch (MESSAGE_VALUES[received.get("type").getAsInt()]) {
+      switch (MESSAGE_VALUES[received.getType()]) {
+        case CONNECT:
+          // Payload contains the client's preferred message format
+
+          // Clients that understand payloads as JSON objects ask for them so
+          // that they don't have to parse every message twice.
+          OutboundQueue queue = OutboundQueue.of(session);
+          if (queue != null) {
+            queue.setFormat(
+                OutboundMessage.Format.parse(received.getFormat()));
+          }
+          break;
         case CREATE_ROOM:
           // Payload contains nothing
 
-          room = createRoom(session, payload);
+          room = createRoom(session, received);
           String roomId = "";
           if (room != null) {
-            ROOM_IDS.add(room.getRoomId());
-            ROOMS.put(room.getRoomId(), room);
-
             roomId = room.getRoomId();
           }
 
-          updateMessage = new JsonObject();
-          updatePayload = new JsonObject();
+          updateMessage = new OutboundMessage(
+              MESSAGE_TYPE.CREATE_ROOM.ordinal());
 
-          updatePayload.addProperty("roomId", roomId);
-
-          updateMessage.addProperty("type", MESSAGE_TYPE.CREATE_ROOM.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
+          updateMessage.put("roomId", roomId);
 
           // Send back CREATE_ROOM success and room link.
-          session.getRemote().sendString(updateMessage.toString());
+          send(session, updateMessage);
           break;
         case CUSTOM_QUERY:
           // Payload contains query text.
-        	generator = new qGenerator();
-        	
-        	JsonArray valid = new JsonArray();
-        	for(JsonElement query : payload.get("queries").getAsJsonArray()) {
-        		valid.add(generator.validateQuery(query.getAsString().trim() + " ") != null);
-        	}
-        	
-          // Check whether or not custom query is valid.
-          updateMessage = new JsonObject();
-          updatePayload = new JsonObject();
-          
-          updatePayload.addProperty("valid", valid.toString());
 
-          updateMessage.addProperty("type",
-              MESSAGE_TYPE.CUSTOM_QUERY.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
+          // Checking a query means asking the autocomplete service, so the
+          // queries are checked together off this thread. The host hears
+          // about each one as it is checked, then gets the whole list.
+          QueryBatch.validate(received.getQueries(), VALIDATION_DEADLINE_MILLIS,
+              (index, responses) -> {
+                OutboundMessage checkedMessage = new OutboundMessage(
+                    MESSAGE_TYPE.CUSTOM_QUERY.ordinal());
+                checkedMessage.put("index", index);
+                checkedMessage.put("valid", responses != null);
+                send(session, checkedMessage);
+              }).thenAccept((results) -> {
+                JsonArray valid = new JsonArray();
+                for (QueryResponses responses : results) {
+                  valid.add(responses != null);
+                }
+
+                // Check whether or not custom query is valid.
+                OutboundMessage validMessage = new OutboundMessage(
+                    MESSAGE_TYPE.CUSTOM_QUERY.ordinal());
+
+                validMessage.putJson("valid", valid.toString());
 
-          // Send back response on CUSTOM_QUERY.
-          session.getRemote().sendString(updateMessage.toString());
+                // Send back response on CUSTOM_QUERY.
+                send(session, validMessage);
+              });
 
           break;
         case NEW_GAME:
@@ -183,42 +311,22 @@ public class ServerSocket {
           // Check whether user requesting new game is owner. If so, start new
           // game with same room otherwise do nothing.
 
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room == null) {
             return;
           }
 
           if (session.equals(room.getCreator())) {
-            JsonObject settings = payload.get("settings").getAsJsonObject();
-
-            List<QueryResponses> customQueries = new ArrayList<>();
-
-            if (payload.get("queries") != null) {
-              generator = new qGenerator();
-              JsonArray custom = payload.get("queries").getAsJsonArray();
-
-              for (JsonElement query : custom.getAsJsonArray()) {
-                QueryResponses q = generator.validateQuery(query.getAsString().trim() + " ");
-                if (q != null) {
-                  customQueries.add(q);
-                }
-              }
-            }
-
-            room.newGame(settings.get("rounds").getAsInt(),
-                settings.get("mode").getAsString(), customQueries);
-
-            updateMessage = new JsonObject();
-            updatePayload = new JsonObject();
-
-            updateMessage.addProperty("type", MESSAGE_TYPE.NEW_GAME.ordinal());
-            updateMessage.addProperty("payload", updatePayload.toString());
-            updateMessageString = updateMessage.toString();
-
-            // Send back response on NEW_GAME.
-            for (Session sess : room.getUserSessions()) {
-              sess.getRemote().sendString(updateMessageString);
-            }
+            // Read now: the message is reused once this method returns.
+            int rounds = received.getRounds();
+            String mode = received.getMode();
+            List<String> queries = received.hasQueries()
+                ? received.getQueries() : Collections.emptyList();
+
+            Room gameRoom = room;
+            QueryBatch.validate(queries, VALIDATION_DEADLINE_MILLIS, null)
+                .thenAccept((results) -> startGame(gameRoom, rounds, mode,
+                    results));
           }
 
           break;
@@ -229,61 +337,64 @@ public class ServerSocket {
           // round
           // game in room otherwise do nothing.
 
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room == null) {
             return;
           }
 
           if (session.equals(room.getCreator()) && room.getGame() != null) {
-            QueryResponses roundQuery = room.getGame().newRound();
-
-            updateMessage = new JsonObject();
-            updatePayload = new JsonObject();
+            Game game = room.getGame();
+            // Waits for a query still being prefetched before taking the
+            // room's lock, which the shared round timer also needs.
+            game.awaitNextRound();
+            QueryResponses roundQuery;
+            synchronized (room) {
+              roundQuery = game.newRound();
+              if (roundQuery != null) {
+                scheduleRoundTick(room, game, game.getRound(),
+                    TIME_SYNC_MILLIS);
+              } else {
+                room.cancelRoundTimer();
+              }
+            }
 
             if (roundQuery != null) {
-              updatePayload.addProperty("query", roundQuery.getQuery());
-              updatePayload.addProperty("numResponses",
-                  roundQuery.getResponses().size());
+              room.markSeen(roundQuery.getId());
+              // Rendered once per query and shared with every room playing it.
+              updateMessage = RoundMessages
+                  .of(MESSAGE_TYPE.NEW_ROUND.ordinal(), roundQuery)
+                  .getNewRound();
             } else {
-              updatePayload.addProperty("query", "");
-              updatePayload.addProperty("numResponses", 0);
-            }
+              updateMessage = new OutboundMessage(
+                  MESSAGE_TYPE.NEW_ROUND.ordinal());
 
-            updateMessage.addProperty("type", MESSAGE_TYPE.NEW_ROUND.ordinal());
-            updateMessage.addProperty("payload", updatePayload.toString());
-            updateMessageString = updateMessage.toString();
+              updateMessage.put("query", "");
+              updateMessage.put("numResponses", 0);
+            }
 
             // Send back response (round query) on NEW_ROUND.
-            for (Session sess : room.getUserSessions()) {
-              sess.getRemote().sendString(updateMessageString);
-            }
+            broadcast(room, updateMessage, false);
           }
           break;
         case ROUND_END:
           // Payload contains room link/id
 
           // Check whether user requesting new round is owner. If so, end
-          // current round in room. Otherwise do nothing.
-          roundEnd(payload, session, false);
+          // current round in room. Otherwise do nothing. Rounds also end on
+          // their own when the server's round timer runs out.
+          room = findRoom(received);
+          if (room == null) {
+            return;
+          }
+          roundEnd(room, session, false);
           // false because we only want this to work if the user is the host.
 
           break;
         case UPDATE_TIME:
           // Payload contains room link/id, time
 
-          // Check whether room id is valid and whether user is owner. If so,
-          // update the time
-
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
-          if (room == null) {
-            return;
-          }
-
-          if (session.equals(room.getCreator()) && room.getGame() != null) {
-            double time = payload.get("timeSeconds").getAsDouble();
-
-            room.getGame().setTime(time);
-          }
+          // The server owns the round deadline and sends UPDATE_TIME itself,
+          // so time reported by clients is ignored.
           break;
         case USER_JOIN:
           // Payload contains room link/id, user username
@@ -293,42 +404,41 @@ public class ServerSocket {
         	
           String error = "";
 
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room != null) {
             final boolean added = room.addUser(session,
-                payload.get("username").getAsString());
+                received.getUsername(), received.getPlayerKey());
             final boolean gameInProgress = room.getGame() == null;
 
             if (added) {
               User addedUser = room.getUser(session);
-              updateMessage = new JsonObject();
-              updatePayload = new JsonObject();
+              updateMessage = new OutboundMessage(
+                  MESSAGE_TYPE.USER_JOIN.ordinal());
 
-              updatePayload.addProperty("userId", addedUser.getId());
-              updatePayload.addProperty("username", addedUser.getUsername());
+              updateMessage.put("userId", addedUser.getId());
+              updateMessage.put("username", addedUser.getUsername());
+              updateMessage.put("roomIndex", room.getIndex());
 
               if (gameInProgress) {
-                updatePayload.addProperty("score", 0);
-                updatePayload.addProperty("query", "");
-                updatePayload.addProperty("timeSeconds", 0);
+                updateMessage.put("score", 0);
+                updateMessage.put("query", "");
+                updateMessage.put("timeSeconds", 0);
               } else {
-                updatePayload.addProperty("score",
+                updateMessage.put("score",
                     room.getGame().getPlayerScore(addedUser));
-                updatePayload.addProperty("query",
+                updateMessage.put("query",
                     room.getGame().getCurrentQuery());
-                updatePayload.addProperty("timeSeconds",
+                updateMessage.put("timeSeconds",
                     room.getGame().getTime());
               }
 
-              updateMessage.addProperty("type",
-                  MESSAGE_TYPE.USER_JOIN.ordinal());
-              updateMessage.addProperty("payload", updatePayload.toString());
-              updateMessageString = updateMessage.toString();
+              // The joining user also gets the room's state.
+              OutboundMessage joinMessage = updateMessage.copy();
 
               // Send back response (user id, username) on USER_JOIN
               for (Session sess : room.getUserSessions()) {
                 if (!sess.equals(session)) {
-                  sess.getRemote().sendString(updateMessageString);
+                  send(sess, updateMessage);
                 }
               }
 
@@ -346,30 +456,23 @@ public class ServerSocket {
                 }
               }
 
-              JsonArray guessed = new JsonArray();
-              if (room.getGame() != null) {
-                updatePayload.addProperty("numResponses",
-                    room.getGame().getCurrentNumResponses());
-                for (Suggestion sugg : room.getGame().getGuessedSuggestions()) {
-                  JsonObject suggestionData = new JsonObject();
-                  suggestionData.addProperty("suggestion", sugg.getResponse());
-                  suggestionData.addProperty("suggestionIndex",
-                      sugg.getScore());
-                  suggestionData.addProperty("score",
-                      (10 - sugg.getScore()) * 1000);
-
-                  guessed.add(suggestionData);
-                }
+              String guessed = "[]";
+              QueryResponses current = room.getGame() == null ? null
+                  : room.getGame().getCurrentQueryResponses();
+              if (current != null) {
+                joinMessage.put("numResponses",
+                    current.getResponses().size());
+                guessed = RoundMessages
+                    .of(MESSAGE_TYPE.NEW_ROUND.ordinal(), current)
+                    .guessed(room.getGame().getGuessedSuggestions());
               } else {
-                updatePayload.addProperty("numResponses", 0);
+                joinMessage.put("numResponses", 0);
               }
 
-              updatePayload.addProperty("users", users.toString());
-              updatePayload.addProperty("guessed", guessed.toString());
-
-              updateMessage.addProperty("payload", updatePayload.toString());
+              joinMessage.putJson("users", users.toString());
+              joinMessage.putJson("guessed", guessed);
 
-              session.getRemote().sendString(updateMessage.toString());
+              send(session, joinMessage);
               return;
             } else {
             	error = "Room is full";
@@ -378,41 +481,31 @@ public class ServerSocket {
         	  error = "Room does not exist";
           }
 
-          updateMessage = new JsonObject();
-          updatePayload = new JsonObject();
+          updateMessage = new OutboundMessage(
+              MESSAGE_TYPE.USER_JOIN.ordinal());
 
-          updatePayload.addProperty("userId", "");
-          updatePayload.addProperty("username", "");
-          updatePayload.addProperty("score", "");
-          updatePayload.addProperty("error", error);
+          updateMessage.put("userId", "");
+          updateMessage.put("username", "");
+          updateMessage.put("score", "");
+          updateMessage.put("error", error);
 
-          updateMessage.addProperty("type", MESSAGE_TYPE.USER_JOIN.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
-
-          session.getRemote().sendString(updateMessage.toString());
+          send(session, updateMessage);
 
           break;
         case USER_KICK:
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room != null && session.equals(room.getCreator())) {
 
-            User kickUser = room.getUser(payload.get("userId").getAsInt());
+            User kickUser = room.getUser(received.getUserId());
             if (kickUser != null) {
-              updateMessage = new JsonObject();
-              updatePayload = new JsonObject();
-
-              updatePayload.addProperty("userId", kickUser.getId());
-              updatePayload.addProperty("username", kickUser.getUsername());
-
-              updateMessage.addProperty("type",
+              updateMessage = new OutboundMessage(
                   MESSAGE_TYPE.USER_KICK.ordinal());
-              updateMessage.addProperty("payload", updatePayload.toString());
-              updateMessageString = updateMessage.toString();
+
+              updateMessage.put("userId", kickUser.getId());
+              updateMessage.put("username", kickUser.getUsername());
 
               // Send back response on USER_KICK.
-              for (Session sess : room.getUserSessions()) {
-                sess.getRemote().sendString(updateMessageString);
-              }
+              broadcast(room, updateMessage, false);
               room.removeUser(kickUser.getSession());
             }
           }
@@ -426,7 +519,7 @@ public class ServerSocket {
           // guess (check if valid guess, check if already guessed),
           // otherwise do nothing.
 
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room == null) {
             return;
           }
@@ -437,47 +530,47 @@ public class ServerSocket {
           }
 
           Optional<Suggestion> res = room.getGame().score(found,
-              payload.get("guess").getAsString());
+              received.getGuess());
 
-          updateMessage = new JsonObject();
-          updatePayload = new JsonObject();
+          updateMessage = new OutboundMessage(
+              MESSAGE_TYPE.PLAYER_GUESS.ordinal());
+          int playerScore = room.getGame().getPlayerScore(found);
+          BinaryCodec binaryGuess = BinaryCodec
+              .frame(MESSAGE_TYPE.PLAYER_GUESS.ordinal(), room.getIndex())
+              .writeVarint(found.getId()).writeVarint(playerScore);
 
           if (res.isPresent()) {
             Suggestion sugg = res.get();
 
-            updatePayload.addProperty("suggestion", sugg.getResponse());
-            updatePayload.addProperty("suggestionIndex", sugg.getScore());
-            updatePayload.addProperty("score", (10 - sugg.getScore()) * 1000);
-            updatePayload.addProperty("userId", found.getId());
-            updatePayload.addProperty("username", found.getUsername());
-            updatePayload.addProperty("playerScore",
-                room.getGame().getPlayerScore(found));
+            updateMessage.put("suggestion", sugg.getResponse());
+            updateMessage.put("suggestionIndex", sugg.getScore());
+            updateMessage.put("score", (10 - sugg.getScore()) * 1000);
+            updateMessage.put("userId", found.getId());
+            updateMessage.put("username", found.getUsername());
+            updateMessage.put("playerScore", playerScore);
+            binaryGuess.writeVarint(sugg.getScore() + 1)
+                .writeVarint((10 - sugg.getScore()) * 1000)
+                .writeString(sugg.getResponse());
           } else {
-            updatePayload.addProperty("suggestion", "");
-            updatePayload.addProperty("suggestionIndex", "");
-            updatePayload.addProperty("score", "");
-            updatePayload.addProperty("userId", found.getId());
-            updatePayload.addProperty("username", found.getUsername());
-            updatePayload.addProperty("playerScore",
-                room.getGame().getPlayerScore(found));
+            updateMessage.put("suggestion", "");
+            updateMessage.put("suggestionIndex", "");
+            updateMessage.put("score", "");
+            updateMessage.put("userId", found.getId());
+            updateMessage.put("username", found.getUsername());
+            updateMessage.put("playerScore", playerScore);
+            binaryGuess.writeVarint(0);
           }
-
-          updateMessage.addProperty("type",
-              MESSAGE_TYPE.PLAYER_GUESS.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
-          updateMessageString = updateMessage.toString();
+          updateMessage.setBinary(binaryGuess);
 
           // Send back response if valid (suggestion, score, user id,
           // playerScore) on PLAYER_GUESS.
-          for (Session sess : room.getUserSessions()) {
-            sess.getRemote().sendString(updateMessageString);
-          }
+          broadcast(room, updateMessage, false);
 
           // If everything has been guessed, end the round.
           if (room.getGame().getGuessedSuggestions().size() == room.getGame()
               .getCurrentNumResponses()) {
-            roundEnd(payload, session, true); // true because we want to force
-                                              // the round to end
+            roundEnd(room, session, true); // true because we want to force
+                                           // the round to end
           }
 
           break;
@@ -488,7 +581,7 @@ public class ServerSocket {
           // session. If so, send username, message to all users in the room on
           // USER_CHAT.
 
-          room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
+          room = findRoom(received);
           if (room == null) {
             return;
           }
@@ -498,85 +591,181 @@ public class ServerSocket {
             return;
           }
 
-          updateMessage = new JsonObject();
-          updatePayload = new JsonObject();
-
-          updatePayload.addProperty("userId", chatUser.getId());
-          updatePayload.addProperty("username", chatUser.getUsername());
-          updatePayload.addProperty("message",
-              payload.get("message").getAsString());
+          updateMessage = new OutboundMessage(
+              MESSAGE_TYPE.USER_CHAT.ordinal());
 
-          updateMessage.addProperty("type", MESSAGE_TYPE.USER_CHAT.ordinal());
-          updateMessage.addProperty("payload", updatePayload.toString());
-          updateMessageString = updateMessage.toString();
+          updateMessage.put("userId", chatUser.getId());
+          updateMessage.put("username", chatUser.getUsername());
+          updateMessage.put("message",
+              received.getMessage());
+          updateMessage.setBinary(BinaryCodec
+              .frame(MESSAGE_TYPE.USER_CHAT.ordinal(), room.getIndex())
+              .writeVarint(chatUser.getId())
+              .writeString(received.getMessage()));
 
-          for (Session sess : room.getUserSessions()) {
-            sess.getRemote().sendString(updateMessageString);
-          }
+          broadcast(room, updateMessage, true);
           break;
         default:
           // Send error
       }
 
     } catch (Exception e) {
-      System.out.println("ERROR: Unexpected message: " + received.toString());
+      System.out.println("ERROR: Unexpected message: " + message);
+    }
+  }
+
+  /*
+   * Queues a message for one session. Never blocks on the network. Messages
+   * for sessions that have already left are dropped.
+   */
+  private static void send(Session session, OutboundMessage message) {
+    OutboundQueue queue = OutboundQueue.of(session);
+    if (queue != null) {
+      queue.send(message);
     }
   }
 
-  private synchronized Room createRoom(Session session, JsonObject payload) {
+  /*
+   * Queues a message for everyone in a room. Droppable messages (chat, time
+   * sync) may be dropped for clients that have fallen behind.
+   */
+  private static void broadcast(Room room, OutboundMessage message,
+      boolean droppable) {
+    for (Session sess : room.getUserSessions()) {
+      OutboundQueue queue = OutboundQueue.of(sess);
+      if (queue == null) {
+        // Left while the message was being sent.
+        continue;
+      } else if (droppable) {
+        queue.sendDroppable(message);
+      } else {
+        queue.send(message);
+      }
+    }
+  }
+
+  /*
+   * Finds the room a message is for: by index for binary messages, by id
+   * otherwise.
+   */
+  private static Room findRoom(InboundMessage received) {
+    Room room;
+    if (received.getRoomIndex() >= 0) {
+      room = ROOMS.get(received.getRoomIndex());
+    } else {
+      room = ROOMS.get(received.getRoomId());
+    }
+    if (room != null) {
+      room.touch();
+    }
+    return room;
+  }
+
+  /*
+   * Starts a new game once its custom queries are checked, leaving out the
+   * invalid ones.
+   */
+  private static void startGame(Room room, int rounds, String mode,
+      List<QueryResponses> checked) {
+    List<QueryResponses> customQueries = new ArrayList<>();
+    for (QueryResponses responses : checked) {
+      if (responses != null) {
+        customQueries.add(responses);
+      }
+    }
+
+    try {
+      room.newGame(rounds, mode, customQueries);
+    } catch (RuntimeException e) {
+      System.out.println("ERROR: Unable to start game: " + e.getMessage());
+      return;
+    }
+
+    // Send back response on NEW_GAME.
+    broadcast(room, new OutboundMessage(MESSAGE_TYPE.NEW_GAME.ordinal()),
+        false);
+  }
+
+  private static Room createRoom(Session session, InboundMessage payload) {
     // Settings include:
     // - Single Player / Multiplayer (w/ player limit)
     // - Mode: Google Feud, Meta Mode
     // - Number of Rounds
     // - (Category type)
 
-    if (ROOMS.size() < MAX_ROOMS) {
-      return new Room(generateRoomId(), session,
-          payload.get("maxUsers").getAsInt() /* ,Settings from payload */);
-    }
+    // Null once the registry is at capacity.
+    return ROOMS.create(session,
+        payload.getMaxUsers() /* ,Settings from payload */);
+  }
 
-    return null;
+  /*
+   * Schedules the next tick of a round on the shared timer, never past the
+   * round's deadline. Callers must hold the room's lock.
+   */
+  private static void scheduleRoundTick(Room room, Game game, int round,
+      long maxDelayMillis) {
+    long delay = Math.min(maxDelayMillis,
+        (long) Math.ceil(game.getTime() * 1000));
+    room.setRoundTimer(TIMER.newTimeout(() -> roundTick(room, game, round),
+        delay, TimeUnit.MILLISECONDS));
   }
 
-  private void roundEnd(JsonObject payload, Session session,
-      boolean forceRoundEnd) throws IOException {
-    Room room = ROOMS.get(payload.get("roomId").getAsString().toLowerCase());
-    if (room == null) {
-      return;
+  /*
+   * Runs on the shared timer thread. Ends the round once its deadline has
+   * passed, otherwise broadcasts a coarse time sync and schedules the next
+   * tick. Must not block: broadcasts only queue messages, and the room's lock
+   * is never held across I/O or a prefetch.
+   */
+  private static void roundTick(Room room, Game game, int round) {
+    try {
+      synchronized (room) {
+        if (room.getGame() != game || game.getRound() != round
+            || game.isRoundOver()) {
+          return;
+        }
+
+        double timeLeft = game.getTime();
+        if (timeLeft <= 0) {
+          roundEnd(room, null, true);
+          return;
+        }
+        scheduleRoundTick(room, game, round, TIME_SYNC_MILLIS);
+
+        OutboundMessage updateMessage = new OutboundMessage(
+            MESSAGE_TYPE.UPDATE_TIME.ordinal());
+
+        updateMessage.put("timeSeconds", Math.round(timeLeft));
+        updateMessage.setBinary(BinaryCodec
+            .frame(MESSAGE_TYPE.UPDATE_TIME.ordinal(), room.getIndex())
+            .writeVarint((int) Math.round(timeLeft)));
+
+        broadcast(room, updateMessage, true);
+      }
+    } catch (Exception e) {
+      System.out.println("ERROR: Unable to send round update");
     }
+  }
 
+  private static void roundEnd(Room room, Session session,
+      boolean forceRoundEnd) throws IOException {
     // If the host is calling round end, or it's being forced (because all
-    // answers were guessed already).
-    if ((session.equals(room.getCreator()) || forceRoundEnd)
+    // answers were guessed already or the round timer ran out).
+    if ((forceRoundEnd || room.getCreator().equals(session))
         && room.getGame() != null) {
       Set<Suggestion> alreadyGuessed = room.getGame().getGuessedSuggestions();
       QueryResponses roundQuery = room.getGame().endRound();
       if (roundQuery != null) {
-        JsonObject updateMessage = new JsonObject();
-        JsonObject updatePayload = new JsonObject();
-        JsonArray suggestions = new JsonArray();
-
-        for (Suggestion sugg : roundQuery.getResponses().asList()) {
-          if (!alreadyGuessed.contains(sugg)) {
-            JsonObject suggestionData = new JsonObject();
-            suggestionData.addProperty("suggestion", sugg.getResponse());
-            suggestionData.addProperty("suggestionIndex", sugg.getScore());
-            suggestionData.addProperty("score", (10 - sugg.getScore()) * 1000);
-
-            suggestions.add(suggestionData);
-          }
-        }
+        room.cancelRoundTimer();
 
-        updatePayload.addProperty("suggestions", suggestions.toString());
+        OutboundMessage updateMessage = new OutboundMessage(
+            MESSAGE_TYPE.ROUND_END.ordinal());
 
-        updateMessage.addProperty("type", MESSAGE_TYPE.ROUND_END.ordinal());
-        updateMessage.addProperty("payload", updatePayload.toString());
-        String updateMessageString = updateMessage.toString();
+        updateMessage.putJson("suggestions",
+            RoundMessages.of(MESSAGE_TYPE.NEW_ROUND.ordinal(), roundQuery)
+                .missed(alreadyGuessed));
 
-        // Send back response (round query) on NEW_ROUND.
-        for (Session sess : room.getUserSessions()) {
-          sess.getRemote().sendString(updateMessageString);
-        }
+        // Send back response (missed suggestions) on ROUND_END.
+        broadcast(room, updateMessage, false);
       }
     }
   }
@@ -0,0 +1,161 @@
+package edu.brown.cs.termproject.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.PingFrame;
+
+/**
+ * Tracks when each connected Session was last heard from, pings the quiet
+ * ones and finds the ones that have stopped answering. A half-open TCP
+ * connection never delivers a close frame, so without this its Room, Game and
+ * queue would stay in memory for as long as the server runs.
+ *
+ * @author lcohen2
+ */
+public final class SessionReaper {
+
+  private static final SessionReaper SHARED = new SessionReaper();
+
+  private static final WriteCallback IGNORE = new WriteCallback() {
+    @Override
+    public void writeFailed(Throwable x) {
+      // A Session that can't be pinged will time out instead.
+    }
+
+    @Override
+    public void writeSuccess() {
+    }
+  };
+
+  private final Map<Session, Long> lastSeen = new ConcurrentHashMap<>();
+  private final AtomicLong pings = new AtomicLong();
+  private final AtomicLong reaped = new AtomicLong();
+
+  SessionReaper() {
+  }
+
+  /**
+   * Gets the reaper shared by every connection.
+   *
+   * @return Returns the shared SessionReaper.
+   */
+  public static SessionReaper shared() {
+    return SHARED;
+  }
+
+  /**
+   * Records that a Session sent something: a message or a pong.
+   *
+   * @param session
+   *          The Session heard from.
+   */
+  public void seen(Session session) {
+    lastSeen.put(session, System.currentTimeMillis());
+  }
+
+  /**
+   * Stops tracking a Session that has closed.
+   *
+   * @param session
+   *          The closed Session.
+   */
+  public void forget(Session session) {
+    lastSeen.remove(session);
+  }
+
+  /**
+   * Pings every Session that has been quiet for a while, and stops tracking
+   * those that have been quiet too long. The caller closes the dead ones.
+   *
+   * @param pingAfterMillis
+   *          How long a Session may be quiet before it is pinged.
+   * @param deadAfterMillis
+   *          How long a Session may be quiet before it is considered dead.
+   * @return Returns the dead Sessions.
+   */
+  public List<Session> sweep(long pingAfterMillis, long deadAfterMillis) {
+    long now = System.currentTimeMillis();
+    List<Session> dead = new ArrayList<>();
+    for (Map.Entry<Session, Long> entry : lastSeen.entrySet()) {
+      long quiet = now - entry.getValue();
+      Session session = entry.getKey();
+      if (quiet >= deadAfterMillis || !session.isOpen()) {
+        if (lastSeen.remove(session, entry.getValue())) {
+          dead.add(session);
+        }
+      } else if (quiet >= pingAfterMillis) {
+        ping(session);
+      }
+    }
+    reaped.addAndGet(dead.size());
+    return dead;
+  }
+
+  /**
+   * Drops a dead Session's connection without waiting for a close handshake
+   * it will never answer.
+   *
+   * @param session
+   *          The dead Session.
+   */
+  public static void disconnect(Session session) {
+    try {
+      session.disconnect();
+    } catch (IOException e) {
+      System.out.println("ERROR: Unable to disconnect session: "
+          + e.getMessage());
+    }
+  }
+
+  private void ping(Session session) {
+    RemoteEndpoint remote = session.getRemote();
+    try {
+      if (remote instanceof WebSocketRemoteEndpoint) {
+        ((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(new PingFrame(),
+            IGNORE);
+      } else {
+        remote.sendPing(ByteBuffer.allocate(0));
+      }
+      pings.incrementAndGet();
+    } catch (IOException | RuntimeException e) {
+      // Ignored: the Session will time out.
+    }
+  }
+
+  /**
+   * Gets the number of Sessions being tracked.
+   *
+   * @return Returns the number of Sessions.
+   */
+  public int size() {
+    return lastSeen.size();
+  }
+
+  /**
+   * Gets the number of pings sent.
+   *
+   * @return Returns the number of pings.
+   */
+  public long pings() {
+    return pings.get();
+  }
+
+  /**
+   * Gets the number of Sessions found dead.
+   *
+   * @return Returns the number of dead Sessions.
+   */
+  public long reaped() {
+    return reaped.get();
+  }
+}
@@ -0,0 +1,108 @@
+package edu.brown.cs.termproject.networking;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * An index from each connected Session to the Room and User it joined as, so
+ * that a disconnect can be resolved without scanning every Room. Rooms keep
+ * it up to date as Users are added and removed.
+ *
+ * @author lcohen2
+ */
+public final class SessionRegistry {
+
+  private static final SessionRegistry SHARED = new SessionRegistry();
+
+  private final Map<Session, Seat> seats = new ConcurrentHashMap<>();
+
+  SessionRegistry() {
+  }
+
+  /**
+   * Gets the registry shared by every room on the server.
+   *
+   * @return Returns the shared SessionRegistry.
+   */
+  public static SessionRegistry shared() {
+    return SHARED;
+  }
+
+  /**
+   * A Session's place on the server: the Room it is in and its User there.
+   */
+  public static final class Seat {
+    private final Room room;
+    private final User user;
+
+    private Seat(Room room, User user) {
+      this.room = room;
+      this.user = user;
+    }
+
+    /**
+     * Gets the Room the Session joined.
+     *
+     * @return Returns the Room.
+     */
+    public Room getRoom() {
+      return room;
+    }
+
+    /**
+     * Gets the User the Session joined as.
+     *
+     * @return Returns the User.
+     */
+    public User getUser() {
+      return user;
+    }
+  }
+
+  /**
+   * Records that a User joined a Room.
+   *
+   * @param room
+   *          The Room joined.
+   * @param user
+   *          The User that joined, with its Session.
+   */
+  void register(Room room, User user) {
+    seats.put(user.getSession(), new Seat(room, user));
+  }
+
+  /**
+   * Forgets a Session, but only if it is still registered in the given Room.
+   *
+   * @param room
+   *          The Room the Session is leaving.
+   * @param session
+   *          The Session leaving.
+   */
+  void unregister(Room room, Session session) {
+    seats.computeIfPresent(session,
+        (sess, seat) -> seat.getRoom() == room ? null : seat);
+  }
+
+  /**
+   * Looks up where a Session is.
+   *
+   * @param session
+   *          A Session.
+   * @return Returns the Seat of the Session, or null if it is not in a Room.
+   */
+  public Seat get(Session session) {
+    return seats.get(session);
+  }
+
+  /**
+   * Gets the number of Sessions that are in a Room.
+   *
+   * @return Returns the number of registered Sessions.
+   */
+  public int size() {
+    return seats.size();
+  }
+}
@@ -0,0 +1,318 @@
+package edu.brown.cs.termproject.networking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Remembers the raw autocomplete suggestions fetched for each query across
+ * restarts, in an append-only log with one JSON entry per line. The log is
+ * read the first time it is used, and rewritten in the background once it
+ * holds many more lines than distinct queries.
+ *
+ * <p>
+ * Suggestions only change slowly, so a remembered list is used instead of
+ * the network until it is a week old, and a list of any age is better than
+ * none when the network fails.
+ *
+ * @author lcohen2
+ */
+public final class SuggestionLog {
+
+  /**
+   * How long a remembered list is used instead of asking again.
+   */
+  public static final long FRESH_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+  private static final String DEFAULT_PATH = "data/suggestions.log";
+  // Entries older than this are dropped when the log is compacted.
+  private static final long MAX_AGE_MILLIS = 90L * 24 * 60 * 60 * 1000;
+  private static final int MIN_COMPACT_LINES = 1000;
+  private static final Gson GSON = new Gson();
+
+  private static SuggestionLog shared;
+
+  /**
+   * A list of suggestions and when it was fetched.
+   */
+  public static final class Entry {
+    private final String q;
+    private final long t;
+    private final List<String> s;
+
+    private Entry(String query, long fetchedMillis,
+        List<String> suggestions) {
+      this.q = query;
+      this.t = fetchedMillis;
+      this.s = suggestions;
+    }
+
+    /**
+     * Gets the suggestions.
+     *
+     * @return Returns an unmodifiable list of the suggestions.
+     */
+    public List<String> getSuggestions() {
+      return Collections.unmodifiableList(s);
+    }
+
+    /**
+     * Gets when the suggestions were fetched.
+     *
+     * @return Returns the time fetched, in milliseconds since the epoch.
+     */
+    public long getFetchedMillis() {
+      return t;
+    }
+
+    /**
+     * Checks whether the suggestions are recent enough to use instead of
+     * fetching them again.
+     *
+     * @return Returns true if the suggestions are fresh.
+     */
+    public boolean isFresh() {
+      return System.currentTimeMillis() - t < FRESH_MILLIS;
+    }
+  }
+
+  private final Path path;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ExecutorService compactor = Executors
+      .newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("suggestion-log-compactor").build());
+  private volatile boolean loaded = false;
+  private boolean compacting = false;
+  private int lines = 0;
+  private Writer out;
+
+  /**
+   * Creates a log kept in a file. Nothing is read until the log is used.
+   *
+   * @param path
+   *          The file; created if it doesn't exist.
+   */
+  public SuggestionLog(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Gets the log shared by the server, kept in data/suggestions.log unless
+   * another file is configured.
+   *
+   * @return Returns the shared SuggestionLog.
+   */
+  public static synchronized SuggestionLog shared() {
+    if (shared == null) {
+      shared = new SuggestionLog(Paths.get(DEFAULT_PATH));
+    }
+    return shared;
+  }
+
+  /**
+   * Replaces the shared log with one kept in another file.
+   *
+   * @param path
+   *          The file.
+   */
+  public static synchronized void configure(Path path) {
+    if (shared != null) {
+      shared.close();
+    }
+    shared = new SuggestionLog(path);
+  }
+
+  /**
+   * Gets the remembered suggestions for a query.
+   *
+   * @param query
+   *          The query, exactly as sent to the autocomplete service.
+   * @return Returns the entry, or null if the query has never been fetched.
+   */
+  public Entry get(String query) {
+    ensureLoaded();
+    return entries.get(query);
+  }
+
+  /**
+   * Remembers the suggestions just fetched for a query.
+   *
+   * @param query
+   *          The query, exactly as sent to the autocomplete service.
+   * @param suggestions
+   *          The suggestions fetched.
+   */
+  public void put(String query, List<String> suggestions) {
+    ensureLoaded();
+    Entry entry = new Entry(query, System.currentTimeMillis(),
+        new ArrayList<>(suggestions));
+    entries.put(query, entry);
+
+    synchronized (this) {
+      try {
+        if (out == null) {
+          Files.createDirectories(path.toAbsolutePath().getParent());
+          out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        out.write(GSON.toJson(entry));
+        out.write('\n');
+        out.flush();
+        lines++;
+      } catch (IOException e) {
+        System.out.println("ERROR: Unable to write suggestion log: "
+            + e.getMessage());
+      }
+
+      if (!compacting && lines >= MIN_COMPACT_LINES
+          && lines > 2 * entries.size()) {
+        compacting = true;
+        compactor.execute(this::compact);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of queries remembered.
+   *
+   * @return Returns the number of queries.
+   */
+  public int size() {
+    ensureLoaded();
+    return entries.size();
+  }
+
+  /**
+   * Starts reading the log in the background, so that the first lookup
+   * doesn't have to.
+   */
+  public void preload() {
+    compactor.execute(this::ensureLoaded);
+  }
+
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (!loaded) {
+        load();
+        loaded = true;
+      }
+    }
+  }
+
+  private void load() {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+    try (BufferedReader in = Files.newBufferedReader(path,
+        StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        lines++;
+        Entry entry;
+        try {
+          entry = GSON.fromJson(line, Entry.class);
+        } catch (JsonSyntaxException e) {
+          // A line cut short by a crash; later lines are still good.
+          continue;
+        }
+        if (entry != null && entry.q != null && entry.s != null
+            && entry.t >= oldest) {
+          entries.merge(entry.q, entry,
+              (old, next) -> next.t >= old.t ? next : old);
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("ERROR: Unable to read suggestion log: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Rewrites the log with one line per remembered query, dropping entries too
+   * old to be useful. Runs on the compactor thread. The remembered entries
+   * are written without holding the log's lock, so fetches can keep logging
+   * meanwhile; only the ones they log are written again under the lock.
+   */
+  void compact() {
+    long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+    entries.values().removeIf((entry) -> entry.t < oldest);
+    // Entries are only ever replaced, so ones put later aren't in the set.
+    Set<Entry> snapshot = new HashSet<>(entries.values());
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (BufferedWriter compacted = Files.newBufferedWriter(tmp,
+        StandardCharsets.UTF_8)) {
+      for (Entry entry : snapshot) {
+        compacted.write(GSON.toJson(entry));
+        compacted.write('\n');
+      }
+
+      synchronized (this) {
+        // Entries put since the snapshot, which went to the old file.
+        int written = snapshot.size();
+        for (Entry entry : entries.values()) {
+          if (!snapshot.contains(entry)) {
+            compacted.write(GSON.toJson(entry));
+            compacted.write('\n');
+            written++;
+          }
+        }
+        compacted.close();
+        if (out != null) {
+          out.close();
+          out = null;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        lines = written;
+      }
+    } catch (IOException e) {
+      System.out.println("ERROR: Unable to compact suggestion log: "
+          + e.getMessage());
+    } finally {
+      synchronized (this) {
+        compacting = false;
+      }
+    }
+  }
+
+  /**
+   * Closes the log file. Later writes reopen it.
+   */
+  public synchronized void close() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        System.out.println("ERROR: Unable to close suggestion log: "
+            + e.getMessage());
+      }
+      out = null;
+    }
+  }
+}
@@ -1,23 +1,17 @@
 package edu.brown.cs.termproject.networking;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import edu.brown.cs.termproject.database.RadixTrie;
 import edu.brown.cs.termproject.scoring.Clustering;
 import edu.brown.cs.termproject.scoring.Suggestion;
 import edu.brown.cs.termproject.scoring.Word2VecModel;
@@ -29,78 +23,101 @@ import edu.brown.cs.termproject.scoring.Word2VecModel;
  */
 public class Suggestions {
 
-  private static final Gson GSON = new Gson();
-  private static final String GOOGLE_SUGGESTIONS = "http://suggestqueries.google.com/complete/search";
+  // Clusters suggestions off the autocomplete client's threads, which only
+  // read responses.
+  private static final ExecutorService CLUSTERER = Executors.newFixedThreadPool(
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+      new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("suggestion-cluster-%d").build());
 
   /**
-   * A getter for suggestions from Google.
+   * A getter for suggestions from Google. Blocks until they arrive, so it is
+   * only for tools run from the command line.
    *
    * @param query
    *          A String to query autocorrection suggestions for.
    * @return Returns a List of String representing all the suggestions for
-   *         query.
+   *         query, empty if they couldn't be fetched.
    */
   public static List<String> getGoogleSuggestions(String query) {
-    if (query == null || query.equals("")) {
+    try {
+      return getGoogleSuggestionsAsync(query).join();
+    } catch (CompletionException e) {
       return Collections.emptyList();
     }
+  }
 
-    JsonArray jsonSuggestions = null;
-    URIBuilder builder;
-    try {
-      builder = new URIBuilder(GOOGLE_SUGGESTIONS);
-      builder.setParameter("hl", "en");
-      builder.setParameter("q", query);
-      builder.setParameter("jsonp", "");
-      builder.setParameter("client", "youtube");
-
-      HttpGet request = new HttpGet(builder.build());
-      HttpClient client = HttpClients.createDefault();
-      HttpResponse response = client.execute(request);
-
-      String readJsonp = EntityUtils.toString(response.getEntity());
-      String readJson = readJsonp.substring(readJsonp.indexOf("(") + 1,
-          readJsonp.lastIndexOf(")"));
-
-      jsonSuggestions = GSON.fromJson(readJson, JsonArray.class).get(1)
-          .getAsJsonArray();
-
-    } catch (URISyntaxException e) {
-      return Collections.emptyList();
-    } catch (ClientProtocolException e) {
-      return Collections.emptyList();
-    } catch (IOException e) {
-      return Collections.emptyList();
+  /**
+   * An asynchronous getter for suggestions from Google. Suggestions fetched
+   * in the last week are read from the SuggestionLog instead, and older ones
+   * are used if Google can't be reached.
+   *
+   * @param query
+   *          A String to query autocorrection suggestions for.
+   * @return Returns a future of all the suggestions for query, which fails if
+   *         they couldn't be fetched in time and were never fetched before.
+   */
+  public static CompletableFuture<List<String>> getGoogleSuggestionsAsync(
+      String query) {
+    if (query == null || query.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
     }
 
-    List<String> res = new ArrayList<>();
-    jsonSuggestions.forEach(
-        (element) -> res.add(element.getAsJsonArray().get(0).getAsString()));
+    SuggestionLog log = SuggestionLog.shared();
+    SuggestionLog.Entry remembered = log.get(query);
+    if (remembered != null && remembered.isFresh()) {
+      return CompletableFuture.completedFuture(remembered.getSuggestions());
+    }
 
-    return res;
+    return AutocompleteClient.shared().suggest(query)
+        .handle((suggestions, failure) -> {
+          if (failure == null) {
+            log.put(query, suggestions);
+            return suggestions;
+          } else if (remembered != null) {
+            return remembered.getSuggestions();
+          }
+          throw failure instanceof CompletionException
+              ? (CompletionException) failure
+              : new CompletionException(failure);
+        });
   }
 
   /**
-   * A getter for unique suggestions from Google.
+   * Keeps the suggestions that start with the query, leaving out ones that
+   * only add words to another suggestion.
+   *
+   * Ex. (The dog): The dog barks, but not The dog barks a lot
+   * But both for (My dog likes ): the butter, the watermelon
    *
    * @param query
-   *          A String to query autocorrection suggestions for.
+   *          A String autocorrection suggestions were queried for.
+   * @param suggestions
+   *          The suggestions for query.
    * @return Returns a List of unique String representing all the suggestions
    *         for query starting with query.
    */
-  private static List<String> getUniqueGoogleSuggestions(String query) {
-    List<String> suggestions = getGoogleSuggestions(query);
-    List<String> updatedSuggestions = new ArrayList<>();
+  private static List<String> getUniqueGoogleSuggestions(String query,
+      List<String> suggestions) {
+    String lowered = query.toLowerCase();
+    // Only suggestions longer than the query can make others redundant.
+    // Otherwise the query echoed back as a suggestion would drop the rest.
+    int queryLength = lowered.trim().length();
+    RadixTrie starting = new RadixTrie();
+    for (String suggestion : suggestions) {
+      if (suggestion.startsWith(lowered)
+          && suggestion.trim().length() > queryLength) {
+        starting.add(suggestion);
+      }
+    }
 
+    List<String> updatedSuggestions = new ArrayList<>();
     for (String suggestion : suggestions) {
-      if (suggestion.startsWith(query.toLowerCase())) {
+      if (suggestion.startsWith(lowered)
+          && !starting.containsPrefixOf(suggestion, ' ')) {
         updatedSuggestions.add(suggestion);
       }
     }
-
-    // Still need to remove similar queries
-    // Ex. (The dog): The dog barks, The dog barks a lot
-    // But not (My dog likes ): the butter, the watermelon
     return updatedSuggestions;
   }
 
@@ -115,15 +132,48 @@ public class Suggestions {
    */
   public static Clustering<Suggestion> getUniqueGoogleSuggestionEndings(
       String query) {
-    List<String> suggestions = getUniqueGoogleSuggestions(query);
+    return cluster(query, getGoogleSuggestions(query));
+  }
 
+  /**
+   * An asynchronous getter for unique endings of suggestions from Google. The
+   * suggestions are clustered on a pool of its own, never on the caller's
+   * thread.
+   *
+   * @param query
+   *          A String to query autocorrection suggestions for.
+   * @return Returns a future of the clustered endings of suggestions for
+   *         query, which fails if the suggestions couldn't be fetched in time.
+   */
+  public static CompletableFuture<Clustering<Suggestion>>
+      getUniqueGoogleSuggestionEndingsAsync(String query) {
+    return getGoogleSuggestionsAsync(query)
+        .thenApplyAsync((suggestions) -> cluster(query, suggestions),
+            CLUSTERER);
+  }
+
+  /**
+   * Gets the endings of the suggestions that start with the query, which are
+   * what getUniqueGoogleSuggestionEndings clusters.
+   *
+   * @param query
+   *          A String autocorrection suggestions were queried for.
+   * @param suggestions
+   *          The suggestions for query.
+   * @return Returns the endings of the suggestions, in order.
+   */
+  public static List<String> getEndings(String query,
+      List<String> suggestions) {
     int i = query.lastIndexOf(' ');
-    List<String> endings = suggestions.stream()
+    return getUniqueGoogleSuggestions(query, suggestions).stream()
         .map((s) -> s.substring(i + 1, s.length()))
         .collect(Collectors.toList());
+  }
 
-    Clustering<Suggestion> clustering = Clustering
-        .newSuggestionClustering(endings, Word2VecModel.model);
+  private static Clustering<Suggestion> cluster(String query,
+      List<String> suggestions) {
+    Clustering<Suggestion> clustering = Clustering.newSuggestionClustering(
+        getEndings(query, suggestions), Word2VecModel.model);
     return clustering;
   }
 
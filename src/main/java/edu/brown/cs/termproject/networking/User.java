@@ -4,6 +4,9 @@ import java.util.Objects;
 
 import org.eclipse.jetty.websocket.api.Session;
 
+import edu.brown.cs.termproject.database.SeenQueries;
+import edu.brown.cs.termproject.database.SeenRegistry;
+
 /**
  * A class representing an User connected to a Room. The User may or may not be
  * in a Game.
@@ -17,6 +20,9 @@ public class User {
   private String username;
   // Don't know if we want spectating. Default will be false unless we do.
   private boolean spectating;
+  private String playerKey = null;
+  private boolean released = false;
+  private SeenQueries seen = new SeenQueries();
 
   /**
    * Creates a User object representing a person in a Room.
@@ -96,6 +102,49 @@ public class User {
     this.spectating = spectating;
   }
 
+  /**
+   * Gets the key a returning player's browser identifies itself with.
+   *
+   * @return Returns the player key, or null for an anonymous player.
+   */
+  public synchronized String getPlayerKey() {
+    return playerKey;
+  }
+
+  /**
+   * Gets the queries the User has already played.
+   *
+   * @return Returns the User's SeenQueries.
+   */
+  public synchronized SeenQueries getSeenQueries() {
+    return seen;
+  }
+
+  /**
+   * Identifies the User as a returning player.
+   *
+   * @param playerKey
+   *          The key the player's browser identifies itself with.
+   * @param seen
+   *          The queries the player has already played.
+   */
+  public synchronized void setPlayer(String playerKey, SeenQueries seen) {
+    this.playerKey = playerKey;
+    this.seen = seen;
+  }
+
+  /**
+   * Releases the User's seen queries back to the SeenRegistry. Only the
+   * first call does anything, so leaving and the Room closing can both call
+   * it.
+   */
+  public synchronized void releasePlayer() {
+    if (!released) {
+      released = true;
+      SeenRegistry.shared().release(playerKey);
+    }
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof User)) {
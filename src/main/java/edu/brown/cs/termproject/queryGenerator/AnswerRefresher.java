@@ -0,0 +1,275 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.brown.cs.termproject.database.DBConnector;
+import edu.brown.cs.termproject.database.QueryPool;
+import edu.brown.cs.termproject.networking.AutocompleteClient;
+import edu.brown.cs.termproject.networking.SuggestionLog;
+import edu.brown.cs.termproject.networking.Suggestions;
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+import edu.brown.cs.termproject.scoring.Clustering;
+import edu.brown.cs.termproject.scoring.Suggestion;
+import edu.brown.cs.termproject.scoring.Word2VecModel;
+
+/**
+ * Keeps stored answers fresh in the background. Every so often it looks the
+ * stalest few queries up again, a couple at a time under a slow rate limit,
+ * and only clusters and rewrites a query's answers when its suggestions
+ * changed. Changed queries are swapped into the QueryPool as new
+ * QueryResponses, so games already playing the old ones are unaffected.
+ *
+ * <p>
+ * Lookups go to the autocomplete service itself rather than through
+ * Suggestions, which would answer from the SuggestionLog for a week and
+ * pass off logged suggestions as new when the service fails.
+ *
+ * <p>
+ * The refresher runs on one low priority thread, which also does the
+ * clustering.
+ *
+ * @author swaxman1
+ */
+public final class AnswerRefresher {
+
+  private static final AnswerRefresher SHARED = new AnswerRefresher();
+  private static final int BATCH_SIZE = 20;
+  private static final int MAX_IN_FLIGHT = 2;
+  private static final double REQUESTS_PER_SECOND = 0.5;
+
+  private final RateLimiter limiter = RateLimiter.create(REQUESTS_PER_SECOND);
+  private final AtomicLong checked = new AtomicLong();
+  private final AtomicLong unchanged = new AtomicLong();
+  private final AtomicLong updated = new AtomicLong();
+  private final AtomicLong tooFew = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final Function<String, CompletableFuture<List<String>>> fetcher;
+  private DBConnector db;
+  private ScheduledExecutorService refresher;
+
+  private AnswerRefresher() {
+    this(null, AnswerRefresher::fetch);
+  }
+
+  /**
+   * Creates a refresher that looks suggestions up with fetcher, for testing.
+   *
+   * @param dbConnector
+   *          - The database whose answers are refreshed
+   * @param fetcher
+   *          - Looks up a query's suggestions
+   */
+  AnswerRefresher(DBConnector dbConnector,
+      Function<String, CompletableFuture<List<String>>> fetcher) {
+    this.db = dbConnector;
+    this.fetcher = fetcher;
+  }
+
+  /**
+   * Gets the refresher shared by the server.
+   *
+   * @return - The shared AnswerRefresher
+   */
+  public static AnswerRefresher shared() {
+    return SHARED;
+  }
+
+  /**
+   * Starts refreshing a batch of answers every periodSeconds.
+   *
+   * @param dbConnector
+   *          - The database whose answers are refreshed
+   * @param periodSeconds
+   *          - How long to wait between batches
+   */
+  public synchronized void start(DBConnector dbConnector, long periodSeconds) {
+    if (refresher != null) {
+      return;
+    }
+
+    db = dbConnector;
+    refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setPriority(Thread.MIN_PRIORITY).setNameFormat("answer-refresh")
+            .build());
+    refresher.scheduleWithFixedDelay(() -> {
+      // Anything thrown would cancel every later batch.
+      try {
+        refreshBatch();
+      } catch (SQLException | RuntimeException e) {
+        System.out.println("ERROR: Unable to refresh answers: "
+            + e.getMessage());
+      }
+    }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Looks up the stalest queries again and updates the ones whose answers
+   * changed. Stops early if a lookup fails, so an outage doesn't use up the
+   * batch.
+   *
+   * @return - The number of queries whose answers changed
+   * @throws SQLException
+   *           - If the database can't be read or written
+   */
+  public synchronized int refreshBatch() throws SQLException {
+    if (db == null) {
+      return 0;
+    }
+
+    Iterator<Map.Entry<Integer, String>> stale = db
+        .stalestQueries(BATCH_SIZE).entrySet().iterator();
+    // Each lookup's query, and its suggestions or null if it failed.
+    BlockingQueue<Pair<Map.Entry<Integer, String>, List<String>>> results =
+        new LinkedBlockingQueue<>();
+    int outstanding = 0;
+    int changed = 0;
+    boolean failing = false;
+    while (outstanding > 0 || (stale.hasNext() && !failing)) {
+      if (stale.hasNext() && !failing && outstanding < MAX_IN_FLIGHT) {
+        Map.Entry<Integer, String> query = stale.next();
+        limiter.acquire();
+        outstanding++;
+        CompletableFuture<List<String>> lookup;
+        try {
+          lookup = fetcher.apply(query.getValue());
+        } catch (RuntimeException e) {
+          lookup = new CompletableFuture<>();
+          lookup.completeExceptionally(e);
+        }
+        lookup.whenComplete((suggestions, failure) -> results
+            .add(Pair.of(query, failure == null ? suggestions : null)));
+        continue;
+      }
+
+      Pair<Map.Entry<Integer, String>, List<String>> result;
+      try {
+        result = results.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return changed;
+      }
+      outstanding--;
+
+      Map.Entry<Integer, String> query = result.getLeft();
+      if (result.getRight() == null) {
+        failing = true;
+        failed.incrementAndGet();
+        // Goes to the back of the line instead of being retried right away.
+        db.markRefreshed(query.getKey(), db.answersDigest(query.getKey()));
+      } else if (refresh(query.getKey(), query.getValue(),
+          result.getRight())) {
+        changed++;
+      }
+    }
+    return changed;
+  }
+
+  /*
+   * Fetches a query's suggestions and logs them, failing if the service
+   * can't be reached.
+   */
+  private static CompletableFuture<List<String>> fetch(String query) {
+    return AutocompleteClient.shared().suggest(query)
+        .thenApply((suggestions) -> {
+          SuggestionLog.shared().put(query, suggestions);
+          return suggestions;
+        });
+  }
+
+  private boolean refresh(int id, String query, List<String> suggestions)
+      throws SQLException {
+    checked.incrementAndGet();
+    List<String> endings = Suggestions.getEndings(query, suggestions);
+    String digest = Hashing.sha256()
+        .hashString(String.join("\n", endings), StandardCharsets.UTF_8)
+        .toString();
+    String stored = db.answersDigest(id);
+    if (digest.equals(stored)) {
+      unchanged.incrementAndGet();
+      db.markRefreshed(id, digest);
+      return false;
+    }
+
+    Clustering<Suggestion> clustering = Clustering
+        .newSuggestionClustering(endings, Word2VecModel.model);
+    if (clustering.size() < qGenerator.MIN_ANSWERS) {
+      // Keeps the old answers rather than making the query unplayable.
+      tooFew.incrementAndGet();
+      db.markRefreshed(id, stored);
+      return false;
+    }
+
+    if (!db.refreshAnswers(id, digest, clustering)) {
+      unchanged.incrementAndGet();
+      return false;
+    }
+    updated.incrementAndGet();
+    QueryPool.shared().replace(new QueryResponses(id, query, clustering));
+    return true;
+  }
+
+  /**
+   * Gets the number of queries looked up again.
+   *
+   * @return - The number of queries checked
+   */
+  public long checked() {
+    return checked.get();
+  }
+
+  /**
+   * Gets the number of queries whose answers were still the same.
+   *
+   * @return - The number of unchanged queries
+   */
+  public long unchanged() {
+    return unchanged.get();
+  }
+
+  /**
+   * Gets the number of queries whose answers were rewritten.
+   *
+   * @return - The number of updated queries
+   */
+  public long updated() {
+    return updated.get();
+  }
+
+  /**
+   * Gets the number of queries that kept their answers because the new ones
+   * were too few.
+   *
+   * @return - The number of queries with too few new answers
+   */
+  public long tooFew() {
+    return tooFew.get();
+  }
+
+  /**
+   * Gets the number of lookups that failed.
+   *
+   * @return - The number of failed lookups
+   */
+  public long failed() {
+    return failed.get();
+  }
+}
@@ -0,0 +1,439 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.brown.cs.termproject.database.DBConnector;
+import edu.brown.cs.termproject.networking.Suggestions;
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+/**
+ * Adds queries to the database in bulk. Lines are read from a file and turned
+ * into queries, queries already in the database are skipped, and the rest are
+ * looked up a few at a time under a rate limit and clustered on the
+ * suggestion clustering pool. A single writer inserts the results in batches,
+ * one transaction each.
+ *
+ * <p>
+ * Every query that was inserted or turned out to have too few answers is
+ * written to a progress file once its batch commits, so a run that is stopped
+ * can be started again without looking those queries up again. Queries whose
+ * lookup failed aren't written, so they are tried again.
+ *
+ * @author swaxman1
+ */
+public final class IngestPipeline {
+
+  /**
+   * Where the queries that were already handled are written by default.
+   */
+  public static final String PROGRESS_PATH = "data/ingest.progress";
+
+  private static final int MAX_IN_FLIGHT = 8;
+  private static final double REQUESTS_PER_SECOND = 20;
+  private static final int BATCH_SIZE = 100;
+  private static final long IDLE_FLUSH_MILLIS = 1000;
+  // Tells the writer that there are no more results.
+  private static final Pair<String, QueryResponses> END = Pair.of(null, null);
+
+  /**
+   * Inserts a batch of queries, returning how many were new.
+   */
+  interface BatchWriter {
+    int write(List<QueryResponses> batch) throws SQLException;
+  }
+
+  private final Predicate<String> stored;
+  // Queries already read in this pipeline's runs.
+  private final Set<String> seen = new HashSet<>();
+  private final Function<String, CompletableFuture<QueryResponses>> fetcher;
+  private final BatchWriter writer;
+  private final Path progressPath;
+  private final Set<String> done = new HashSet<>();
+  private final int maxInFlight;
+  private final RateLimiter limiter;
+  private final int batchSize;
+
+  private final AtomicLong prompts = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private final AtomicLong resumed = new AtomicLong();
+  private final AtomicLong fetched = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong tooFew = new AtomicLong();
+  private final AtomicLong inserted = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private long startNanos;
+
+  IngestPipeline(Predicate<String> stored,
+      Function<String, CompletableFuture<QueryResponses>> fetcher,
+      BatchWriter writer, Path progressPath, int maxInFlight,
+      double requestsPerSecond, int batchSize) throws IOException {
+    this.stored = stored;
+    this.fetcher = fetcher;
+    this.writer = writer;
+    this.progressPath = progressPath;
+    this.maxInFlight = maxInFlight;
+    this.limiter = RateLimiter.create(requestsPerSecond);
+    this.batchSize = batchSize;
+    if (Files.exists(progressPath)) {
+      done.addAll(Files.readAllLines(progressPath, StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Makes a pipeline that adds queries to a database, looking them up with
+   * the autocomplete client.
+   *
+   * @param db
+   *          - The database to add queries to
+   * @return - The pipeline
+   * @throws IOException
+   *           - If the progress file can't be read
+   */
+  public static IngestPipeline forDatabase(DBConnector db)
+      throws IOException {
+    return new IngestPipeline(db::containsQuery, IngestPipeline::fetch,
+        db::insertQueries, Paths.get(PROGRESS_PATH), MAX_IN_FLIGHT,
+        REQUESTS_PER_SECOND, BATCH_SIZE);
+  }
+
+  private static CompletableFuture<QueryResponses> fetch(String query) {
+    return Suggestions.getUniqueGoogleSuggestionEndingsAsync(query)
+        .thenApply((suggs) -> suggs.size() < qGenerator.MIN_ANSWERS ? null
+            : new QueryResponses(0, query, suggs));
+  }
+
+  /**
+   * Adds the queries for each line of a file, like qGenerator.insertFile.
+   *
+   * @param filePath
+   *          - Path to the file
+   * @param type
+   *          - How lines are turned into queries; see qGenerator.queriesFor
+   * @throws IOException
+   *           - If the file or the progress file can't be read or written
+   */
+  public void ingest(String filePath, String type) throws IOException {
+    ingest(filePath, type, qGenerator.categoryFor(type));
+  }
+
+  /**
+   * Adds the queries for each line of a file, tagged with a category. Used
+   * for files of checked queries that were generated from a category.
+   *
+   * @param filePath
+   *          - Path to the file
+   * @param type
+   *          - How lines are turned into queries; see qGenerator.queriesFor
+   * @param category
+   *          - The queries' category, or null for none
+   * @throws IOException
+   *           - If the file or the progress file can't be read or written
+   */
+  public void ingest(String filePath, String type, String category)
+      throws IOException {
+    // Unknown types make no queries for any line.
+    if (qGenerator.queriesFor(type, "") == null) {
+      System.out.println("ERROR: Didn't enter valid function type.");
+      return;
+    }
+
+    try (Stream<String> lines = Files.lines(Paths.get(filePath),
+        StandardCharsets.UTF_8)) {
+      run(lines.flatMap((line) -> qGenerator.queriesFor(type, line).stream())
+          .iterator(), category);
+    }
+  }
+
+  /**
+   * Adds queries without a category, returning once all of them have been
+   * handled.
+   *
+   * @param queries
+   *          - The queries to add, read as they are needed
+   * @throws IOException
+   *           - If the progress file can't be written
+   */
+  public void run(Iterator<String> queries) throws IOException {
+    run(queries, null);
+  }
+
+  /**
+   * Adds queries, returning once all of them have been handled.
+   *
+   * @param queries
+   *          - The queries to add, read as they are needed
+   * @param category
+   *          - The queries' category, or null for none
+   * @throws IOException
+   *           - If the progress file can't be written
+   */
+  public synchronized void run(Iterator<String> queries, String category)
+      throws IOException {
+    if (startNanos == 0) {
+      startNanos = System.nanoTime();
+    }
+
+    BlockingQueue<Pair<String, QueryResponses>> results =
+        new ArrayBlockingQueue<>(batchSize * 2);
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    try (BufferedWriter progress = Files.newBufferedWriter(progressPath,
+        StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND)) {
+      Thread writerThread = new ThreadFactoryBuilder()
+          .setNameFormat("ingest-writer").build()
+          .newThread(() -> drain(results, progress));
+      writerThread.start();
+      // Lookups complete on shared pools that live games use too, so results
+      // are queued from a thread of the pipeline's own, which is the only one
+      // that waits when the writer falls behind.
+      ExecutorService handoff = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ingest-handoff").build());
+
+      try {
+        while (queries.hasNext()) {
+          String query = queries.next();
+          prompts.incrementAndGet();
+          if (done.contains(query)) {
+            resumed.incrementAndGet();
+            continue;
+          } else if (stored.test(query) || !seen.add(query)) {
+            duplicates.incrementAndGet();
+            continue;
+          }
+
+          limiter.acquire();
+          inFlight.acquireUninterruptibly();
+          CompletableFuture<QueryResponses> lookup;
+          try {
+            lookup = fetcher.apply(query);
+          } catch (RuntimeException e) {
+            lookup = new CompletableFuture<>();
+            lookup.completeExceptionally(e);
+          }
+          if (category != null) {
+            lookup = lookup.thenApply((qr) -> qr == null ? null
+                : new QueryResponses(qr.getId(), qr.getQuery(),
+                    qr.getResponses(), category));
+          }
+          lookup.whenCompleteAsync((qr, failure) -> {
+            try {
+              if (failure == null) {
+                fetched.incrementAndGet();
+                put(results, Pair.of(query, qr));
+              } else {
+                failed.incrementAndGet();
+              }
+            } finally {
+              inFlight.release();
+            }
+          }, handoff);
+        }
+
+        // Waits for the lookups still in flight.
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+      } finally {
+        handoff.shutdown();
+        put(results, END);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+          try {
+            writerThread.join();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    System.out.println(this);
+  }
+
+  private static <T> void put(BlockingQueue<T> queue, T item) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        queue.put(item);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * The writer: inserts results in batches, when a batch is full or no
+   * results have come in for a while, until it is told there are no more.
+   */
+  private void drain(BlockingQueue<Pair<String, QueryResponses>> results,
+      BufferedWriter progress) {
+    List<Pair<String, QueryResponses>> batch = new ArrayList<>(batchSize);
+    while (true) {
+      Pair<String, QueryResponses> result;
+      try {
+        result = results.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        result = null;
+      }
+
+      if (result == END) {
+        flush(batch, progress);
+        return;
+      } else if (result != null) {
+        batch.add(result);
+      }
+      if (batch.size() >= batchSize || (result == null && !batch.isEmpty())) {
+        flush(batch, progress);
+      }
+    }
+  }
+
+  private void flush(List<Pair<String, QueryResponses>> batch,
+      BufferedWriter progress) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    List<QueryResponses> good = new ArrayList<>(batch.size());
+    for (Pair<String, QueryResponses> result : batch) {
+      if (result.getRight() == null) {
+        tooFew.incrementAndGet();
+      } else {
+        good.add(result.getRight());
+      }
+    }
+
+    try {
+      inserted.addAndGet(good.isEmpty() ? 0 : writer.write(good));
+      batches.incrementAndGet();
+      for (Pair<String, QueryResponses> result : batch) {
+        progress.write(result.getLeft());
+        progress.newLine();
+      }
+      progress.flush();
+      System.out.println(this);
+    } catch (SQLException | IOException | RuntimeException e) {
+      // Not written as done, so the next run tries these again. Anything
+      // else is caught too, since lookups wait on this thread to keep going.
+      System.out.println("ERROR: Unable to insert batch: " + e.getMessage());
+    }
+    batch.clear();
+  }
+
+  /**
+   * Gets the number of queries read so far.
+   *
+   * @return - The number of queries
+   */
+  public long prompts() {
+    return prompts.get();
+  }
+
+  /**
+   * Gets the number of queries skipped because they were already in the
+   * database or came up earlier in the run.
+   *
+   * @return - The number of duplicates
+   */
+  public long duplicates() {
+    return duplicates.get();
+  }
+
+  /**
+   * Gets the number of queries skipped because an earlier run handled them.
+   *
+   * @return - The number of resumed queries
+   */
+  public long resumed() {
+    return resumed.get();
+  }
+
+  /**
+   * Gets the number of queries looked up.
+   *
+   * @return - The number of lookups that succeeded
+   */
+  public long fetched() {
+    return fetched.get();
+  }
+
+  /**
+   * Gets the number of queries whose lookups failed.
+   *
+   * @return - The number of failed lookups
+   */
+  public long failed() {
+    return failed.get();
+  }
+
+  /**
+   * Gets the number of queries that had too few answers to insert.
+   *
+   * @return - The number of queries with too few answers
+   */
+  public long tooFew() {
+    return tooFew.get();
+  }
+
+  /**
+   * Gets the number of queries inserted.
+   *
+   * @return - The number of inserted queries
+   */
+  public long inserted() {
+    return inserted.get();
+  }
+
+  /**
+   * Gets the number of batches committed.
+   *
+   * @return - The number of batches
+   */
+  public long batches() {
+    return batches.get();
+  }
+
+  @Override
+  public String toString() {
+    long seconds = startNanos == 0 ? 0
+        : TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    return String.format("Ingest: %d queries, %d inserted, %d too few answers,"
+        + " %d failed, %d duplicates, %d resumed, %d batches, %ds",
+        prompts(), inserted(), tooFew(), failed(), duplicates(), resumed(),
+        batches(), seconds);
+  }
+}
@@ -0,0 +1,150 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+/**
+ * Validates a host's list of custom queries all at once rather than one after
+ * another, so a batch takes about as long as its slowest query. At most a few
+ * queries of a batch are looked up at a time, so one big batch can't use up
+ * the autocomplete client's requests, and the whole batch gives up at a
+ * deadline.
+ *
+ * @author swaxman1
+ */
+public final class QueryBatch {
+
+  /**
+   * The most queries of a batch that are validated; any after them are
+   * treated as invalid.
+   */
+  public static final int MAX_QUERIES = 20;
+
+  private static final int MAX_CONCURRENT = 8;
+  private static final ScheduledExecutorService DEADLINES = Executors
+      .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("query-batch-deadline").build());
+
+  private final List<String> queries;
+  private final Function<String, CompletableFuture<QueryResponses>> validator;
+  private final BiConsumer<Integer, QueryResponses> onResult;
+  private final QueryResponses[] results;
+  private final boolean[] done;
+  private final CompletableFuture<List<QueryResponses>> all =
+      new CompletableFuture<>();
+  private int next = 0;
+  private int remaining;
+  private ScheduledFuture<?> deadline;
+
+  QueryBatch(List<String> queries,
+      Function<String, CompletableFuture<QueryResponses>> validator,
+      BiConsumer<Integer, QueryResponses> onResult) {
+    this.queries = new ArrayList<>(queries);
+    this.validator = validator;
+    this.onResult = onResult;
+    this.results = new QueryResponses[queries.size()];
+    this.done = new boolean[queries.size()];
+    // Queries past the limit are never validated.
+    this.remaining = Math.min(queries.size(), MAX_QUERIES);
+  }
+
+  /**
+   * Validates custom queries concurrently.
+   *
+   * @param queries
+   *          - The custom queries the host inputted
+   * @param deadlineMillis
+   *          - How long the whole batch may take; queries not validated by
+   *          then count as invalid
+   * @param onResult
+   *          - Told the index and QueryResponses, or null, of each query as
+   *          it is validated; may be null
+   * @return - A future of each query's QueryResponses, or null for queries
+   *         that are invalid or weren't validated in time, in order
+   */
+  public static CompletableFuture<List<QueryResponses>> validate(
+      List<String> queries, long deadlineMillis,
+      BiConsumer<Integer, QueryResponses> onResult) {
+    return new QueryBatch(queries, QueryValidator.shared()::validate,
+        onResult).start(MAX_CONCURRENT, deadlineMillis);
+  }
+
+  synchronized CompletableFuture<List<QueryResponses>> start(
+      int maxConcurrent, long deadlineMillis) {
+    if (remaining == 0) {
+      all.complete(new ArrayList<>());
+      return all;
+    }
+
+    deadline = DEADLINES.schedule(this::expire, deadlineMillis,
+        TimeUnit.MILLISECONDS);
+    for (int i = 0; i < maxConcurrent; i++) {
+      startNext();
+    }
+    return all;
+  }
+
+  // Callers hold the lock.
+  private void startNext() {
+    if (next >= Math.min(queries.size(), MAX_QUERIES) || all.isDone()) {
+      return;
+    }
+
+    int index = next++;
+
+    CompletableFuture<QueryResponses> check;
+    try {
+      check = validator.apply(queries.get(index).trim() + " ");
+    } catch (RuntimeException e) {
+      check = CompletableFuture.completedFuture(null);
+    }
+    check.whenComplete((responses, failure) -> {
+      synchronized (this) {
+        finish(index, failure == null ? responses : null);
+      }
+    });
+  }
+
+  // Callers hold the lock.
+  private void finish(int index, QueryResponses responses) {
+    if (all.isDone() || done[index]) {
+      return;
+    }
+    done[index] = true;
+    results[index] = responses;
+    remaining--;
+
+    if (onResult != null) {
+      try {
+        onResult.accept(index, responses);
+      } catch (RuntimeException e) {
+        System.out.println("ERROR: Unable to report query result: "
+            + e.getMessage());
+      }
+    }
+
+    if (remaining == 0) {
+      deadline.cancel(false);
+      all.complete(new ArrayList<>(Arrays.asList(results)));
+    } else {
+      startNext();
+    }
+  }
+
+  private synchronized void expire() {
+    // Queries still being validated count as invalid.
+    all.complete(new ArrayList<>(Arrays.asList(results)));
+  }
+}
@@ -0,0 +1,185 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+/**
+ * Checks custom queries against the autocomplete service, remembering the
+ * answers for a while. Hosts tend to type the same prompts, so a query seen
+ * recently is answered from memory, and a query already being looked up
+ * waits on that lookup instead of starting another.
+ *
+ * <p>
+ * Queries without enough answers are remembered too, for less time. Lookups
+ * that fail are not remembered at all.
+ *
+ * @author swaxman1
+ */
+public final class QueryValidator {
+
+  private static final long VALID_TTL_MINUTES = 60;
+  private static final long INVALID_TTL_MINUTES = 10;
+  private static final long MAX_ENTRIES = 2000;
+
+  private static final QueryValidator SHARED = new QueryValidator(
+      qGenerator::fetchCustomQuery, VALID_TTL_MINUTES, INVALID_TTL_MINUTES,
+      MAX_ENTRIES);
+
+  private final Function<String, CompletableFuture<QueryResponses>> loader;
+  private final Cache<String, QueryResponses> valid;
+  private final Cache<String, Boolean> invalid;
+  private final Map<String, CompletableFuture<QueryResponses>> inFlight =
+      new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong invalidHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /**
+   * Creates a validator.
+   *
+   * @param loader
+   *          Looks up a normalized query; its future holds the query's
+   *          responses, or null if there aren't enough.
+   * @param validTtlMinutes
+   *          How long to remember a valid query.
+   * @param invalidTtlMinutes
+   *          How long to remember a query without enough answers.
+   * @param maxEntries
+   *          The most queries of each kind to remember.
+   */
+  QueryValidator(Function<String, CompletableFuture<QueryResponses>> loader,
+      long validTtlMinutes, long invalidTtlMinutes, long maxEntries) {
+    this.loader = loader;
+    this.valid = CacheBuilder.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(validTtlMinutes, TimeUnit.MINUTES).build();
+    this.invalid = CacheBuilder.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(invalidTtlMinutes, TimeUnit.MINUTES).build();
+  }
+
+  /**
+   * Gets the validator shared by the server.
+   *
+   * @return the shared QueryValidator
+   */
+  public static QueryValidator shared() {
+    return SHARED;
+  }
+
+  /**
+   * Lower cases a query and collapses its whitespace, keeping a trailing
+   * space since it changes which completions count as answers.
+   *
+   * @param query
+   *          a query as typed
+   * @return the normalized query
+   */
+  static String normalize(String query) {
+    String collapsed = query.toLowerCase().replaceAll("\\s+", " ");
+    boolean trailing = collapsed.endsWith(" ");
+    collapsed = collapsed.trim();
+    return trailing && !collapsed.isEmpty() ? collapsed + " " : collapsed;
+  }
+
+  /**
+   * Checks whether a custom query has enough answers to be played.
+   *
+   * @param query
+   *          the query as typed
+   * @return a future of the query's responses, or of null if there aren't
+   *         enough or they couldn't be looked up
+   */
+  public CompletableFuture<QueryResponses> validate(String query) {
+    String key = normalize(query);
+
+    QueryResponses cached = valid.getIfPresent(key);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return CompletableFuture.completedFuture(cached);
+    } else if (invalid.getIfPresent(key) != null) {
+      invalidHits.incrementAndGet();
+      return CompletableFuture.completedFuture(null);
+    }
+
+    CompletableFuture<QueryResponses> mine = new CompletableFuture<>();
+    CompletableFuture<QueryResponses> pending = inFlight.putIfAbsent(key,
+        mine);
+    if (pending != null) {
+      coalesced.incrementAndGet();
+      return pending;
+    }
+
+    misses.incrementAndGet();
+    load(key, mine);
+    return mine;
+  }
+
+  private void load(String key, CompletableFuture<QueryResponses> result) {
+    CompletableFuture<QueryResponses> lookup;
+    try {
+      lookup = loader.apply(key);
+    } catch (RuntimeException e) {
+      lookup = new CompletableFuture<>();
+      lookup.completeExceptionally(e);
+    }
+
+    lookup.whenComplete((responses, failure) -> {
+      if (failure == null) {
+        if (responses != null) {
+          valid.put(key, responses);
+        } else {
+          invalid.put(key, Boolean.TRUE);
+        }
+      }
+      // Remove before completing, so that a failed lookup is retried by the
+      // next caller rather than joined.
+      inFlight.remove(key, result);
+      result.complete(failure == null ? responses : null);
+    });
+  }
+
+  /**
+   * Gets the number of lookups answered with a remembered valid query.
+   *
+   * @return the number of hits
+   */
+  public long hits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups answered with a remembered invalid query.
+   *
+   * @return the number of negative hits
+   */
+  public long invalidHits() {
+    return invalidHits.get();
+  }
+
+  /**
+   * Gets the number of lookups that went to the autocomplete service.
+   *
+   * @return the number of misses
+   */
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of lookups that waited on an identical one in flight.
+   *
+   * @return the number of coalesced lookups
+   */
+  public long coalesced() {
+    return coalesced.get();
+  }
+}
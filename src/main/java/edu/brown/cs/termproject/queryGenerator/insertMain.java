@@ -3,14 +3,18 @@ package edu.brown.cs.termproject.queryGenerator;
 import java.io.IOException;
 import java.sql.SQLException;
 
+import edu.brown.cs.termproject.database.DBConnector;
+
 public class insertMain {
 
   public static void main(String[] args) throws SQLException, IOException {
-    qGenerator qGen = new qGenerator();
-    qGen.insertFile("data/RQS.txt", "checked", false);
-    qGen.insertFile("data/actorQs.txt", "checked", false);
-    qGen.insertFile("data/animalQs.txt", "checked", false);
-    qGen.insertFile("data/foodQs.txt", "checked", false);
-    qGen.insertFile("data/drinkQs.txt", "checked", false);
+    // One pipeline, so the files share its dedupe and progress.
+    IngestPipeline pipeline = IngestPipeline
+        .forDatabase(DBConnector.shared("data/gFeud.sqlite3"));
+    pipeline.ingest("data/RQS.txt", "checked", "related");
+    pipeline.ingest("data/actorQs.txt", "checked", "actor");
+    pipeline.ingest("data/animalQs.txt", "checked", "animal");
+    pipeline.ingest("data/foodQs.txt", "checked", "food");
+    pipeline.ingest("data/drinkQs.txt", "checked", "drink");
   }
 }
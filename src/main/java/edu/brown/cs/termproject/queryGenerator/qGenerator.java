@@ -8,14 +8,24 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.brown.cs.swaxman1.reader.CsvReader;
-import edu.brown.cs.swaxman1.reader.InvalidFormatException;
 import edu.brown.cs.termproject.database.DBConnector;
 import edu.brown.cs.termproject.networking.Suggestions;
 import edu.brown.cs.termproject.queryResponses.QueryResponses;
@@ -23,12 +33,20 @@ import edu.brown.cs.termproject.scoring.Clustering;
 import edu.brown.cs.termproject.scoring.Suggestion;
 
 public class qGenerator {
+  // The fewest answers a query needs to be played.
+  static final int MIN_ANSWERS = 4;
   private final static String dbPath = "data/gFeud.sqlite3";
   private static DBConnector db;
+  // Loads and clusters the later rounds of new games in the background.
+  private static final ExecutorService PREFETCHER = Executors
+      .newFixedThreadPool(
+          Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("round-prefetch-%d").build());
 
   public qGenerator() throws SQLException {
-    // TODO: Close this at somet point
-    db = new DBConnector(dbPath);
+    // Shared, so making a qGenerator doesn't open new connections.
+    db = DBConnector.shared(dbPath);
   }
 
   /**
@@ -40,15 +58,29 @@ public class qGenerator {
    * @return - True if input successfully, false if not put into database
    */
   public boolean insertQuery(String query) {
+    return insertQuery(query, null);
+  }
+
+  /**
+   * Same as insertQuery, but tags the query with the category it was
+   * generated from.
+   *
+   * @param query
+   *          - The Query to add to the database
+   * @param category
+   *          - The query's category, or null for none
+   * @return - True if input successfully, false if not put into database
+   */
+  public boolean insertQuery(String query, String category) {
     // This will get the google suggestion endings that aren't too similar
     Clustering<Suggestion> suggs = Suggestions
         .getUniqueGoogleSuggestionEndings(query);
     // We only want to insert to database if there are enough answers
-    if (suggs.size() < 4) {
+    if (suggs.size() < MIN_ANSWERS) {
       return false;
     }
     // building our QR to put into the database's insertQuery method
-    QueryResponses qr = new QueryResponses(0, query, suggs);
+    QueryResponses qr = new QueryResponses(0, query, suggs, category);
 
     try {
       db.insertQuery(qr);
@@ -68,9 +100,37 @@ public class qGenerator {
    * @return - QueryReponses object if there are enough answers
    */
   public QueryResponses validateQuery(String query) {
-    Clustering<Suggestion> suggs = Suggestions
-        .getUniqueGoogleSuggestionEndings(query);
-    if (suggs.size() < 4) {
+    return toCustomQuery(query,
+        Suggestions.getUniqueGoogleSuggestionEndings(query));
+  }
+
+  /**
+   * Same as validateQuery, but without blocking the calling thread. Safe to
+   * call from the server's WebSocket threads. Answers are cached, and
+   * identical lookups in flight at once share one request.
+   *
+   * @param query
+   *          - The custom query the user inputted
+   * @return - A future of the QueryResponses object if there are enough
+   *         answers, or of null if there aren't or they couldn't be fetched
+   */
+  public static CompletableFuture<QueryResponses> validateQueryAsync(
+      String query) {
+    return QueryValidator.shared().validate(query);
+  }
+
+  /*
+   * Looks a custom query up with the autocomplete service. QueryValidator
+   * calls this on a cache miss.
+   */
+  static CompletableFuture<QueryResponses> fetchCustomQuery(String query) {
+    return Suggestions.getUniqueGoogleSuggestionEndingsAsync(query)
+        .thenApply((suggs) -> toCustomQuery(query, suggs));
+  }
+
+  private static QueryResponses toCustomQuery(String query,
+      Clustering<Suggestion> suggs) {
+    if (suggs.size() < MIN_ANSWERS) {
       return null;
     }
     return new QueryResponses(-1, query, suggs);
@@ -102,6 +162,26 @@ public class qGenerator {
    *           - If writing to file doesn't work
    */
   public boolean insertCheck(String query, String writeTo) throws IOException {
+    return insertCheck(query, writeTo, null);
+  }
+
+  /**
+   * Same as insertCheck, but tags the query with the category it was
+   * generated from.
+   *
+   * @param query
+   *          - The query to put into the database.
+   * @param writeTo
+   *          - A file to write the selected queries to, in addition to the
+   *          database
+   * @param category
+   *          - The query's category, or null for none
+   * @return - boolean corresponding to whether or not the query was added
+   * @throws IOException
+   *           - If writing to file doesn't work
+   */
+  public boolean insertCheck(String query, String writeTo, String category)
+      throws IOException {
     // if the db has the query, don't bother printing answers, just return
     // false.
     if (db.containsQuery(query)) {
@@ -112,7 +192,7 @@ public class qGenerator {
     // similarly, if there's fewer than 4, don't show the answers. Show the
     // query so I know
     // what was skipped over.
-    if (suggs.size() < 4) {
+    if (suggs.size() < MIN_ANSWERS) {
       System.out.println(query);
       System.out.println(false);
       return false;
@@ -127,7 +207,7 @@ public class qGenerator {
     // if it's good, put it into database and print out whether
     // the insert was succesful
     if (confirm.equals("Y")) {
-      boolean output = insertQuery(query);
+      boolean output = insertQuery(query, category);
       System.out.println(output);
       if (output) {
         // if succesful, store in our given file
@@ -159,6 +239,12 @@ public class qGenerator {
    */
   public void insertFile(String filePath, String type, boolean check)
       throws IOException {
+    if (!check) {
+      // Nobody is checking, so the queries can be added in bulk.
+      IngestPipeline.forDatabase(db).ingest(filePath, type);
+      return;
+    }
+
     File f = new File(filePath);
     BufferedReader fRead = new BufferedReader(new FileReader(f));
     Consumer<String> con = null;
@@ -194,6 +280,46 @@ public class qGenerator {
     }
   }
 
+  /**
+   * Makes the queries insertFile adds for a line of a file of the given type.
+   *
+   * @param type
+   *          - "animal", "drink", "actor", "food", or "checked" for files of
+   *          queries that are already good
+   * @param line
+   *          - the line of the file
+   * @return - the queries, or null if type isn't one of those
+   */
+  static List<String> queriesFor(String type, String line) {
+    switch (type) {
+      case "animal":
+        return animalQueries(line);
+      case "drink":
+        return drinkQueries(line);
+      case "actor":
+        return actorQueries(line);
+      case "food":
+        return foodQueries(line);
+      case "checked":
+        return Arrays.asList(line);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the category the queries insertFile makes for a type of file are
+   * tagged with.
+   *
+   * @param type
+   *          - the type of file; see queriesFor
+   * @return - the category, or null for files of checked queries, which could
+   *         be from any category
+   */
+  static String categoryFor(String type) {
+    return type.equals("checked") ? null : type;
+  }
+
   /**
    * Takes in the name of an animal, adds some queries about it to the database
    *
@@ -203,6 +329,27 @@ public class qGenerator {
    *          - whether or not to have user check the query
    */
   public void fromAnimal(String animal, boolean check) {
+    for (String query : animalQueries(animal)) {
+      try {
+        if (check) {
+          insertCheck(query, "data/animalQs.txt", "animal");
+        } else {
+          insertQuery(query, "animal");
+        }
+      } catch (IOException e) {
+        System.out.println("fromAnimal: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Makes the queries fromAnimal adds about an animal.
+   *
+   * @param animal
+   *          - singular name of animal
+   * @return - the queries
+   */
+  static List<String> animalQueries(String animal) {
     animal = animal + " ";
     String query1 = "how does ";
     String toAdd;
@@ -223,18 +370,7 @@ public class qGenerator {
     String query4 = "how can " + toAdd + animal;
     String query5 = "is my " + animal;
 
-    String[] queries = { query1, query2, query3, query4, query5 };
-    for (String query : queries) {
-      try {
-        if (check) {
-          insertCheck(query, "data/animalQs.txt");
-        } else {
-          insertQuery(query);
-        }
-      } catch (IOException e) {
-        System.out.println("fromAnimal: " + e.getMessage());
-      }
-    }
+    return Arrays.asList(query1, query2, query3, query4, query5);
   }
 
   /**
@@ -246,26 +382,34 @@ public class qGenerator {
    *          - whether the user should check the query
    */
   public void fromActor(String actor, boolean check) {
-    actor += " ";
-    String query1 = actor + "is ";
-    String query2 = "does " + actor;
-    String query3 = actor + "in ";
     try {
-      if (check) {
-        String writeTo = "data/actorQs.txt";
-        insertCheck(query1, writeTo);
-        insertCheck(query2, writeTo);
-        insertCheck(query3, writeTo);
-      } else {
-        insertQuery(query1);
-        insertQuery(query2);
-        insertQuery(query3);
+      for (String query : actorQueries(actor)) {
+        if (check) {
+          insertCheck(query, "data/actorQs.txt", "actor");
+        } else {
+          insertQuery(query, "actor");
+        }
       }
     } catch (IOException e) {
       System.out.println("fromActor: " + e.getMessage());
     }
   }
 
+  /**
+   * Makes the queries fromActor adds about an actor.
+   *
+   * @param actor
+   *          - actor name
+   * @return - the queries
+   */
+  static List<String> actorQueries(String actor) {
+    actor += " ";
+    String query1 = actor + "is ";
+    String query2 = "does " + actor;
+    String query3 = actor + "in ";
+    return Arrays.asList(query1, query2, query3);
+  }
+
   /**
    * Inserts a few queries about a food into the database
    *
@@ -275,26 +419,34 @@ public class qGenerator {
    *          - whether the user should check the query
    */
   public void fromFood(String food, boolean check) {
-    food += " ";
-    String query1 = "can you eat " + food + "with ";
-    String query2 = food + "mixed with ";
-    String query3 = "is " + food;
     try {
-      if (check) {
-        String writeTo = "data/foodQs.txt";
-        insertCheck(query1, writeTo);
-        insertCheck(query2, writeTo);
-        insertCheck(query3, writeTo);
-      } else {
-        insertQuery(query1);
-        insertQuery(query2);
-        insertQuery(query3);
+      for (String query : foodQueries(food)) {
+        if (check) {
+          insertCheck(query, "data/foodQs.txt", "food");
+        } else {
+          insertQuery(query, "food");
+        }
       }
     } catch (IOException e) {
       System.out.println("fromFood: " + e.getMessage());
     }
   }
 
+  /**
+   * Makes the queries fromFood adds about a food.
+   *
+   * @param food
+   *          - the food name
+   * @return - the queries
+   */
+  static List<String> foodQueries(String food) {
+    food += " ";
+    String query1 = "can you eat " + food + "with ";
+    String query2 = food + "mixed with ";
+    String query3 = "is " + food;
+    return Arrays.asList(query1, query2, query3);
+  }
+
   /**
    * Inserts a few queries about a drink into the database
    *
@@ -304,29 +456,35 @@ public class qGenerator {
    *          - whether the user should check the query
    */
   public void fromDrink(String drink, boolean check) {
-    drink += " ";
-    String query1 = "drinking " + drink + "makes me ";
-    String query2 = "drinking " + drink + "with ";
-    String query3 = drink + "mixed with ";
-    String query4 = "can you drink " + drink;
     try {
-      if (check) {
-        String writeTo = "data/drinkQs.txt";
-        insertCheck(query1, writeTo);
-        insertCheck(query2, writeTo);
-        insertCheck(query3, writeTo);
-        insertCheck(query4, writeTo);
-      } else {
-        insertQuery(query1);
-        insertQuery(query2);
-        insertQuery(query3);
-        insertQuery(query4);
+      for (String query : drinkQueries(drink)) {
+        if (check) {
+          insertCheck(query, "data/drinkQs.txt", "drink");
+        } else {
+          insertQuery(query, "drink");
+        }
       }
     } catch (IOException e) {
       System.out.println("fromDrink: " + e.getMessage());
     }
   }
 
+  /**
+   * Makes the queries fromDrink adds about a drink.
+   *
+   * @param drink
+   *          - the drink
+   * @return - the queries
+   */
+  static List<String> drinkQueries(String drink) {
+    drink += " ";
+    String query1 = "drinking " + drink + "makes me ";
+    String query2 = "drinking " + drink + "with ";
+    String query3 = drink + "mixed with ";
+    String query4 = "can you drink " + drink;
+    return Arrays.asList(query1, query2, query3, query4);
+  }
+
   /**
    * Mainly to be used with google top trends related queries. Takes in a string
    * like "why do I feel so happy today", prints it out to user, and lets user
@@ -359,7 +517,7 @@ public class qGenerator {
       }
       // Inserts the queries into the RelatedQueries text file,
       // found at the path below
-      insertCheck(toInsert, "data/RQS.txt");
+      insertCheck(toInsert, "data/RQS.txt", "related");
     }
   }
 
@@ -371,33 +529,31 @@ public class qGenerator {
    *          - Path to the csv file
    */
   public void fromRelatedQueries(String filePath) {
-    try {
-      CsvReader csv = new CsvReader(filePath);
-      String[][] records = csv.getRecords();
-      int i = 0;
-      for (; i < records.length; i++) {
-        if (records[i][0].equals("TOP")) {
-          i++;
-          break;
-        }
+    List<String> queries = new ArrayList<>();
+    // Reads only up to the end of the TOP section.
+    try (Stream<String[]> records = CsvReader.stream(filePath)) {
+      Iterator<String[]> it = records.iterator();
+      while (it.hasNext() && !it.next()[0].equals("TOP")) {
+        continue;
       }
-      List<String> queries = new ArrayList<>();
-      for (; i < records.length; i++) {
-        if (records[i][0].equals("") || records[i][0].equals("RISING")) {
+      while (it.hasNext()) {
+        String query = it.next()[0];
+        if (query.equals("") || query.equals("RISING")) {
           break;
         }
-        queries.add(records[i][0]);
+        queries.add(query);
       }
+    } catch (IOException | UncheckedIOException e) {
+      System.out.println(e.getMessage());
+      return;
+    }
+
+    try {
       for (String quer : queries) {
         deleteInsert(quer);
       }
-
     } catch (IOException e) {
       System.out.println(e.getMessage());
-      return;
-    } catch (InvalidFormatException e) {
-      System.out.println(e.getMessage());
-      return;
     }
   }
 
@@ -423,4 +579,78 @@ public class qGenerator {
     return db.nRandomMetaModeQueries(queryNum);
   }
 
+  /**
+   * Picks queryNum random queries, loading the first one before returning and
+   * loading and clustering the rest in the background. Lets a game start as
+   * soon as its first round is ready.
+   *
+   * @param queryNum
+   *          - Number of queries to return
+   * @return - A list of futures for the queries, the first of which is done.
+   * @throws SQLException
+   *           - If the SQL statement returns an error
+   */
+  public List<Future<QueryResponses>> prefetchRandomQrs(int queryNum)
+      throws SQLException {
+    DBConnector conn = db;
+    return prefetch(conn.nRandomQueryIds(queryNum), conn::getQuery);
+  }
+
+  /**
+   * Same as prefetchRandomQrs, but only picks queries from the given
+   * categories.
+   *
+   * @param queryNum
+   *          - Number of queries to return
+   * @param categories
+   *          - The categories to pick from
+   * @return - A list of futures for the queries, the first of which is done.
+   * @throws SQLException
+   *           - If the SQL statement returns an error
+   */
+  public List<Future<QueryResponses>> prefetchRandomQrs(int queryNum,
+      Collection<String> categories) throws SQLException {
+    DBConnector conn = db;
+    return prefetch(conn.nRandomQueryIds(queryNum, categories),
+        conn::getQuery);
+  }
+
+  /**
+   * Same as prefetchRandomQrs, but for meta mode.
+   *
+   * @param queryNum
+   *          - Number of queries to return
+   * @return - A list of futures for the queries, the first of which is done.
+   * @throws SQLException
+   *           - If the SQL statement returns an error
+   */
+  public List<Future<QueryResponses>> prefetchRandomMetaModeQrs(int queryNum)
+      throws SQLException {
+    DBConnector conn = db;
+    return prefetch(conn.nRandomMetaModeQueryIds(queryNum),
+        conn::getMetaModeQuery);
+  }
+
+  /*
+   * Loads a query by id. Used so prefetching can run either DBConnector
+   * loader.
+   */
+  private interface QueryLoader {
+    QueryResponses load(int id) throws SQLException;
+  }
+
+  private List<Future<QueryResponses>> prefetch(List<Integer> ids,
+      QueryLoader loader) throws SQLException {
+    List<Future<QueryResponses>> queries = new ArrayList<>();
+    if (ids.isEmpty()) {
+      return queries;
+    }
+
+    queries.add(Futures.immediateFuture(loader.load(ids.get(0))));
+    for (int id : ids.subList(1, ids.size())) {
+      queries.add(PREFETCHER.submit(() -> loader.load(id)));
+    }
+    return queries;
+  }
+
 }
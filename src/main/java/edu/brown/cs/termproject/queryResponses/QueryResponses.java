@@ -6,18 +6,35 @@ import java.util.List;
 import edu.brown.cs.termproject.scoring.Clustering;
 import edu.brown.cs.termproject.scoring.Suggestion;
 
+/**
+ * A query and its clustered responses. Instances are shared between games
+ * (see QueryPool), so the clustering must only be read once it has been built.
+ *
+ * @author swaxman1
+ */
 public class QueryResponses {
   public QueryResponses(int id, String query, Clustering<Suggestion> clusters) {
+    this(id, query, clusters, null);
+  }
+
+  /**
+   * Makes a query tagged with the category it was generated from, e.g.
+   * "animal", so games can be played from just some categories.
+   */
+  public QueryResponses(int id, String query, Clustering<Suggestion> clusters,
+      String category) {
     this.query = query;
     // Should double check that this correctly copies strings so it doesn't
     // matter if you alter the original list.
     this.clusters = clusters;
     this.id = id;
+    this.category = category;
   }
 
   private final String query;
   private final Clustering<Suggestion> clusters;
   private final int id;
+  private final String category;
 
   public String getQuery() {
     return query;
@@ -30,4 +47,13 @@ public class QueryResponses {
   public int getId() {
     return id;
   }
+
+  /**
+   * Gets the category the query was generated from.
+   *
+   * @return the category, or null if it has none
+   */
+  public String getCategory() {
+    return category;
+  }
 }
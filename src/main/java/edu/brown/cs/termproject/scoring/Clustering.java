@@ -27,6 +27,9 @@ import org.apache.commons.lang3.tuple.Pair;
  */
 public class Clustering<T extends Cluster> {
 
+  // Bump when the clustering algorithm itself changes.
+  private static final int CLUSTERING_FORMAT = 1;
+
   private List<T> clusters; // Note that the ordering matters here.
   private Word2VecModel model;
   private ClusterFactory<T> factory;
@@ -70,12 +73,38 @@ public class Clustering<T extends Cluster> {
         new SuggestionFactory());
   }
 
+  /**
+   * Makes a suggestion clustering out of suggestions that were already
+   * clustered, like ones read back from the database with
+   * Suggestion.fromTokens. Nothing is compared; the suggestions are used as
+   * they are.
+   *
+   * @param suggestions
+   *          the clusters, in order
+   * @return a clustering of the suggestions
+   */
   public static Clustering<Suggestion> newExistingSuggestionClustering(
       List<Suggestion> suggestions) {
     return new Clustering<Suggestion>(suggestions, Word2VecModel.model,
         new SuggestionFactory());
   }
 
+  /**
+   * Identifies how suggestions are clustered with a model: the similarity
+   * threshold, the model's vocabulary and its stopwords. Clusterings stored
+   * under a different version would come out differently now, and have to be
+   * made again.
+   *
+   * @param model
+   *          the word2vec model
+   * @return the version, as a string
+   */
+  public static String suggestionVersion(Word2VecModel model) {
+    return String.format("suggestion-%d:%s:%08x:%08x", CLUSTERING_FORMAT,
+        Suggestion.THRESHOLD, model.vocabulary().hashCode(),
+        model.getStopwords().hashCode());
+  }
+
   /**
    * Creates a clustering out of the pre-existing clusters. Used when adding a
    * guess to the database.
@@ -85,7 +114,7 @@ public class Clustering<T extends Cluster> {
    */
   private Clustering(List<T> clusters, Word2VecModel model,
       ClusterFactory<T> factory) {
-    total = 0;
+    total = clusters.size();
     this.clusters = new ArrayList<>(clusters);
     this.model = model;
     this.factory = factory;
@@ -1,8 +1,10 @@
 package edu.brown.cs.termproject.scoring;
 
 import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * Represents a unique suggestion that google returns. This is one of the
@@ -14,7 +16,7 @@ import java.util.Objects;
 public class Suggestion implements Cluster {
 
   // Test the hyperparameter with different values.
-  private static final double THRESHOLD = 0.41;
+  static final double THRESHOLD = 0.41;
 
   private List<WordVector> vectors;
   private String originalPhrase;
@@ -32,6 +34,31 @@ public class Suggestion implements Cluster {
     this.score = score;
   }
 
+  /**
+   * Makes a suggestion that was stored along with its tokens, looking up the
+   * vectors by word instead of tokenizing the phrase again.
+   *
+   * @param phrase
+   *          the original phrase
+   * @param score
+   *          the suggestion's score
+   * @param tokens
+   *          the words given by getTokens
+   * @param model
+   *          the word2vec model
+   * @return the suggestion
+   */
+  public static Suggestion fromTokens(String phrase, int score, String tokens,
+      Word2VecModel model) {
+    List<WordVector> vectors = new ArrayList<>();
+    for (String token : tokens.split(" ")) {
+      if (!token.isEmpty()) {
+        vectors.add(model.vectorOf(token));
+      }
+    }
+    return new Suggestion(vectors, phrase, score);
+  }
+
   /**
    * A simple method that allows checking similarity of other suggestions. Calls
    * similarity on the suggestion's WordVectors.
@@ -120,6 +147,17 @@ public class Suggestion implements Cluster {
     return vectors;
   }
 
+  /**
+   * Gets the words the suggestion's vectors were looked up by, so it can be
+   * stored and made again without tokenizing the phrase.
+   *
+   * @return the words, separated by spaces
+   */
+  public String getTokens() {
+    return vectors.stream().map(WordVector::getWord)
+        .collect(Collectors.joining(" "));
+  }
+
   /**
    * Used to alter the suggestions' scores in meta mode. Should not be used for
    * anything else.
@@ -125,14 +125,19 @@ public class Word2VecModel implements AutoCloseable {
     }
 
     if (!vocabulary.contains(word)) {
+      // Remembered too, so a word the model lacks isn't corrected again every
+      // time it's looked up, e.g. each time a stored clustering loads.
+      WordVector vector;
       Optional<String> fixed = LedCorrector.fix(vocabulary, word);
       if (fixed.isPresent()) {
         assert (vocabulary.contains(fixed.get()));
-        return vectorOf(fixed.get());
+        vector = vectorOf(fixed.get());
+      } else {
+        // else give up and return a wordvector of just the word
+        vector = new WordVector(word);
       }
-
-      // else give up and return a wordvector of just the word
-      return new WordVector(word);
+      cache.put(word, vector);
+      return vector;
     }
 
     try {
@@ -188,7 +188,8 @@ $(document).ready(() => {
     const $playButton = $("#button-play").click(() => {
         console.log("play clicked");
         customQueries = [];
-        $queryList.find("input[type='text']").each((i, e) => customQueries.push(e.value));
+        $queryList.find("input[type='text']").each((i, e) => customQueries.push(e.value))
+            .removeClass("ui-state-error ui-state-highlight");
         connection.sendCustomQueryMessage(customQueries);
     });
 
@@ -304,6 +305,8 @@ function reveal(answer, index, score, flagMissed) {
 // binds delete functionality on click event for delete buttons
 function setUpButtons() {
     $("input[type='button']").button();
+    // Suggests stored queries as the host types a custom one.
+    $(".list-query").autocomplete({source: "/prompts", minLength: 2});
     $(".delete").bind("click", (event) => {
         const button = event.currentTarget;
         const idToDelete = "#entry" + button.id.substring(1);
@@ -313,6 +316,17 @@ function setUpButtons() {
     });
 }
 
+// Identifies a returning player so the server can avoid repeating prompts
+// they have already played.
+function getPlayerKey() {
+    let key = localStorage.getItem("playerKey");
+    if (key === null) {
+        key = Math.random().toString(36).substring(2) + Date.now().toString(36);
+        localStorage.setItem("playerKey", key);
+    }
+    return key;
+}
+
 function joinGame(roomId, username) {
     room = new Room(false, true, roomId, username);
     connection.sendJoinMessage();
@@ -376,17 +390,100 @@ class Countdown {
     }
 
     tick() {
-        this.initial--;
-        if (room.multiplayer && room.hosting) {
-            connection.sendUpdateTime(this.initial);
-        }
+        this.initial = Math.max(0, this.initial - 1);
         return this.initial;
     }
+
+    // The server owns the round deadline; it periodically tells us how much
+    // time is left.
+    sync(timeSeconds) {
+        this.initial = timeSeconds;
+    }
+}
+
+// Fields sent before the flat format was negotiated arrive as JSON strings.
+function parseField(field) {
+    return typeof field === "string" ? JSON.parse(field) : field;
+}
+
+// Binary messages (see BinaryCodec.java): a type byte, the room index and the
+// fields of the message, with numbers as varints and strings as a varint byte
+// length followed by UTF-8. Users are sent by id only.
+function decodeBinaryMessage(buffer) {
+    const bytes = new Uint8Array(buffer);
+    let pos = 0;
+    const readVarint = () => {
+        let value = 0;
+        let shift = 0;
+        let b;
+        do {
+            b = bytes[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b & 0x80);
+        return value;
+    };
+    const readString = () => {
+        const length = readVarint();
+        const value = new TextDecoder().decode(bytes.subarray(pos, pos + length));
+        pos += length;
+        return value;
+    };
+
+    const type = bytes[pos++];
+    readVarint(); // room index
+    const payload = {};
+    switch (type) {
+        case PLAYER_GUESS: {
+            payload.userId = readVarint();
+            payload.username = room.usernames[payload.userId];
+            payload.playerScore = readVarint();
+            const index = readVarint();
+            if (index === 0) {
+                payload.suggestion = "";
+                payload.suggestionIndex = "";
+                payload.score = "";
+            } else {
+                payload.suggestionIndex = index - 1;
+                payload.score = readVarint();
+                payload.suggestion = readString();
+            }
+            break;
+        }
+        case UPDATE_TIME:
+            payload.timeSeconds = readVarint();
+            break;
+        case USER_CHAT:
+            payload.userId = readVarint();
+            payload.username = room.usernames[payload.userId];
+            payload.message = readString();
+            break;
+    }
+    return {type: type, payload: payload};
+}
+
+function encodeBinaryMessage(type, roomIndex, text) {
+    const utf8 = new TextEncoder().encode(text);
+    const bytes = [type];
+    const writeVarint = (value) => {
+        while (value > 0x7F) {
+            bytes.push((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes.push(value);
+    };
+    writeVarint(roomIndex);
+    writeVarint(utf8.length);
+    const message = new Uint8Array(bytes.length + utf8.length);
+    message.set(bytes);
+    message.set(utf8, bytes.length);
+    return message.buffer;
 }
 
 class Connection {
     constructor(socket) {
         this.connection = new WebSocket(socket);
+        this.connection.binaryType = "arraybuffer";
         this.connection.onopen = function () {
             console.log('Opened connection.');
         };
@@ -394,14 +491,17 @@ class Connection {
             console.log('Error Logged: ' + error); //log errors
         };
         this.connection.onmessage = function (messageEvent) {
-            const message = JSON.parse(messageEvent.data);
-            const payload = JSON.parse(message.payload);
+            const message = messageEvent.data instanceof ArrayBuffer
+                ? decodeBinaryMessage(messageEvent.data)
+                : JSON.parse(messageEvent.data);
+            const payload = parseField(message.payload);
             console.log("RECEIVED MESSAGE");
             console.log(message);
             console.log(messageEvent.data);
             switch (message.type) {
                 case CONNECT:
                     console.log("websocket connected");
+                    connection.sendConnectMessage();
                     break;
                 case CUSTOM_QUERY:
                     connection.receiveCustomQueryMessage(payload);
@@ -427,12 +527,27 @@ class Connection {
                 case ROUND_END:
                     connection.receiveEndRound(payload);
                     break;
+                case UPDATE_TIME:
+                    connection.receiveUpdateTime(payload);
+                    break;
                 default:
                     console.log("Unknown message type received: " + message.type);
             }
         };
     }
 
+    // Asks for payloads as plain objects instead of JSON strings, and for
+    // guesses and time updates in binary.
+    sendConnectMessage() {
+        const message = {
+            type: CONNECT,
+            payload: {
+                format: "binary"
+            }
+        };
+        this.connection.send(JSON.stringify(message));
+    }
+
     sendCreateMessage() {
         const message = {
             type: CREATE_ROOM,
@@ -467,8 +582,17 @@ class Connection {
     }
 
     receiveCustomQueryMessage(payload) {
+        if (payload.index !== undefined) {
+            // One query checked; marks its row now, and the full list follows
+            // once all are.
+            const valid = parseField(payload.valid);
+            $queryList.find("input[type='text']").eq(payload.index)
+                .toggleClass("ui-state-highlight", valid)
+                .toggleClass("ui-state-error", !valid);
+            return;
+        }
         const invalidIndices = [];
-        JSON.parse(payload.valid).forEach((elt, index) => {
+        parseField(payload.valid).forEach((elt, index) => {
             if (!elt) {
                 invalidIndices.push(index);
             }
@@ -501,7 +625,8 @@ class Connection {
             type: USER_JOIN,
             payload: {
                 roomId: room.id,
-                username: room.username //room.hosting ? "Host" : room.username
+                username: room.username, //room.hosting ? "Host" : room.username
+                playerKey: getPlayerKey()
             }
         };
         this.connection.send(JSON.stringify(message));
@@ -518,9 +643,11 @@ class Connection {
             return;
         }
         $dialog.dialog("close");
+        room.usernames[payload.userId] = payload.username;
         // if user is the one joining game
         if (room.userId === "") {
             room.userId = payload.userId;
+            room.index = payload.roomIndex;
             if (room.hosting) {
                 toLobbyFrom($settings);
             } else {
@@ -531,7 +658,7 @@ class Connection {
                         room.game = new Game();
                         room.game.nextRound(payload.query, payload.numResponses, payload.timeSeconds);
                         toPlayFromLobby();
-                        JSON.parse(payload.guessed).forEach((elt) => {
+                        parseField(payload.guessed).forEach((elt) => {
                             reveal(elt.suggestion, elt.suggestionIndex, elt.score, false);
                         });
                     }
@@ -540,7 +667,11 @@ class Connection {
             }
             if (room.multiplayer) {
                 if (!room.hosting) {
-                    configureMultiplayerScore(JSON.parse(payload.users));
+                    const users = parseField(payload.users);
+                    users.forEach((elt) => {
+                        room.usernames[elt.userId] = elt.username;
+                    });
+                    configureMultiplayerScore(users);
                 }
                 $multiScore.show("fade", 0);
             } else {
@@ -554,7 +685,8 @@ class Connection {
 
     receiveLeftMessage(payload) {
         if (payload.roomClose) {
-            alert("Host left, closing room!");
+            alert(payload.idle ? "Room closed after inactivity!"
+                : "Host left, closing room!");
             window.location.replace("/");
         } else {
             removeMultiplayerScoreRow(payload.userId);
@@ -600,11 +732,15 @@ class Connection {
             window.location.replace("/");
         } else {
             $guess.val("");
-            room.game.nextRound(payload.query, payload.numResponses, 30);
+            room.game.nextRound(payload.query, payload.numResponses, payload.timeSeconds || 30);
         }
     }
 
     sendGuessMessage(query) {
+        if (room.index !== undefined) {
+            this.connection.send(encodeBinaryMessage(PLAYER_GUESS, room.index, query));
+            return;
+        }
         const message = {
             type: PLAYER_GUESS,
             payload: {
@@ -639,21 +775,16 @@ class Connection {
     }
 
     receiveEndRound(payload) {
-        JSON.parse(payload.suggestions).forEach((elt) => {
+        parseField(payload.suggestions).forEach((elt) => {
             reveal(elt.suggestion, elt.suggestionIndex, elt.score, true);
         });
         room.game.round.end();
     }
 
-    sendUpdateTime(timeSeconds) {
-        const message = {
-            type: UPDATE_TIME,
-            payload: {
-                roomId: room.id,
-                timeSeconds: timeSeconds
-            }
-        };
-        this.connection.send(JSON.stringify(message));
+    receiveUpdateTime(payload) {
+        if (room.game !== undefined && room.game.round !== undefined) {
+            room.game.round.sync(payload.timeSeconds);
+        }
     }
 }
 
@@ -673,6 +804,7 @@ class Room {
         this.id = id;
         this.username = username;
         this.userId = "";
+        this.usernames = {};
     }
 
     startGame() {
@@ -733,25 +865,19 @@ class Round {
 
     start() {
         $timer.text(formatSeconds(this.duration));
+        // Only drives the display; the server sends ROUND_END when time is up.
         this.timer = setInterval(() => {
-            const curTime = this.countdown.tick();
-            if (curTime < 0) {
-                this.end();
-                if (room.hosting) {
-                    connection.sendEndRound();
-                }
-            } else {
-                $timer.text(formatSeconds(curTime));
-                if (curTime === 0) {
-                    this.end();
-                    if (room.hosting) {
-                        connection.sendEndRound();
-                    }
-                }
-            }
+            $timer.text(formatSeconds(this.countdown.tick()));
         }, 1000);
     }
 
+    sync(timeSeconds) {
+        if (!this.over) {
+            this.countdown.sync(timeSeconds);
+            $timer.text(formatSeconds(timeSeconds));
+        }
+    }
+
     end() {
         this.over = true;
         clearInterval(this.timer);
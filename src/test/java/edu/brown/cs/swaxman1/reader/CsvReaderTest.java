@@ -0,0 +1,74 @@
+package edu.brown.cs.swaxman1.reader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String write(String contents) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+
+  @Test
+  public void testPlainFields() throws Exception {
+    CsvReader csv = new CsvReader(write("a,b,c\n,x,\n"));
+    assertArrayEquals(new String[] {"a", "b", "c"}, csv.getRecord(0));
+    assertArrayEquals(new String[] {"", "x", ""}, csv.getRecord(1));
+    assertEquals(2, csv.getRecords().length);
+  }
+
+  @Test
+  public void testQuotedFields() throws Exception {
+    CsvReader csv = new CsvReader(
+        write("\"a,b\",\"say \"\"hi\"\"\",c\n\"two\nlines\",d\n"));
+    assertArrayEquals(new String[] {"a,b", "say \"hi\"", "c"},
+        csv.getRecord(0));
+    assertArrayEquals(new String[] {"two\nlines", "d"}, csv.getRecord(1));
+  }
+
+  @Test
+  public void testOtherDelimeter() throws Exception {
+    CsvReader csv = new CsvReader(write("a|b|\"c|d\"\n"), "|");
+    assertArrayEquals(new String[] {"a", "b", "c|d"}, csv.getRecord(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyDelimeter() throws IOException {
+    CsvReader.stream(write("a,b\n"), "");
+  }
+
+  @Test
+  public void testStreamStopsEarly() throws IOException {
+    try (Stream<String[]> records = CsvReader
+        .stream(write("TOP\nfirst\nsecond\n\"never"))) {
+      Iterator<String[]> it = records.iterator();
+      assertEquals("TOP", it.next()[0]);
+      assertEquals("first", it.next()[0]);
+    }
+  }
+
+  @Test
+  public void testUnclosedQuote() throws IOException {
+    try (Stream<String[]> records = CsvReader.stream(write("a,\"b\nc"))) {
+      String[][] all = records.toArray(String[][]::new);
+      assertEquals(1, all.length);
+      assertArrayEquals(new String[] {"a", "b\nc"}, all[0]);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConnectionPoolTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ConnectionPool pool;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    pool = new ConnectionPool(folder.newFile("test.sqlite3").getPath(), 2);
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE words (word TEXT);");
+      }
+      return null;
+    });
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private int count() throws SQLException {
+    return pool.read((handle) -> {
+      try (ResultSet rs = handle.prepare("SELECT COUNT(*) FROM words;")
+          .executeQuery()) {
+        return rs.getInt(1);
+      }
+    });
+  }
+
+  @Test
+  public void testWalMode() throws SQLException {
+    String mode = pool.read((handle) -> {
+      try (ResultSet rs = handle.prepare("PRAGMA journal_mode;")
+          .executeQuery()) {
+        return rs.getString(1);
+      }
+    });
+    assertEquals("wal", mode.toLowerCase());
+  }
+
+  @Test
+  public void testReadersSeeCommittedWrites() throws SQLException {
+    pool.write((handle) -> {
+      PreparedStatement insert = handle
+          .prepare("INSERT INTO words (word) VALUES (?);");
+      insert.setString(1, "cat");
+      return insert.executeUpdate();
+    });
+    assertEquals(1, count());
+  }
+
+  @Test(expected = SQLException.class)
+  public void testReadersCantWrite() throws SQLException {
+    pool.read((handle) -> handle
+        .prepare("INSERT INTO words (word) VALUES ('cat');").executeUpdate());
+  }
+
+  @Test
+  public void testReadDuringWriteTransaction() throws SQLException {
+    int seen = pool.transaction((handle) -> {
+      handle.prepare("INSERT INTO words (word) VALUES ('cat');")
+          .executeUpdate();
+      // Another connection reads the last commit without waiting.
+      return count();
+    });
+    assertEquals(0, seen);
+    assertEquals(1, count());
+  }
+
+  @Test
+  public void testTransactionRollsBack() throws SQLException {
+    try {
+      pool.transaction((handle) -> {
+        handle.prepare("INSERT INTO words (word) VALUES ('cat');")
+            .executeUpdate();
+        throw new SQLException("fail");
+      });
+    } catch (SQLException e) {
+      assertEquals("fail", e.getMessage());
+    }
+    assertEquals(0, count());
+  }
+
+  @Test
+  public void testStatementsAreCached() throws SQLException {
+    PreparedStatement first = pool
+        .write((handle) -> handle.prepare("SELECT word FROM words;"));
+    PreparedStatement second = pool
+        .write((handle) -> handle.prepare("SELECT word FROM words;"));
+    assertSame(first, second);
+    assertEquals(1, pool.statementsReused());
+  }
+}
@@ -0,0 +1,267 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+import edu.brown.cs.termproject.scoring.Clustering;
+import edu.brown.cs.termproject.scoring.Suggestion;
+import edu.brown.cs.termproject.scoring.Word2VecModel;
+
+public class DBConnectorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String path;
+  private DBConnector db;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    path = folder.newFile("test.sqlite3").getPath();
+    ConnectionPool pool = new ConnectionPool(path, 1);
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE queries (ID integer primary key, "
+            + "query text not null unique);");
+        stat.executeUpdate("CREATE TABLE answers (ID integer primary key, "
+            + "answer text not null, queryID integer, score integer);");
+      }
+      return null;
+    });
+    pool.close();
+    db = new DBConnector(path);
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  /*
+   * Adds a query with answers scored by their order, and no clustering.
+   */
+  private int addQuery(String query, String... answers) throws SQLException {
+    return db.getPool().write((handle) -> {
+      PreparedStatement prep = handle
+          .prepare("INSERT INTO queries (query) VALUES (?);");
+      prep.setString(1, query);
+      prep.executeUpdate();
+      int qID;
+      try (ResultSet rs = handle.prepare("SELECT last_insert_rowid();")
+          .executeQuery()) {
+        qID = rs.getInt(1);
+      }
+
+      prep = handle.prepare(
+          "INSERT INTO answers (answer, score, queryID) VALUES (?, ?, ?);");
+      for (int i = 0; i < answers.length; i++) {
+        prep.setString(1, answers[i]);
+        prep.setInt(2, i);
+        prep.setInt(3, qID);
+        prep.executeUpdate();
+      }
+      return qID;
+    });
+  }
+
+  private int count(String sql) throws SQLException {
+    return db.getPool().read((handle) -> {
+      try (ResultSet rs = handle.prepare(sql).executeQuery()) {
+        return rs.getInt(1);
+      }
+    });
+  }
+
+  /*
+   * Each of a query's stored answers, by text, with its column from answers.
+   */
+  private Map<String, Integer> answers(int qID, String column)
+      throws SQLException {
+    return db.getPool().read((handle) -> {
+      PreparedStatement prep = handle.prepare("SELECT answer, " + column
+          + " FROM answers WHERE queryID = ?;");
+      prep.setInt(1, qID);
+      Map<String, Integer> answers = new HashMap<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          answers.put(rs.getString(1), rs.getInt(2));
+        }
+      }
+      return answers;
+    });
+  }
+
+  private static Map<String, Integer> scores(String... answers) {
+    Map<String, Integer> scores = new HashMap<>();
+    for (int i = 0; i < answers.length; i++) {
+      scores.put(answers[i], i);
+    }
+    return scores;
+  }
+
+  // Scored by their order, like addQuery.
+  private static Clustering<Suggestion> clustering(String... answers) {
+    List<Suggestion> suggestions = new ArrayList<>();
+    for (int i = 0; i < answers.length; i++) {
+      suggestions.add(new Suggestion(Collections.emptyList(), answers[i], i));
+    }
+    return Clustering.newExistingSuggestionClustering(suggestions);
+  }
+
+  private int clusterRows(int qID) throws SQLException {
+    return count("SELECT COUNT(*) FROM clusters WHERE queryID = " + qID
+        + ";");
+  }
+
+  // Writes run in order, so this waits for the ones already submitted.
+  private void awaitWrites() throws InterruptedException, ExecutionException {
+    db.writeInBackground((handle) -> null).get();
+  }
+
+  @Test
+  public void testStoredClusteringRoundTrips()
+      throws SQLException, InterruptedException, ExecutionException {
+    int qID = addQuery("why is the sky ", "blue", "falling", "dark at night",
+        "green");
+
+    QueryResponses clustered = db.getQuery(qID);
+    assertNotNull(clustered);
+    assertEquals(1, db.clusteredLoads());
+    awaitWrites();
+    List<Suggestion> expected = clustered.getResponses().asList();
+    assertEquals(expected.size(),
+        count("SELECT COUNT(*) FROM clusters WHERE queryID = " + qID + ";"));
+
+    QueryResponses stored = db.getQuery(qID);
+    assertEquals(1, db.storedLoads());
+    assertEquals(1, db.clusteredLoads());
+    assertEquals(clustered.getQuery(), stored.getQuery());
+    List<Suggestion> read = stored.getResponses().asList();
+    assertEquals(expected.size(), read.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getResponse(), read.get(i).getResponse());
+      assertEquals(expected.get(i).getScore(), read.get(i).getScore());
+      assertEquals(expected.get(i).getTokens(), read.get(i).getTokens());
+      for (int j = 0; j < expected.size(); j++) {
+        assertEquals(expected.get(i).similarity(expected.get(j)),
+            read.get(i).similarity(read.get(j)), 0.00001);
+      }
+    }
+  }
+
+  @Test
+  public void testNewVersionDropsClusterings()
+      throws SQLException, InterruptedException, ExecutionException {
+    int qID = addQuery("why is the sky ", "blue", "falling", "dark at night",
+        "green");
+    db.getQuery(qID);
+    awaitWrites();
+    db.getPool().write((handle) -> {
+      handle.prepare("UPDATE clustering SET version = 'old';")
+          .executeUpdate();
+      handle.prepare("INSERT INTO guess_top "
+          + "(queryID, position, phrase, score, tokens) "
+          + "VALUES (" + qID + ", 0, 'blue', 1, 'blue');").executeUpdate();
+      return null;
+    });
+    db.close();
+
+    db = new DBConnector(path);
+    db.getQuery(qID);
+    assertEquals(0, db.storedLoads());
+    assertEquals(1, db.clusteredLoads());
+    assertEquals(0, count("SELECT COUNT(*) FROM guess_top;"));
+    String version = db.getPool().read((handle) -> {
+      try (ResultSet rs = handle.prepare("SELECT version FROM clustering;")
+          .executeQuery()) {
+        return rs.getString(1);
+      }
+    });
+    assertEquals(Clustering.suggestionVersion(Word2VecModel.model), version);
+
+    // Clustered again with this version, and stored.
+    awaitWrites();
+    db.getQuery(qID);
+    assertEquals(1, db.storedLoads());
+  }
+
+  @Test
+  public void testRefreshAddsAnswers() throws SQLException {
+    int qID = addQuery("why is the sky ", "blue", "falling");
+    Map<String, Integer> ids = answers(qID, "ID");
+
+    assertTrue(db.refreshAnswers(qID, "new", clustering("blue", "falling",
+        "green")));
+    assertEquals(scores("blue", "falling", "green"), answers(qID, "score"));
+    // Answers that didn't change keep their rows.
+    assertEquals(ids.get("blue"), answers(qID, "ID").get("blue"));
+    assertEquals(ids.get("falling"), answers(qID, "ID").get("falling"));
+    assertEquals(3, clusterRows(qID));
+    assertEquals("new", db.answersDigest(qID));
+  }
+
+  @Test
+  public void testRefreshRemovesAnswers() throws SQLException {
+    int qID = addQuery("why is the sky ", "blue", "falling", "green");
+
+    assertTrue(db.refreshAnswers(qID, "new", clustering("blue", "green")));
+    assertEquals(scores("blue", "green"), answers(qID, "score"));
+    assertEquals(2, clusterRows(qID));
+  }
+
+  @Test
+  public void testRefreshRescoresAnswers() throws SQLException {
+    int qID = addQuery("why is the sky ", "blue", "falling");
+    Map<String, Integer> ids = answers(qID, "ID");
+
+    assertTrue(db.refreshAnswers(qID, "new", clustering("falling", "blue")));
+    assertEquals(scores("falling", "blue"), answers(qID, "score"));
+    assertEquals(ids, answers(qID, "ID"));
+    assertEquals(2, clusterRows(qID));
+  }
+
+  @Test
+  public void testRefreshWithoutChanges() throws SQLException {
+    int qID = addQuery("why is the sky ", "blue", "falling");
+    Map<String, Integer> ids = answers(qID, "ID");
+
+    assertFalse(db.refreshAnswers(qID, "same", clustering("blue",
+        "falling")));
+    assertEquals(ids, answers(qID, "ID"));
+    assertEquals(scores("blue", "falling"), answers(qID, "score"));
+    // Not rewritten, but still recorded as refreshed.
+    assertEquals(0, clusterRows(qID));
+    assertEquals("same", db.answersDigest(qID));
+    assertEquals(1, count("SELECT COUNT(*) FROM queries WHERE refreshed > 0;"));
+  }
+
+  @Test
+  public void testRefreshDropsDuplicateAnswers() throws SQLException {
+    int qID = addQuery("why is the sky ", "blue", "blue", "falling");
+
+    assertTrue(db.refreshAnswers(qID, "new", clustering("blue", "falling")));
+    assertEquals(2, count("SELECT COUNT(*) FROM answers WHERE queryID = "
+        + qID + ";"));
+  }
+}
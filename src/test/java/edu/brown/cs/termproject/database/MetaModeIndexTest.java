@@ -0,0 +1,64 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MetaModeIndexTest {
+
+  @Test
+  public void testOnlyEligibleQueries() {
+    MetaModeIndex index = new MetaModeIndex();
+    index.update(1, MetaModeIndex.MIN_GUESSES);
+    index.update(2, MetaModeIndex.MIN_GUESSES - 1);
+    assertTrue(index.contains(1));
+    assertFalse(index.contains(2));
+    assertEquals(1, index.size());
+
+    index.update(2, MetaModeIndex.MIN_GUESSES + 5);
+    index.update(1, MetaModeIndex.MIN_GUESSES + 1);
+    assertTrue(index.contains(2));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    MetaModeIndex index = new MetaModeIndex();
+    for (int i = 1; i <= 50; i++) {
+      index.update(i, MetaModeIndex.MIN_GUESSES);
+    }
+    index.update(10, 0);
+    index.update(50, 0);
+    assertEquals(48, index.size());
+    assertFalse(index.contains(10));
+
+    Set<Integer> all = new HashSet<>(index.sample(100, new Random(4)));
+    assertEquals(48, all.size());
+    assertFalse(all.contains(10));
+    assertFalse(all.contains(50));
+    assertTrue(all.contains(49));
+  }
+
+  @Test
+  public void testSampleIsDistinct() {
+    MetaModeIndex index = new MetaModeIndex();
+    for (int i = 1; i <= 100; i++) {
+      index.update(i, MetaModeIndex.MIN_GUESSES);
+    }
+    List<Integer> picked = index.sample(10, new Random(32));
+    assertEquals(10, picked.size());
+    assertEquals(10, new HashSet<>(picked).size());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertTrue(new MetaModeIndex().sample(5, new Random()).isEmpty());
+  }
+}
@@ -0,0 +1,161 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+public class QueryPoolTest {
+
+  private static QueryPool poolOf(int n) {
+    List<QueryResponses> queries = new ArrayList<>();
+    for (int i = 1; i <= n; i++) {
+      queries.add(new QueryResponses(i, "query " + i, null));
+    }
+    QueryPool pool = new QueryPool();
+    pool.add(queries);
+    return pool;
+  }
+
+  @Test
+  public void testEmpty() {
+    QueryPool pool = new QueryPool();
+    assertFalse(pool.isReady());
+    assertEquals(0, pool.size());
+    assertTrue(pool.sample(5).isEmpty());
+  }
+
+  @Test
+  public void testSampleIsDistinct() {
+    QueryPool pool = poolOf(100);
+    Random random = new Random(32);
+    for (int trial = 0; trial < 50; trial++) {
+      List<QueryResponses> sample = pool.sample(10, random, id -> false);
+      assertEquals(10, sample.size());
+
+      Set<Integer> ids = new HashSet<>();
+      for (QueryResponses query : sample) {
+        ids.add(query.getId());
+      }
+      assertEquals(10, ids.size());
+    }
+  }
+
+  @Test
+  public void testSampleMoreThanSize() {
+    QueryPool pool = poolOf(4);
+    Set<Integer> ids = new HashSet<>();
+    for (QueryResponses query : pool.sample(10)) {
+      ids.add(query.getId());
+    }
+    assertEquals(4, ids.size());
+  }
+
+  @Test
+  public void testSampleSkipsSeen() {
+    QueryPool pool = poolOf(50);
+    SeenQueries seen = new SeenQueries();
+    for (int id = 1; id <= 40; id++) {
+      seen.add(id);
+    }
+
+    Set<Integer> ids = new HashSet<>();
+    for (QueryResponses query : pool.sample(10, seen::contains)) {
+      ids.add(query.getId());
+    }
+    assertEquals(10, ids.size());
+    for (int id : ids) {
+      assertFalse(seen.contains(id));
+    }
+
+    // Only 10 unseen queries are left, so seen ones fill the rest.
+    assertEquals(15, pool.sample(15, seen::contains).size());
+  }
+
+  @Test
+  public void testSampleCoversPool() {
+    QueryPool pool = poolOf(20);
+    Random random = new Random(7);
+    Set<Integer> seen = new HashSet<>();
+    for (int trial = 0; trial < 200; trial++) {
+      seen.add(pool.sample(1, random, id -> false).get(0).getId());
+    }
+    assertEquals(20, seen.size());
+  }
+
+  // Query i is an "animal" if it's even and a "food" if it's a multiple of 3
+  // and odd; the rest have no category.
+  private static QueryPool categorizedPoolOf(int n) {
+    QueryPool pool = new QueryPool();
+    for (int i = 1; i <= n; i++) {
+      String category = i % 2 == 0 ? "animal" : i % 3 == 0 ? "food" : null;
+      // Added a few at a time, like the pool's refreshes.
+      pool.add(Arrays.asList(new QueryResponses(i, "query " + i, null,
+          category)));
+    }
+    return pool;
+  }
+
+  @Test
+  public void testCategories() {
+    QueryPool pool = categorizedPoolOf(30);
+    assertEquals(new HashSet<>(Arrays.asList("animal", "food")),
+        pool.categories());
+    assertEquals(15, pool.size("animal"));
+    assertEquals(5, pool.size("food"));
+    assertEquals(0, pool.size("drink"));
+  }
+
+  @Test
+  public void testSampleFromCategories() {
+    QueryPool pool = categorizedPoolOf(30);
+    Random random = new Random(11);
+    Set<Integer> ids = new HashSet<>();
+    for (int trial = 0; trial < 200; trial++) {
+      for (QueryResponses query : pool.sample(3,
+          Arrays.asList("food", "drink"), random, id -> false)) {
+        assertEquals("food", query.getCategory());
+        ids.add(query.getId());
+      }
+    }
+    assertEquals(new HashSet<>(Arrays.asList(3, 9, 15, 21, 27)), ids);
+
+    List<QueryResponses> both = pool.sample(20,
+        Arrays.asList("animal", "food", "animal"), random, id -> false);
+    Set<Integer> bothIds = new HashSet<>();
+    for (QueryResponses query : both) {
+      bothIds.add(query.getId());
+    }
+    assertEquals(20, bothIds.size());
+    assertTrue(pool.sample(5, Arrays.asList("drink"), id -> false).isEmpty());
+  }
+
+  @Test
+  public void testSampleFromCategoriesSkipsSeen() {
+    QueryPool pool = categorizedPoolOf(30);
+    for (QueryResponses query : pool.sample(4, Arrays.asList("animal"),
+        id -> id < 24)) {
+      assertTrue(query.getId() >= 24);
+    }
+  }
+
+  @Test
+  public void testReplaceKeepsCategory() {
+    QueryPool pool = categorizedPoolOf(4);
+    assertTrue(pool.replace(new QueryResponses(2, "new query 2", null)));
+    QueryResponses replaced = pool
+        .sample(1, Arrays.asList("animal"), id -> id != 2).get(0);
+    assertEquals("new query 2", replaced.getQuery());
+    assertEquals("animal", replaced.getCategory());
+  }
+}
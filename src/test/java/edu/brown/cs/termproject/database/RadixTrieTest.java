@@ -0,0 +1,67 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RadixTrieTest {
+
+  private static RadixTrie trieOf(String... keys) {
+    RadixTrie trie = new RadixTrie();
+    for (String key : keys) {
+      trie.add(key);
+    }
+    return trie;
+  }
+
+  @Test
+  public void testAddAndContains() {
+    RadixTrie trie = trieOf("is a dog ", "is a cat ", "is a ", "how does ");
+    assertEquals(4, trie.size());
+    assertTrue(trie.contains("is a dog "));
+    assertTrue(trie.contains("is a "));
+    assertTrue(trie.contains("how does "));
+    // Prefixes and extensions of stored strings aren't stored.
+    assertFalse(trie.contains("is a"));
+    assertFalse(trie.contains("is "));
+    assertFalse(trie.contains("is a dog is"));
+    assertFalse(trie.contains(""));
+
+    assertFalse(trie.add("is a cat "));
+    assertEquals(4, trie.size());
+    assertTrue(trie.add("is "));
+    assertTrue(trie.contains("is "));
+  }
+
+  @Test
+  public void testStartingWith() {
+    RadixTrie trie = trieOf("is a dog ", "is a cat ", "is my dog ",
+        "how does ");
+    assertEquals(Arrays.asList("is a cat ", "is a dog ", "is my dog "),
+        trie.startingWith("is", 10));
+    // The prefix can end partway along an edge.
+    assertEquals(Arrays.asList("is a cat ", "is a dog "),
+        trie.startingWith("is a", 10));
+    assertEquals(Arrays.asList("is a cat "), trie.startingWith("is a c", 10));
+    assertEquals(Arrays.asList("is a cat "), trie.startingWith("is", 1));
+    assertEquals(Collections.emptyList(), trie.startingWith("is a z", 10));
+    assertEquals(Collections.emptyList(), trie.startingWith("is a cat z", 10));
+    assertEquals(4, trie.startingWith("", 10).size());
+  }
+
+  @Test
+  public void testContainsPrefixOf() {
+    RadixTrie trie = trieOf("the dog barks", "the dog barks a lot",
+        "the dog bark");
+    assertTrue(trie.containsPrefixOf("the dog barks a lot", ' '));
+    // Only whole words count.
+    assertFalse(trie.containsPrefixOf("the dog barks", ' '));
+    assertFalse(trie.containsPrefixOf("the dog bark", ' '));
+    assertFalse(trie.containsPrefixOf("the cat", ' '));
+  }
+}
@@ -0,0 +1,104 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SchemaManagerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ConnectionPool pool;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    pool = new ConnectionPool(folder.newFile("test.sqlite3").getPath(), 1);
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE queries (ID integer primary key, "
+            + "query text not null unique);");
+        stat.executeUpdate("CREATE TABLE answers (ID integer primary key, "
+            + "answer text not null, queryID integer, score integer);");
+      }
+      return null;
+    });
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private Set<String> names(String type) throws SQLException {
+    return pool.read((handle) -> {
+      PreparedStatement prep = handle
+          .prepare("SELECT name FROM sqlite_master WHERE type = ?;");
+      prep.setString(1, type);
+      Set<String> names = new HashSet<>();
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          names.add(rs.getString(1));
+        }
+      }
+      return names;
+    });
+  }
+
+  @Test
+  public void testMigrate() throws SQLException {
+    assertEquals(0, SchemaManager.version(pool));
+    assertEquals(SchemaManager.latestVersion(), SchemaManager.migrate(pool));
+    assertEquals(SchemaManager.latestVersion(), SchemaManager.version(pool));
+
+    assertTrue(names("table").contains("guess_summary"));
+    assertTrue(names("index").contains("answers_query"));
+    assertTrue(names("index").contains("guesses_query"));
+    assertTrue(names("index").contains("queries_refreshed"));
+    assertTrue(names("index").contains("queries_category"));
+    // Analyzed after migrating.
+    assertTrue(names("table").contains("sqlite_stat1"));
+  }
+
+  @Test
+  public void testMigrateOnlyOnce() throws SQLException {
+    SchemaManager.migrate(pool);
+    assertEquals(0, SchemaManager.migrate(pool));
+  }
+
+  @Test
+  public void testAdoptsUnversionedTables() throws SQLException {
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE guesses (ID integer primary key, "
+            + "answer text not null, queryID integer, score integer);");
+        stat.executeUpdate("INSERT INTO guesses (answer, queryID, score) "
+            + "VALUES ('a', 1, 1), ('b', 1, 1), ('c', 2, 1);");
+      }
+      return null;
+    });
+    SchemaManager.migrate(pool);
+
+    int guesses = pool.read((handle) -> {
+      try (ResultSet rs = handle
+          .prepare("SELECT guesses FROM guess_summary WHERE queryID = 1;")
+          .executeQuery()) {
+        return rs.getInt(1);
+      }
+    });
+    assertEquals(2, guesses);
+  }
+}
@@ -0,0 +1,43 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SeenQueriesTest {
+
+  @Test
+  public void testAddContains() {
+    SeenQueries seen = new SeenQueries();
+    assertFalse(seen.contains(3));
+    assertFalse(seen.isDirty());
+
+    seen.add(3);
+    seen.add(250000);
+    seen.add(-1); // custom queries are never recorded
+    assertTrue(seen.contains(3));
+    assertTrue(seen.contains(250000));
+    assertFalse(seen.contains(-1));
+    assertFalse(seen.contains(4));
+    assertEquals(2, seen.size());
+    assertTrue(seen.isDirty());
+  }
+
+  @Test
+  public void testBytesRoundTrip() {
+    SeenQueries seen = new SeenQueries();
+    for (int id = 0; id < 1000; id += 7) {
+      seen.add(id);
+    }
+
+    SeenQueries read = SeenQueries.fromBytes(seen.toBytes());
+    assertEquals(seen.size(), read.size());
+    for (int id = 0; id < 1000; id++) {
+      assertEquals(seen.contains(id), read.contains(id));
+    }
+    assertFalse(read.isDirty());
+    assertEquals(0, SeenQueries.fromBytes(null).size());
+  }
+}
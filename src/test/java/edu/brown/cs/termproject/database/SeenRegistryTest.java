@@ -0,0 +1,87 @@
+package edu.brown.cs.termproject.database;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SeenRegistryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Never started, so players are only kept in memory.
+  private final SeenRegistry registry = SeenRegistry.shared();
+
+  @Test
+  public void testSharedUntilLastRelease() {
+    SeenQueries first = registry.get("two tabs");
+    SeenQueries second = registry.get("two tabs");
+    assertTrue(first == second);
+    first.add(5);
+
+    // The other tab still holds the key.
+    registry.release("two tabs");
+    assertTrue(registry.get("two tabs") == first);
+    registry.release("two tabs");
+    registry.release("two tabs");
+
+    SeenQueries again = registry.get("two tabs");
+    assertFalse(again == first);
+    registry.release("two tabs");
+  }
+
+  @Test
+  public void testReleaseUnknownKey() {
+    registry.release("never joined");
+    registry.release(null);
+    SeenQueries seen = registry.get("never joined");
+    assertFalse(seen.contains(1));
+    registry.release("never joined");
+  }
+
+  @Test
+  public void testSavedInBackground()
+      throws IOException, SQLException, InterruptedException,
+      ExecutionException {
+    String path = folder.newFile("seen.sqlite3").getPath();
+    ConnectionPool pool = new ConnectionPool(path, 1);
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE queries (ID integer primary key, "
+            + "query text not null unique);");
+        stat.executeUpdate("CREATE TABLE answers (ID integer primary key, "
+            + "answer text not null, queryID integer, score integer);");
+      }
+      return null;
+    });
+    pool.close();
+
+    DBConnector db = new DBConnector(path);
+    registry.start(db);
+    try {
+      registry.get("returning").add(3);
+      registry.release("returning");
+      // Comes back before or after the save commits.
+      assertTrue(registry.get("returning").contains(3));
+      registry.release("returning");
+
+      // Writes run in order, so this waits for the saves.
+      db.writeInBackground((handle) -> null).get();
+      assertTrue(SeenQueries.fromBytes(db.getSeenQueries("returning"))
+          .contains(3));
+      assertTrue(registry.get("returning").contains(3));
+      registry.release("returning");
+    } finally {
+      registry.start(null);
+      db.close();
+    }
+  }
+}
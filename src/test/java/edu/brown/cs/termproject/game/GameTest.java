@@ -10,10 +10,17 @@ package edu.brown.cs.termproject.game;
 //import edu.brown.cs.termproject.scoring.Word2VecModel;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.Test;
 
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
 public class GameTest {
 
   /*
@@ -69,4 +76,17 @@ public class GameTest {
     assertFalse(game.guessIsntJunk("penis"));
     assertFalse(game.guessIsntJunk("xxx"));
   }
+
+  @Test
+  public void testFailedPrefetchIsEmptyRound() {
+    CompletableFuture<QueryResponses> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new ExceptionInInitializerError("model"));
+    Game game = Game.withPrefetchedQueries(1, new ArrayList<>(),
+        Arrays.asList(failed), false);
+
+    // Returns instead of throwing, and the round is played empty.
+    game.awaitNextRound();
+    assertNull(game.newRound());
+    assertTrue(game.isRoundOver());
+  }
 }
@@ -0,0 +1,123 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AutocompleteClientTest {
+
+  private static final String RESPONSE = "window.google.ac.h([\"cats \","
+      + "[[\"cats are great\",0],[\"cats vs dogs\",0]],{\"k\":1}])";
+
+  private HttpServer server;
+  private String url;
+  private final CountDownLatch release = new CountDownLatch(1);
+  private volatile String lastQuery;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/complete", this::complete);
+    server.createContext("/slow", (exchange) -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      complete(exchange);
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    server.stop(0);
+  }
+
+  private void complete(HttpExchange exchange) throws IOException {
+    lastQuery = exchange.getRequestURI().getQuery();
+    byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  @Test
+  public void testSuggest() throws Exception {
+    try (AutocompleteClient client = new AutocompleteClient(url + "/complete",
+        2000, 4)) {
+      assertEquals(Arrays.asList("cats are great", "cats vs dogs"),
+          client.suggest("cats ").get());
+      assertTrue(lastQuery.contains("q=cats"));
+      assertEquals(1, client.requests());
+    }
+  }
+
+  @Test
+  public void testEmptyQuery() throws Exception {
+    try (AutocompleteClient client = new AutocompleteClient(url + "/complete",
+        2000, 4)) {
+      assertEquals(Collections.emptyList(), client.suggest("").get());
+      assertEquals(0, client.requests());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    try (AutocompleteClient client = new AutocompleteClient(url + "/slow",
+        100, 4)) {
+      client.suggest("cats ").get();
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    try (AutocompleteClient client = new AutocompleteClient(url + "/slow",
+        2000, 1)) {
+      CompletableFuture<?> first = client.suggest("cats ");
+      CompletableFuture<?> second = client.suggest("dogs ");
+      assertTrue(second.isCompletedExceptionally());
+      try {
+        second.get();
+        fail("Expected a rejection");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      assertEquals(1, client.rejected());
+
+      release.countDown();
+      first.get();
+      client.suggest("birds ").get();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedResponse() {
+    AutocompleteClient.parse("[1, 2, 3]");
+  }
+}
@@ -0,0 +1,66 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+  @Test
+  public void testVarints() {
+    assertArrayEquals(new byte[] {6, 0}, BinaryCodec.frame(6, 0).toBytes());
+    assertArrayEquals(new byte[] {6, (byte) 0xAC, 0x02},
+        BinaryCodec.frame(6, 300).toBytes());
+
+    int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+    BinaryCodec codec = BinaryCodec.frame(10, 1);
+    for (int value : values) {
+      codec.writeVarint(value);
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(codec.toBytes());
+    assertEquals(10, in.get());
+    assertEquals(1, BinaryCodec.readVarint(in));
+    for (int value : values) {
+      assertEquals(value, BinaryCodec.readVarint(in));
+    }
+    assertFalse(in.hasRemaining());
+  }
+
+  @Test
+  public void testStrings() {
+    ByteBuffer in = ByteBuffer.wrap(BinaryCodec.frame(11, 2)
+        .writeString("héllo").writeString("").toBytes());
+    in.position(2);
+    assertEquals("héllo", BinaryCodec.readString(in, 100));
+    assertEquals("", BinaryCodec.readString(in, 100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTruncatedString() {
+    byte[] bytes = BinaryCodec.frame(11, 2).writeString("hello").toBytes();
+    ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytes.length - 1);
+    in.position(2);
+    BinaryCodec.readString(in, 100);
+  }
+
+  @Test
+  public void testDecodeGuess() {
+    byte[] bytes = BinaryCodec.frame(10, 42).writeString("cats").toBytes();
+    InboundMessage message = new InboundMessage();
+    message.decode(ByteBuffer.wrap(bytes), 10, 11);
+    assertEquals(10, message.getType());
+    assertEquals(42, message.getRoomIndex());
+    assertEquals("cats", message.getGuess());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodeWrongType() {
+    byte[] bytes = BinaryCodec.frame(3, 42).toBytes();
+    new InboundMessage().decode(ByteBuffer.wrap(bytes), 10, 11);
+  }
+}
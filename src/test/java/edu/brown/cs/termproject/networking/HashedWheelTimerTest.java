@@ -0,0 +1,52 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+  @Test
+  public void testFires() throws InterruptedException {
+    HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+    CountDownLatch latch = new CountDownLatch(3);
+
+    long start = System.nanoTime();
+    timer.newTimeout(latch::countDown, 20, TimeUnit.MILLISECONDS);
+    // Longer than one turn of the wheel.
+    timer.newTimeout(latch::countDown, 150, TimeUnit.MILLISECONDS);
+    HashedWheelTimer.Timeout zero = timer.newTimeout(latch::countDown, 0,
+        TimeUnit.MILLISECONDS);
+
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+        .toNanos(150));
+    assertTrue(zero.isExpired());
+    timer.stop();
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(1);
+
+    HashedWheelTimer.Timeout cancelled = timer.newTimeout(
+        runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+    timer.newTimeout(latch::countDown, 80, TimeUnit.MILLISECONDS);
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertEquals(0, runs.get());
+    assertTrue(cancelled.isCancelled());
+    assertEquals(0, timer.pendingTimeouts());
+    timer.stop();
+  }
+}
@@ -0,0 +1,74 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class InboundMessageTest {
+
+  @Test
+  public void testGuess() {
+    InboundMessage message = new InboundMessage();
+    message.decode("{\"type\":10,\"payload\":{\"roomId\":\"AB23CD\","
+        + "\"guess\":\"cats\"}}");
+    assertEquals(10, message.getType());
+    assertEquals("ab23cd", message.getRoomId());
+    assertEquals("cats", message.getGuess());
+    assertFalse(message.hasQueries());
+  }
+
+  @Test
+  public void testNewGame() {
+    InboundMessage message = new InboundMessage();
+    message.decode("{\"type\":3,\"payload\":{\"roomId\":\"ab23cd\","
+        + "\"settings\":{\"type\":\"multiplayer\",\"mode\":\"meta\","
+        + "\"rounds\":4},\"queries\":[\"why is \",\"how do \"]}}");
+    assertEquals(4, message.getRounds());
+    assertEquals("meta", message.getMode());
+    assertTrue(message.hasQueries());
+    assertEquals(Arrays.asList("why is ", "how do "), message.getQueries());
+  }
+
+  @Test
+  public void testReuse() {
+    InboundMessage message = new InboundMessage();
+    message.decode("{\"type\":7,\"payload\":{\"roomId\":\"ab23cd\","
+        + "\"username\":\"a\",\"playerKey\":\"key\"}}");
+    assertEquals("key", message.getPlayerKey());
+
+    message.decode("{\"type\":7,\"payload\":{\"roomId\":\"ab23cd\","
+        + "\"username\":\"b\",\"playerKey\":null,\"extra\":{\"x\":[1,2]}}}");
+    assertEquals("b", message.getUsername());
+    assertNull(message.getPlayerKey());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingField() {
+    InboundMessage message = new InboundMessage();
+    message.decode("{\"type\":10,\"payload\":{\"roomId\":\"ab23cd\"}}");
+    message.getGuess();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformed() {
+    new InboundMessage().decode("{\"type\":10,\"payload\":{\"roomId\"");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongType() {
+    new InboundMessage().decode("{\"type\":\"guess\",\"payload\":{}}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLong() {
+    char[] chat = new char[InboundMessage.MAX_MESSAGE_CHARS];
+    Arrays.fill(chat, 'a');
+    new InboundMessage().decode("{\"type\":11,\"payload\":{\"message\":\""
+        + new String(chat) + "\"}}");
+  }
+}
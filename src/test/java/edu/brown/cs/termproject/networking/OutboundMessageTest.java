@@ -0,0 +1,90 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import edu.brown.cs.termproject.networking.OutboundMessage.Format;
+
+public class OutboundMessageTest {
+
+  private static final Gson GSON = new Gson();
+
+  private static OutboundMessage sample() {
+    return new OutboundMessage(7).put("username", "a \"quoted\" name")
+        .put("userId", 3).put("roomClose", false)
+        .putJson("guessed", "[{\"suggestion\":\"cat\",\"score\":9000}]");
+  }
+
+  @Test
+  public void testNestedMatchesOldFormat() {
+    JsonObject payload = new JsonObject();
+    payload.addProperty("username", "a \"quoted\" name");
+    payload.addProperty("userId", 3);
+    payload.addProperty("roomClose", false);
+    payload.addProperty("guessed", "[{\"suggestion\":\"cat\",\"score\":9000}]");
+    JsonObject message = new JsonObject();
+    message.addProperty("type", 7);
+    message.addProperty("payload", payload.toString());
+
+    assertEquals(message.toString(),
+        sample().getFrame(Format.NESTED).getText());
+  }
+
+  @Test
+  public void testFlat() {
+    JsonObject message = GSON.fromJson(
+        sample().getFrame(Format.FLAT).getText(), JsonObject.class);
+    assertEquals(7, message.get("type").getAsInt());
+
+    JsonObject payload = message.getAsJsonObject("payload");
+    assertEquals("a \"quoted\" name", payload.get("username").getAsString());
+    assertEquals(3, payload.get("userId").getAsInt());
+    assertEquals(9000, payload.getAsJsonArray("guessed").get(0)
+        .getAsJsonObject().get("score").getAsInt());
+  }
+
+  @Test
+  public void testEncodedOnce() {
+    OutboundMessage message = sample();
+    assertSame(message.getFrame(Format.FLAT), message.getFrame(Format.FLAT));
+    assertSame(message.getFrame(Format.NESTED),
+        message.getFrame(Format.NESTED));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testImmutableOnceEncoded() {
+    OutboundMessage message = sample();
+    message.getFrame(Format.NESTED);
+    message.put("late", 1);
+  }
+
+  @Test
+  public void testCopyIsWritable() {
+    OutboundMessage message = sample();
+    message.getFrame(Format.NESTED);
+    OutboundMessage copy = message.copy().put("late", 1);
+    JsonObject payload = GSON.fromJson(copy.getFrame(Format.FLAT).getText(),
+        JsonObject.class).getAsJsonObject("payload");
+    assertEquals(1, payload.get("late").getAsInt());
+  }
+
+  @Test
+  public void testBinaryFallsBackToFlat() {
+    OutboundMessage message = sample();
+    assertSame(message.getFrame(Format.FLAT), message.getFrame(Format.BINARY));
+
+    OutboundMessage time = new OutboundMessage(6).put("timeSeconds", 25)
+        .setBinary(BinaryCodec.frame(6, 300).writeVarint(25));
+    Frame binary = time.getFrame(Format.BINARY);
+    assertTrue(binary.isBinary());
+    assertEquals(4, binary.getBytes().remaining());
+    assertFalse(time.getFrame(Format.FLAT).isBinary());
+  }
+}
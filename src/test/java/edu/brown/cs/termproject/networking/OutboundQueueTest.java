@@ -0,0 +1,159 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.After;
+import org.junit.Test;
+
+public class OutboundQueueTest {
+
+  /*
+   * A client that only finishes writes when told to, and records what it was
+   * sent.
+   */
+  private static class SlowClient {
+    private final List<String> written = new ArrayList<>();
+    private final List<WriteCallback> inFlight = new ArrayList<>();
+    private boolean closed = false;
+
+    private final RemoteEndpoint remote = (RemoteEndpoint) Proxy
+        .newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+            new Class<?>[] {RemoteEndpoint.class}, (proxy, method, args) -> {
+              if (method.getName().equals("sendString")
+                  && args.length == 2) {
+                written.add((String) args[0]);
+                inFlight.add((WriteCallback) args[1]);
+              }
+              return null;
+            });
+
+    private final Session session = (Session) Proxy.newProxyInstance(
+        Session.class.getClassLoader(), new Class<?>[] {Session.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getRemote":
+              return remote;
+            case "close":
+              closed = true;
+              return null;
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              return null;
+          }
+        });
+
+    void finishWrite() {
+      inFlight.remove(0).writeSuccess();
+    }
+  }
+
+  @After
+  public void restoreDefaults() {
+    OutboundQueue.configure(OutboundQueue.DEFAULT_CAPACITY,
+        OutboundQueue.Overflow.DROP_OLDEST);
+  }
+
+  @Test
+  public void testWritesInOrder() {
+    SlowClient client = new SlowClient();
+    OutboundQueue queue = new OutboundQueue(client.session);
+
+    queue.send(Frame.of("a"));
+    queue.send(Frame.of("b"));
+    queue.send(Frame.of("c"));
+
+    // Only one write is in flight at a time.
+    assertEquals(1, client.written.size());
+    assertEquals(2, queue.depth());
+
+    client.finishWrite();
+    client.finishWrite();
+    client.finishWrite();
+    assertEquals(3, client.written.size());
+    assertEquals("c", client.written.get(2));
+    assertEquals(0, queue.depth());
+    assertEquals(2, queue.maxDepth());
+    assertEquals(3, queue.sent());
+  }
+
+  @Test
+  public void testDropsOldestDroppable() {
+    OutboundQueue.configure(2, OutboundQueue.Overflow.DROP_OLDEST);
+    SlowClient client = new SlowClient();
+    OutboundQueue queue = new OutboundQueue(client.session);
+
+    queue.send(Frame.of("round"));
+    queue.sendDroppable(Frame.of("time 25"));
+    queue.send(Frame.of("guess"));
+    queue.sendDroppable(Frame.of("time 20"));
+
+    assertEquals(1, queue.dropped());
+    assertFalse(client.closed);
+
+    client.finishWrite();
+    client.finishWrite();
+    assertEquals("guess", client.written.get(1));
+    client.finishWrite();
+    assertEquals("time 20", client.written.get(2));
+  }
+
+  @Test
+  public void testEvictsWhenNothingDroppable() {
+    OutboundQueue.configure(2, OutboundQueue.Overflow.DROP_OLDEST);
+    SlowClient client = new SlowClient();
+    OutboundQueue queue = new OutboundQueue(client.session);
+
+    queue.send(Frame.of("a"));
+    queue.send(Frame.of("b"));
+    queue.send(Frame.of("c"));
+    assertFalse(client.closed);
+
+    // A full queue of messages that must be delivered drops new chat instead.
+    queue.sendDroppable(Frame.of("chat"));
+    assertEquals(1, queue.dropped());
+    assertFalse(client.closed);
+
+    queue.send(Frame.of("d"));
+    assertTrue(client.closed);
+    assertEquals(0, queue.depth());
+  }
+
+  @Test
+  public void testDisconnectPolicy() {
+    OutboundQueue.configure(1, OutboundQueue.Overflow.DISCONNECT);
+    SlowClient client = new SlowClient();
+    OutboundQueue queue = new OutboundQueue(client.session);
+
+    queue.send(Frame.of("a"));
+    queue.sendDroppable(Frame.of("b"));
+    assertFalse(client.closed);
+    queue.sendDroppable(Frame.of("c"));
+    assertTrue(client.closed);
+  }
+
+  @Test
+  public void testOnlyConnectCreatesQueues() {
+    SlowClient client = new SlowClient();
+    assertEquals(null, OutboundQueue.of(client.session));
+
+    OutboundQueue queue = OutboundQueue.connected(client.session);
+    assertTrue(queue == OutboundQueue.of(client.session));
+
+    // A send after the session left finds no queue to recreate.
+    OutboundQueue.remove(client.session);
+    assertEquals(null, OutboundQueue.of(client.session));
+    assertFalse(OutboundQueue.all().contains(queue));
+  }
+}
@@ -0,0 +1,81 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RoomRegistryTest {
+
+  @Test
+  public void testIdsRoundTrip() {
+    Set<String> ids = new HashSet<>();
+    for (int index = 0; index < 100000; index++) {
+      String id = RoomRegistry.toId(index);
+      assertEquals(6, id.length());
+      assertEquals(index, RoomRegistry.toIndex(id));
+      ids.add(id);
+    }
+    assertEquals(100000, ids.size());
+
+    int last = (1 << 30) - 1;
+    assertEquals(last, RoomRegistry.toIndex(RoomRegistry.toId(last)));
+  }
+
+  @Test
+  public void testBadIds() {
+    assertEquals(-1, RoomRegistry.toIndex(null));
+    assertEquals(-1, RoomRegistry.toIndex("abc"));
+    // No 0, 1, i or o, so ids can be read aloud.
+    assertEquals(-1, RoomRegistry.toIndex("abcde0"));
+    assertEquals(-1, RoomRegistry.toIndex("abcdei"));
+  }
+
+  @Test
+  public void testCreateAndGet() {
+    RoomRegistry rooms = new RoomRegistry(10);
+    Room room = rooms.create(null, 4);
+    assertNotNull(room);
+    assertSame(room, rooms.get(room.getRoomId()));
+    assertSame(room, rooms.get(room.getRoomId().toUpperCase()));
+    assertSame(room, rooms.get(room.getIndex()));
+    assertEquals(1, rooms.size());
+
+    assertTrue(rooms.remove(room));
+    assertFalse(rooms.remove(room));
+    assertNull(rooms.get(room.getRoomId()));
+    assertEquals(0, rooms.size());
+  }
+
+  @Test
+  public void testCapacity() {
+    RoomRegistry rooms = new RoomRegistry(2);
+    Room first = rooms.create(null, 1);
+    assertNotNull(rooms.create(null, 1));
+    assertNull(rooms.create(null, 1));
+
+    rooms.remove(first);
+    assertNotNull(rooms.create(null, 1));
+  }
+
+  @Test
+  public void testReapIdle() throws InterruptedException {
+    RoomRegistry rooms = new RoomRegistry(10);
+    Room idle = rooms.create(null, 1);
+    Room active = rooms.create(null, 1);
+
+    Thread.sleep(20);
+    active.touch();
+    assertEquals(1, rooms.reapIdle(10).size());
+    assertEquals(1, rooms.reaped());
+    assertNull(rooms.get(idle.getIndex()));
+    assertSame(active, rooms.get(active.getIndex()));
+  }
+}
@@ -0,0 +1,90 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Test;
+
+public class SessionReaperTest {
+
+  /*
+   * A client that counts the pings it is sent.
+   */
+  private static class Client {
+    private int pings = 0;
+    private boolean open = true;
+
+    private final RemoteEndpoint remote = (RemoteEndpoint) Proxy
+        .newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+            new Class<?>[] {RemoteEndpoint.class}, (proxy, method, args) -> {
+              if (method.getName().equals("sendPing")) {
+                pings++;
+              }
+              return null;
+            });
+
+    private final Session session = (Session) Proxy.newProxyInstance(
+        Session.class.getClassLoader(), new Class<?>[] {Session.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getRemote":
+              return remote;
+            case "isOpen":
+              return open;
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              return null;
+          }
+        });
+  }
+
+  @Test
+  public void testQuietSessionsArePinged() {
+    SessionReaper reaper = new SessionReaper();
+    Client client = new Client();
+    reaper.seen(client.session);
+
+    assertTrue(reaper.sweep(0, 60000).isEmpty());
+    assertEquals(1, client.pings);
+    assertEquals(1, reaper.pings());
+
+    assertTrue(reaper.sweep(60000, 60000).isEmpty());
+    assertEquals(1, client.pings);
+  }
+
+  @Test
+  public void testDeadSessionsAreReaped() {
+    SessionReaper reaper = new SessionReaper();
+    Client dead = new Client();
+    Client alive = new Client();
+    reaper.seen(dead.session);
+    reaper.seen(alive.session);
+
+    dead.open = false;
+    assertEquals(Collections.singletonList(dead.session),
+        reaper.sweep(60000, 60000));
+    assertEquals(1, reaper.size());
+    assertEquals(1, reaper.reaped());
+
+    assertEquals(Collections.singletonList(alive.session),
+        reaper.sweep(0, 0));
+    assertEquals(0, reaper.size());
+  }
+
+  @Test
+  public void testForget() {
+    SessionReaper reaper = new SessionReaper();
+    Client client = new Client();
+    reaper.seen(client.session);
+    reaper.forget(client.session);
+    assertTrue(reaper.sweep(0, 0).isEmpty());
+  }
+}
@@ -0,0 +1,110 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SuggestionLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSurvivesRestart() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("suggestions.log");
+    SuggestionLog log = new SuggestionLog(path);
+    assertNull(log.get("cats "));
+    log.put("cats ", Arrays.asList("cats are great", "cats vs dogs"));
+    log.put("dogs ", Arrays.asList("dogs bark"));
+    log.close();
+
+    SuggestionLog reopened = new SuggestionLog(path);
+    SuggestionLog.Entry entry = reopened.get("cats ");
+    assertEquals(Arrays.asList("cats are great", "cats vs dogs"),
+        entry.getSuggestions());
+    assertTrue(entry.isFresh());
+    assertEquals(2, reopened.size());
+  }
+
+  @Test
+  public void testLatestEntryWins() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("suggestions.log");
+    SuggestionLog log = new SuggestionLog(path);
+    log.put("cats ", Arrays.asList("cats old"));
+    log.put("cats ", Arrays.asList("cats new"));
+    log.close();
+
+    assertEquals(Arrays.asList("cats new"),
+        new SuggestionLog(path).get("cats ").getSuggestions());
+  }
+
+  @Test
+  public void testSkipsTornLines() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("suggestions.log");
+    Files.write(path, ("{\"q\":\"cats \",\"t\":" + System.currentTimeMillis()
+        + ",\"s\":[\"cats meow\"]}\n{\"q\":\"dogs").getBytes(
+            StandardCharsets.UTF_8));
+
+    SuggestionLog log = new SuggestionLog(path);
+    assertEquals(Arrays.asList("cats meow"),
+        log.get("cats ").getSuggestions());
+    assertNull(log.get("dogs "));
+  }
+
+  @Test
+  public void testCompact() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("suggestions.log");
+    SuggestionLog log = new SuggestionLog(path);
+    for (int i = 0; i < 10; i++) {
+      log.put("cats ", Arrays.asList("cats " + i));
+    }
+    log.compact();
+    log.put("dogs ", Arrays.asList("dogs bark"));
+    log.close();
+
+    assertEquals(2, Files.readAllLines(path).size());
+    SuggestionLog reopened = new SuggestionLog(path);
+    assertEquals(Arrays.asList("cats 9"),
+        reopened.get("cats ").getSuggestions());
+    assertEquals(Arrays.asList("dogs bark"),
+        reopened.get("dogs ").getSuggestions());
+  }
+
+  @Test
+  public void testCompactKeepsEntriesPutMeanwhile() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("suggestions.log");
+    SuggestionLog log = new SuggestionLog(path);
+    log.put("cats ", Arrays.asList("cats purr"));
+    // Holding the lock keeps compaction from finishing, as a put would.
+    Thread compactor = new Thread(log::compact);
+    synchronized (log) {
+      compactor.start();
+      while (compactor.getState() != Thread.State.BLOCKED
+          && compactor.isAlive()) {
+        Thread.yield();
+      }
+      log.put("dogs ", Arrays.asList("dogs bark"));
+    }
+    try {
+      compactor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    log.close();
+
+    assertEquals(2, Files.readAllLines(path).size());
+    SuggestionLog reopened = new SuggestionLog(path);
+    assertEquals(Arrays.asList("dogs bark"),
+        reopened.get("dogs ").getSuggestions());
+  }
+}
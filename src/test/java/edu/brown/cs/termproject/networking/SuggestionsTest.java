@@ -0,0 +1,34 @@
+package edu.brown.cs.termproject.networking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SuggestionsTest {
+
+  @Test
+  public void testEndingsDropExtendedSuggestions() {
+    assertEquals(Arrays.asList("barks", "bites"),
+        Suggestions.getEndings("the dog ", Arrays.asList("the dog barks",
+            "the dog barks a lot", "the dog bites", "a dog barks")));
+  }
+
+  @Test
+  public void testEndingsKeepSharedPrefixes() {
+    assertEquals(Arrays.asList("the butter", "the watermelon"),
+        Suggestions.getEndings("my dog likes ", Arrays.asList(
+            "my dog likes the butter", "my dog likes the watermelon")));
+  }
+
+  @Test
+  public void testEndingsKeepOthersWhenQueryIsEchoed() {
+    assertEquals(Arrays.asList("my", "my dog sad", "my cat fat"),
+        Suggestions.getEndings("why is my", Arrays.asList("why is my",
+            "why is my dog sad", "why is my cat fat")));
+    assertEquals(Arrays.asList("", "dog sad", "cat fat"),
+        Suggestions.getEndings("why is my ", Arrays.asList("why is my ",
+            "why is my dog sad", "why is my cat fat")));
+  }
+}
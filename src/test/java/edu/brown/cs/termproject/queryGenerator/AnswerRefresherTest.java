@@ -0,0 +1,130 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.brown.cs.termproject.database.ConnectionPool;
+import edu.brown.cs.termproject.database.DBConnector;
+
+public class AnswerRefresherTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DBConnector db;
+  private int qID;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    String path = folder.newFile("test.sqlite3").getPath();
+    ConnectionPool pool = new ConnectionPool(path, 1);
+    pool.write((handle) -> {
+      try (Statement stat = handle.getConnection().createStatement()) {
+        stat.executeUpdate("CREATE TABLE queries (ID integer primary key, "
+            + "query text not null unique);");
+        stat.executeUpdate("CREATE TABLE answers (ID integer primary key, "
+            + "answer text not null, queryID integer, score integer);");
+      }
+      return null;
+    });
+    pool.close();
+    db = new DBConnector(path);
+    qID = db.getPool().write((handle) -> {
+      handle.prepare("INSERT INTO queries (query) VALUES ('why is my ');")
+          .executeUpdate();
+      PreparedStatement prep = handle.prepare("INSERT INTO answers "
+          + "(answer, score, queryID) VALUES (?, ?, last_insert_rowid());");
+      for (String answer : Arrays.asList("dog sad", "cat fat", "fish wet",
+          "bird loud")) {
+        prep.setString(1, answer);
+        prep.setInt(2, 1);
+        prep.executeUpdate();
+      }
+      try (ResultSet rs = handle.prepare("SELECT ID FROM queries;")
+          .executeQuery()) {
+        return rs.getInt(1);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  private List<String> answers() throws SQLException {
+    return db.getPool().read((handle) -> {
+      List<String> answers = new ArrayList<>();
+      try (ResultSet rs = handle
+          .prepare("SELECT answer FROM answers ORDER BY ID;").executeQuery()) {
+        while (rs.next()) {
+          answers.add(rs.getString(1));
+        }
+      }
+      return answers;
+    });
+  }
+
+  private long refreshed() throws SQLException {
+    return db.getPool().read((handle) -> {
+      try (ResultSet rs = handle.prepare("SELECT refreshed FROM queries;")
+          .executeQuery()) {
+        return rs.getLong(1);
+      }
+    });
+  }
+
+  private static Function<String, CompletableFuture<List<String>>> answering(
+      List<String> suggestions) {
+    return (query) -> CompletableFuture.completedFuture(suggestions);
+  }
+
+  @Test
+  public void testFailedLookupKeepsAnswers() throws SQLException {
+    AnswerRefresher refresher = new AnswerRefresher(db, (query) -> {
+      CompletableFuture<List<String>> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IllegalStateException("offline"));
+      return failed;
+    });
+
+    assertEquals(0, refresher.refreshBatch());
+    assertEquals(1, refresher.failed());
+    assertEquals(0, refresher.checked());
+    assertEquals(Arrays.asList("dog sad", "cat fat", "fish wet", "bird loud"),
+        answers());
+    assertNull(db.answersDigest(qID));
+    // Sent to the back of the line.
+    assertTrue(refreshed() > 0);
+  }
+
+  @Test
+  public void testTooFewAnswersKeepsOldOnes() throws SQLException {
+    AnswerRefresher refresher = new AnswerRefresher(db,
+        answering(Arrays.asList("why is my dog sad")));
+
+    assertEquals(0, refresher.refreshBatch());
+    assertEquals(1, refresher.tooFew());
+    assertEquals(Arrays.asList("dog sad", "cat fat", "fish wet", "bird loud"),
+        answers());
+    assertNull(db.answersDigest(qID));
+    assertTrue(refreshed() > 0);
+  }
+}
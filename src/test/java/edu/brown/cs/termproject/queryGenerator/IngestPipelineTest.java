@@ -0,0 +1,140 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+public class IngestPipelineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Set<String> fetched = ConcurrentHashMap.newKeySet();
+  private final List<String> written = Collections
+      .synchronizedList(new ArrayList<>());
+
+  // Queries starting with "bad" have too few answers, "fail" can't be
+  // fetched.
+  private CompletableFuture<QueryResponses> fetch(String query) {
+    fetched.add(query);
+    CompletableFuture<QueryResponses> future = new CompletableFuture<>();
+    if (query.startsWith("fail")) {
+      future.completeExceptionally(new IllegalStateException(query));
+    } else {
+      future.complete(query.startsWith("bad") ? null
+          : new QueryResponses(0, query, null));
+    }
+    return future;
+  }
+
+  private int write(List<QueryResponses> batch) {
+    for (QueryResponses qr : batch) {
+      written.add(qr.getQuery());
+    }
+    return batch.size();
+  }
+
+  private IngestPipeline pipeline(Path progress, Set<String> existing,
+      int batchSize) throws IOException {
+    return new IngestPipeline(existing::contains, this::fetch, this::write,
+        progress, 4, 1000, batchSize);
+  }
+
+  @Test
+  public void testIngest() throws IOException {
+    Path progress = folder.getRoot().toPath().resolve("progress");
+    IngestPipeline pipeline = pipeline(progress,
+        new HashSet<>(Arrays.asList("old ")), 2);
+    pipeline.run(Arrays.asList("a ", "old ", "b ", "bad ", "a ", "fail ",
+        "c ").iterator());
+
+    assertEquals(new HashSet<>(Arrays.asList("a ", "b ", "c ")),
+        new HashSet<>(written));
+    assertEquals(7, pipeline.prompts());
+    assertEquals(3, pipeline.inserted());
+    assertEquals(1, pipeline.tooFew());
+    assertEquals(1, pipeline.failed());
+    assertEquals(2, pipeline.duplicates());
+    assertTrue(pipeline.batches() >= 2);
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    Path progress = folder.getRoot().toPath().resolve("progress");
+    pipeline(progress, new HashSet<>(), 10)
+        .run(Arrays.asList("a ", "bad ", "fail ").iterator());
+    assertEquals(new HashSet<>(Arrays.asList("a ", "bad ")),
+        new HashSet<>(Files.readAllLines(progress)));
+
+    fetched.clear();
+    IngestPipeline again = pipeline(progress, new HashSet<>(), 10);
+    again.run(Arrays.asList("a ", "bad ", "fail ").iterator());
+    // Only the failed lookup is tried again.
+    assertEquals(Collections.singleton("fail "), fetched);
+    assertEquals(2, again.resumed());
+  }
+
+  @Test
+  public void testFailedBatchIsRetried() throws IOException {
+    Path progress = folder.getRoot().toPath().resolve("progress");
+    AtomicInteger attempts = new AtomicInteger();
+    IngestPipeline pipeline = new IngestPipeline((query) -> false,
+        this::fetch, (batch) -> {
+          attempts.incrementAndGet();
+          throw new SQLException("locked");
+        }, progress, 4, 1000, 10);
+    pipeline.run(Arrays.asList("a ", "b ").iterator());
+
+    assertEquals(1, attempts.get());
+    assertEquals(0, pipeline.inserted());
+    assertTrue(Files.readAllLines(progress).isEmpty());
+
+    // The next run looks the queries up and writes them again.
+    fetched.clear();
+    IngestPipeline again = pipeline(progress, new HashSet<>(), 10);
+    again.run(Arrays.asList("a ", "b ").iterator());
+    assertEquals(new HashSet<>(Arrays.asList("a ", "b ")), fetched);
+    assertEquals(2, again.inserted());
+    assertEquals(0, again.resumed());
+  }
+
+  @Test(timeout = 10000)
+  public void testWriterErrorsDontStopThePipeline() throws IOException {
+    Path progress = folder.getRoot().toPath().resolve("progress");
+    AtomicInteger attempts = new AtomicInteger();
+    IngestPipeline pipeline = new IngestPipeline((query) -> false,
+        this::fetch, (batch) -> {
+          attempts.incrementAndGet();
+          throw new IllegalStateException("no model");
+        }, progress, 4, 1000, 1);
+    // More results than the writer's queue and the lookups in flight hold.
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      queries.add("q" + i + " ");
+    }
+    pipeline.run(queries.iterator());
+
+    assertEquals(20, attempts.get());
+    assertEquals(0, pipeline.inserted());
+    assertTrue(Files.readAllLines(progress).isEmpty());
+  }
+}
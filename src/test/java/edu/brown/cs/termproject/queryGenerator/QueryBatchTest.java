@@ -0,0 +1,93 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+public class QueryBatchTest {
+
+  private final Map<String, CompletableFuture<QueryResponses>> started =
+      new LinkedHashMap<>();
+  private final List<Integer> reported = new ArrayList<>();
+
+  private CompletableFuture<QueryResponses> check(String query) {
+    CompletableFuture<QueryResponses> future = new CompletableFuture<>();
+    started.put(query, future);
+    return future;
+  }
+
+  private QueryBatch batch(String... queries) {
+    return new QueryBatch(Arrays.asList(queries), this::check,
+        (index, responses) -> reported.add(index));
+  }
+
+  @Test
+  public void testBoundedAndStreamed() {
+    CompletableFuture<List<QueryResponses>> all = batch("a", "b", "c")
+        .start(2, 60000);
+    assertEquals(Arrays.asList("a ", "b "), new ArrayList<>(started.keySet()));
+
+    QueryResponses b = new QueryResponses(-1, "b ", null);
+    started.get("b ").complete(b);
+    assertEquals(Collections.singletonList(1), reported);
+    assertTrue(started.containsKey("c "));
+
+    started.get("c ").complete(null);
+    assertFalse(all.isDone());
+    started.get("a ").complete(null);
+
+    assertEquals(Arrays.asList(1, 2, 0), reported);
+    List<QueryResponses> results = all.join();
+    assertNull(results.get(0));
+    assertSame(b, results.get(1));
+    assertNull(results.get(2));
+  }
+
+  @Test
+  public void testDeadline() throws InterruptedException {
+    CompletableFuture<List<QueryResponses>> all = batch("a", "b").start(2,
+        50);
+    QueryResponses a = new QueryResponses(-1, "a ", null);
+    started.get("a ").complete(a);
+
+    List<QueryResponses> results = all.join();
+    assertSame(a, results.get(0));
+    assertNull(results.get(1));
+
+    // A late answer changes nothing.
+    started.get("b ").complete(new QueryResponses(-1, "b ", null));
+    assertEquals(Collections.singletonList(0), reported);
+  }
+
+  @Test
+  public void testTooManyQueries() {
+    String[] queries = new String[QueryBatch.MAX_QUERIES + 5];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = "q" + i;
+    }
+    CompletableFuture<List<QueryResponses>> all = batch(queries)
+        .start(100, 60000);
+    assertEquals(QueryBatch.MAX_QUERIES, started.size());
+    started.values().forEach((future) -> future.complete(null));
+    assertEquals(queries.length, all.join().size());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertTrue(batch().start(2, 60000).join().isEmpty());
+  }
+}
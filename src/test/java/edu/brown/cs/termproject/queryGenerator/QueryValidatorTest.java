@@ -0,0 +1,91 @@
+package edu.brown.cs.termproject.queryGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import edu.brown.cs.termproject.queryResponses.QueryResponses;
+
+public class QueryValidatorTest {
+
+  /*
+   * Records each lookup and leaves it for the test to complete.
+   */
+  private static class Upstream {
+    private final List<String> queries = new ArrayList<>();
+    private final List<CompletableFuture<QueryResponses>> pending =
+        new ArrayList<>();
+
+    CompletableFuture<QueryResponses> lookup(String query) {
+      queries.add(query);
+      CompletableFuture<QueryResponses> future = new CompletableFuture<>();
+      pending.add(future);
+      return future;
+    }
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals("why is my ", QueryValidator.normalize("  Why  is\tMY "));
+    assertEquals("how to", QueryValidator.normalize("how to"));
+    assertEquals("", QueryValidator.normalize("   "));
+  }
+
+  @Test
+  public void testCoalescesAndCaches() {
+    Upstream upstream = new Upstream();
+    QueryValidator validator = new QueryValidator(upstream::lookup, 60, 10,
+        100);
+
+    CompletableFuture<QueryResponses> first = validator.validate("How to ");
+    CompletableFuture<QueryResponses> second = validator.validate("how  to ");
+    assertEquals(1, upstream.queries.size());
+    assertEquals("how to ", upstream.queries.get(0));
+    assertEquals(1, validator.coalesced());
+
+    QueryResponses responses = new QueryResponses(-1, "how to ", null);
+    upstream.pending.get(0).complete(responses);
+    assertSame(responses, first.join());
+    assertSame(responses, second.join());
+
+    assertSame(responses, validator.validate("HOW TO ").join());
+    assertEquals(1, upstream.queries.size());
+    assertEquals(1, validator.hits());
+    assertEquals(1, validator.misses());
+  }
+
+  @Test
+  public void testNegativeCache() {
+    Upstream upstream = new Upstream();
+    QueryValidator validator = new QueryValidator(upstream::lookup, 60, 10,
+        100);
+
+    CompletableFuture<QueryResponses> lookup = validator.validate("zzzq ");
+    upstream.pending.get(0).complete(null);
+    assertNull(lookup.join());
+
+    assertNull(validator.validate("zzzq ").join());
+    assertEquals(1, upstream.queries.size());
+    assertEquals(1, validator.invalidHits());
+  }
+
+  @Test
+  public void testFailuresAreNotCached() {
+    Upstream upstream = new Upstream();
+    QueryValidator validator = new QueryValidator(upstream::lookup, 60, 10,
+        100);
+
+    CompletableFuture<QueryResponses> lookup = validator.validate("cats ");
+    upstream.pending.get(0).completeExceptionally(new RuntimeException());
+    assertNull(lookup.join());
+
+    validator.validate("cats ");
+    assertEquals(2, upstream.queries.size());
+  }
+}
@@ -77,4 +77,23 @@ public class SuggestionTest {
     // Suggestion su = new Suggestion(model.tokenize("see"), "", 0);
     // Suggestion tu = new Suggestion(model.tokenize("find my iphone"), "a", 0);
   }
+
+  @Test
+  public void testFromTokensRoundTrips() {
+    Word2VecModel small = new Word2VecModel("data/test_embeddings.sqlite3",
+        "data/stopwords.txt");
+    Suggestion sug = new Suggestion(small.tokenize("a great test"),
+        "A great test", 4);
+    Suggestion other = new Suggestion(small.tokenize("real bad"), "real bad",
+        2);
+
+    Suggestion read = Suggestion.fromTokens(sug.getResponse(), sug.getScore(),
+        sug.getTokens(), small);
+    assertEquals(sug.getResponse(), read.getResponse());
+    assertEquals(sug.getScore(), read.getScore());
+    assertEquals(sug.getTokens(), read.getTokens());
+    assertEquals(sug.similarity(other), read.similarity(other), 0.00001);
+    assertEquals(other.similarity(sug), other.similarity(read), 0.00001);
+    small.close();
+  }
 }